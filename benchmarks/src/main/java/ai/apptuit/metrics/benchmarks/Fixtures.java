@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.benchmarks;
+
+import ai.apptuit.metrics.client.Sanitizer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names and tags shared by the benchmarks, generated deterministically so that runs are
+ * comparable.
+ */
+public final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  public static Map<String, String> tags(int count) {
+    Map<String, String> tags = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      tags.put("tag" + i, "value." + i);
+    }
+    return tags;
+  }
+
+  /**
+   * Returns a dropwizard name with {@code tagCount} tags encoded in it, e.g.
+   * {@code bench.metric.42[tag0:value.0,tag1:value.1]}.
+   */
+  public static String encodedName(String prefix, int index, int tagCount) {
+    StringBuilder name = new StringBuilder(prefix).append('.').append(index);
+    if (tagCount == 0) {
+      return name.toString();
+    }
+    name.append('[');
+    for (int i = 0; i < tagCount; i++) {
+      if (i > 0) {
+        name.append(',');
+      }
+      name.append("tag").append(i).append(':').append("value.").append(index % (i + 2));
+    }
+    return name.append(']').toString();
+  }
+
+  public static Sanitizer sanitizer(String name) {
+    switch (name) {
+      case "PROMETHEUS":
+        return Sanitizer.PROMETHEUS_SANITIZER;
+      case "APPTUIT":
+        return Sanitizer.APPTUIT_SANITIZER;
+      default:
+        return Sanitizer.NO_OP_SANITIZER;
+    }
+  }
+}
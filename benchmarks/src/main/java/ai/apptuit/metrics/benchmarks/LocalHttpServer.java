@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Stand-in for the Apptuit put API on the loopback interface. Reads and discards each request
+ * body and answers 204, so that benchmarks measure the client and not a remote service.
+ */
+final class LocalHttpServer {
+
+  private static final int HTTP_NO_CONTENT = 204;
+
+  private final HttpServer server;
+
+  LocalHttpServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      byte[] buffer = new byte[64 * 1024];
+      try (InputStream in = exchange.getRequestBody()) {
+        while (in.read(buffer) >= 0) {
+          // discard
+        }
+      }
+      exchange.sendResponseHeaders(HTTP_NO_CONTENT, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  String getPutUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/put";
+  }
+
+  void stop() {
+    server.stop(0);
+  }
+}
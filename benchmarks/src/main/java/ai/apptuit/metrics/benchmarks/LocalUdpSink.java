@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.benchmarks;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+/**
+ * Stand-in for a local XCollector agent. Binds an ephemeral UDP port, so that it never clashes
+ * with an agent running on the machine, and drains packets on a daemon thread, so that the socket
+ * buffer never fills up and packets are not dropped by the kernel mid-run.
+ */
+final class LocalUdpSink {
+
+  private final DatagramSocket socket;
+  private final Thread receiver;
+
+  LocalUdpSink() throws IOException {
+    socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+    socket.setReceiveBufferSize(4 * 1024 * 1024);
+    receiver = new Thread(this::drain, "local-udp-sink");
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  int getPort() {
+    return socket.getLocalPort();
+  }
+
+  private void drain() {
+    DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+    while (!socket.isClosed()) {
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  void stop() throws InterruptedException {
+    socket.close();
+    receiver.join();
+  }
+}
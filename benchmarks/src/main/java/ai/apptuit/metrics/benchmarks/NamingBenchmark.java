@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.benchmarks;
+
+import ai.apptuit.metrics.client.Sanitizer;
+import ai.apptuit.metrics.client.Sanitizer.CachingSanitizer;
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the per-name work done on every report: decoding tag encoded dropwizard names and
+ * sanitizing metric names and tag keys. Each invocation walks a fixed set of distinct names so
+ * that the caching sanitizer sees a realistic working set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamingBenchmark {
+
+  private static final int NAME_COUNT = 1024;
+
+  @Param({"0", "4", "16"})
+  private int tagCount;
+
+  @Param({"PROMETHEUS", "APPTUIT", "CACHED_PROMETHEUS"})
+  private String sanitizer;
+
+  private String[] encodedNames;
+  private String[] rawNames;
+  private Sanitizer nameSanitizer;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    encodedNames = new String[NAME_COUNT];
+    rawNames = new String[NAME_COUNT];
+    for (int i = 0; i < NAME_COUNT; i++) {
+      encodedNames[i] = Fixtures.encodedName("jvm.memory.pool-usage", i, tagCount);
+      rawNames[i] = "tomcat.requests{status=" + i + "}.latency-p99";
+    }
+    if ("CACHED_PROMETHEUS".equals(sanitizer)) {
+      nameSanitizer = new CachingSanitizer(Sanitizer.PROMETHEUS_SANITIZER, NAME_COUNT * 2);
+    } else {
+      nameSanitizer = Fixtures.sanitizer(sanitizer);
+    }
+  }
+
+  @Benchmark
+  public TagEncodedMetricName decode() {
+    return TagEncodedMetricName.decode(encodedNames[nextIndex()]);
+  }
+
+  @Benchmark
+  public String sanitize() {
+    return nameSanitizer.sanitizer(rawNames[nextIndex()]);
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (NAME_COUNT - 1);
+    return next;
+  }
+}
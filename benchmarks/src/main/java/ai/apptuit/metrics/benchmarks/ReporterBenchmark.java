@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.benchmarks;
+
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.ReportingMode;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.SendMode;
+import ai.apptuit.metrics.dropwizard.ApptuitReporterFactory;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full {@link ScheduledReporter#report()} cycle of an {@code ApptuitReporter}: reading the
+ * registry, naming and rendering every series and sending them to a local HTTP stand-in
+ * ({@code API_PUT}) or UDP sink ({@code XCOLLECTOR}). {@code NO_OP} measures collection alone.
+ *
+ * <p>{@code seriesCount} is the number of reported series, not of metrics: a timer is reported
+ * as {@value #SERIES_PER_TIMER} series, so the registry holds that many fewer timers. Timers are
+ * updated before every cycle so that none of their series are skipped as unchanged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ReporterBenchmark {
+
+  private static final int SERIES_PER_TIMER = 14;
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  private int seriesCount;
+
+  @Param({"0", "4"})
+  private int tagCount;
+
+  @Param({"COUNTER", "TIMER"})
+  private String metricType;
+
+  @Param({"API_PUT", "XCOLLECTOR", "NO_OP"})
+  private ReportingMode reportingMode;
+
+  @Param({"SYNC", "STREAMING"})
+  private SendMode sendMode;
+
+  private LocalHttpServer httpServer;
+  private LocalUdpSink udpSink;
+  private ScheduledReporter reporter;
+  private final List<Timer> timers = new ArrayList<>();
+  private long tick;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    MetricRegistry registry = new MetricRegistry();
+    if ("TIMER".equals(metricType)) {
+      for (int i = 0; i < seriesCount / SERIES_PER_TIMER; i++) {
+        Timer timer = registry.timer(Fixtures.encodedName("bench.timer", i, tagCount));
+        timer.update(i, TimeUnit.MICROSECONDS);
+        timers.add(timer);
+      }
+    } else {
+      for (int i = 0; i < seriesCount; i++) {
+        registry.counter(Fixtures.encodedName("bench.counter", i, tagCount)).inc(i);
+      }
+    }
+
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setApiKey("benchmark");
+    factory.addGlobalTag("env", "benchmark");
+    factory.setReportingMode(reportingMode);
+    factory.setSendMode(sendMode);
+    if (reportingMode == ReportingMode.API_PUT) {
+      httpServer = new LocalHttpServer();
+      factory.setApiUrl(httpServer.getPutUrl());
+    } else if (reportingMode == ReportingMode.XCOLLECTOR) {
+      udpSink = new LocalUdpSink();
+      factory.setXCollectorPort(udpSink.getPort());
+    }
+    reporter = factory.build(registry);
+  }
+
+  @Setup(Level.Invocation)
+  public void updateTimers() {
+    tick++;
+    for (Timer timer : timers) {
+      timer.update(tick, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  @Benchmark
+  public void report() {
+    reporter.report();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    reporter.close();
+    if (httpServer != null) {
+      httpServer.stop();
+    }
+    if (udpSink != null) {
+      udpSink.stop();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import ai.apptuit.metrics.benchmarks.Fixtures;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding one batch of points with the encoders the reporter uses: the
+ * {@link BatchEncoder} of every {@link PayloadFormat} ({@code API_PUT}) and the
+ * {@link TextLineEncoder} ({@code XCOLLECTOR}). It lives in the client package because the
+ * encoders are package-private.
+ *
+ * <p>The batch holds {@value #POINT_COUNT} points of {@value #SERIES_COUNT} metrics sharing a
+ * timestamp, like the points of a single report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  private static final int POINT_COUNT = 1000;
+  private static final int SERIES_COUNT = 100;
+  private static final byte[] NO_PREFIX = new byte[0];
+
+  @Param({"JSON", "BINARY", "COLUMNAR", "TEXT_LINE"})
+  private String format;
+
+  @Param({"0", "4", "16"})
+  private int tagCount;
+
+  @Param({"NO_OP", "PROMETHEUS", "APPTUIT"})
+  private String sanitizer;
+
+  private final List<DataPoint> dataPoints = new ArrayList<>();
+  private Sanitizer pointSanitizer;
+  private GlobalTagsFragment globalTags;
+  private BatchEncoder encoder;
+  private ByteArrayOutputStream out;
+  private ByteBuffer packet;
+
+  @Setup
+  public void setUp() {
+    Map<String, String> tags = Fixtures.tags(tagCount);
+    for (int i = 0; i < POINT_COUNT; i++) {
+      dataPoints.add(new DataPoint("proc.stat.cpu.time." + (i % SERIES_COUNT), 1500000000L,
+          1234.5678 + i, tags));
+    }
+    pointSanitizer = Fixtures.sanitizer(sanitizer);
+    globalTags = GlobalTagsFragment.of(Fixtures.tags(2), pointSanitizer);
+    encoder = "TEXT_LINE".equals(format) ? null : PayloadFormat.valueOf(format).getEncoder();
+    out = new ByteArrayOutputStream(1024 * 1024);
+    packet = ByteBuffer.allocateDirect(64 * 1024);
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    return encoder != null ? encodeBatch() : encodeLines();
+  }
+
+  private int encodeBatch() throws IOException {
+    out.reset();
+    try {
+      encoder.begin(out, globalTags, pointSanitizer);
+      for (DataPoint dataPoint : dataPoints) {
+        encoder.writeDataPoint(dataPoint);
+      }
+      encoder.end();
+    } finally {
+      encoder.reset();
+    }
+    return out.size();
+  }
+
+  private int encodeLines() {
+    int bytes = 0;
+    packet.clear();
+    for (DataPoint dataPoint : dataPoints) {
+      if (!TextLineEncoder.write(packet, NO_PREFIX, dataPoint, globalTags, pointSanitizer)) {
+        bytes += packet.position();
+        packet.clear();
+        TextLineEncoder.write(packet, NO_PREFIX, dataPoint, globalTags, pointSanitizer);
+      }
+    }
+    return bytes + packet.position();
+  }
+}
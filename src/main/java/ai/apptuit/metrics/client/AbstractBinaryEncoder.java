@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Buffering, varints and the inline string and tag dictionaries shared by the binary batch
+ * formats.
+ *
+ * <p>Dictionary entries are defined the first time they are used: a reference equal to the number
+ * of entries defined so far in the dictionary is followed by the definition of the new entry.
+ * Numbers are unsigned LEB128 varints unless noted otherwise.
+ * <pre>
+ * header    := magic(4) tagCount tag*
+ * series    := metric tagCount tag*
+ * metric    := string
+ * tag       := pairRef [tagKey tagValue]
+ * tagKey    := string
+ * tagValue  := string
+ * string    := stringRef [byteCount utf8Bytes]
+ * </pre>
+ * Tag pairs have a dictionary of their own, but all strings share one: a new string, be it a
+ * metric name, a tag key or a tag value, is referred to by the number of strings defined so far.
+ * Metric names and tag keys are sanitized and tag values are not, so the same text can be defined
+ * twice, once as a name or key and once as a value. The tags in the header are the global tags,
+ * which apply to every point and take precedence over point tags with the same key;
+ * {@code series} leaves out the point tags they override.
+ */
+abstract class AbstractBinaryEncoder implements BatchEncoder {
+
+  static final byte LONG_VALUE = 'L';
+  static final byte DOUBLE_VALUE = 'D';
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_VARINT_SIZE = 10;
+
+  private final byte[] magic;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final Map<String, Integer> names = new HashMap<>();
+  private final Map<String, Integer> values = new HashMap<>();
+  private final Map<Long, Integer> pairs = new HashMap<>();
+  private int position;
+  private int stringCount;
+  private OutputStream out;
+  private GlobalTagsFragment globalTags;
+  private Sanitizer sanitizer;
+
+  AbstractBinaryEncoder(byte[] magic) {
+    this.magic = magic;
+  }
+
+  @Override
+  public void begin(OutputStream out, GlobalTagsFragment globalTags, Sanitizer sanitizer)
+      throws IOException {
+    reset();
+    this.out = out;
+    this.globalTags = globalTags;
+    this.sanitizer = sanitizer;
+    writeBytes(magic, 0, magic.length);
+    Map<String, String> tags = globalTags.getTags();
+    writeVarint(tags.size());
+    for (Map.Entry<String, String> tag : tags.entrySet()) {
+      writePair(tag.getKey(), tag.getValue());
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void reset() {
+    this.out = null;
+    this.globalTags = null;
+    this.sanitizer = null;
+    this.position = 0;
+    this.stringCount = 0;
+    names.clear();
+    values.clear();
+    pairs.clear();
+  }
+
+  /**
+   * Writes the metric name and the tags of a series that is not overridden by global tags.
+   */
+  void writeSeries(String metric, Map<String, String> tags) throws IOException {
+    writeString(names, metric, true);
+    int tagCount = 0;
+    for (String key : tags.keySet()) {
+      if (!globalTags.overrides(key)) {
+        tagCount++;
+      }
+    }
+    writeVarint(tagCount);
+    for (Map.Entry<String, String> tag : tags.entrySet()) {
+      if (!globalTags.overrides(tag.getKey())) {
+        writePair(tag.getKey(), tag.getValue());
+      }
+    }
+  }
+
+  private void writePair(String key, String value) throws IOException {
+    Integer keyId = names.get(key);
+    Integer valueId = values.get(value);
+    Integer pairId = keyId != null && valueId != null
+        ? pairs.get(((long) keyId << 32) | valueId) : null;
+    if (pairId != null) {
+      writeVarint(pairId);
+      return;
+    }
+    int id = pairs.size();
+    writeVarint(id);
+    keyId = writeString(names, key, true);
+    valueId = writeString(values, value, false);
+    pairs.put(((long) keyId << 32) | valueId, id);
+  }
+
+  /**
+   * Writes a reference to the string, defining it first if it is not in {@code table} yet. The
+   * names and the values tables are kept apart but draw their ids from one sequence.
+   *
+   * @return the id of the string
+   */
+  private int writeString(Map<String, Integer> table, String value, boolean sanitize)
+      throws IOException {
+    Integer id = table.get(value);
+    if (id != null) {
+      writeVarint(id);
+      return id;
+    }
+    int newId = stringCount++;
+    table.put(value, newId);
+    writeVarint(newId);
+    byte[] bytes = (sanitize ? sanitizer.sanitizer(value) : value)
+        .getBytes(StandardCharsets.UTF_8);
+    writeVarint(bytes.length);
+    writeBytes(bytes, 0, bytes.length);
+    return newId;
+  }
+
+  void writeByte(byte value) throws IOException {
+    ensureCapacity(1);
+    buffer[position++] = value;
+  }
+
+  /**
+   * Writes 8 bytes, big endian.
+   */
+  void writeFixed64(long value) throws IOException {
+    ensureCapacity(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      buffer[position++] = (byte) (value >>> shift);
+    }
+  }
+
+  void writeVarint(long value) throws IOException {
+    ensureCapacity(MAX_VARINT_SIZE);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  /**
+   * Writes a signed number as a varint, mapping small magnitudes to small numbers.
+   */
+  void writeZigzag(long value) throws IOException {
+    writeVarint((value << 1) ^ (value >> 63));
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+    if (length > buffer.length - position) {
+      flushBuffer();
+      if (length > buffer.length) {
+        out.write(bytes, offset, length);
+        return;
+      }
+    }
+    System.arraycopy(bytes, offset, buffer, position, length);
+    position += length;
+  }
+
+  private void ensureCapacity(int length) throws IOException {
+    if (position + length > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  static boolean isIntegral(Number value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte;
+  }
+
+  /**
+   * @return the value as a double, taking floats at the decimal value the JSON format would have
+   *     rather than their binary expansion
+   */
+  static double toDouble(Number value) {
+    return value instanceof Float ? Double.parseDouble(value.toString()) : value.doubleValue();
+  }
+
+  /**
+   * Identity of a series: the metric name and the tags of a point.
+   */
+  static final class SeriesKey {
+
+    private String metric;
+    private Map<String, String> tags;
+    private int hash;
+
+    SeriesKey set(String metric, Map<String, String> tags) {
+      this.metric = metric;
+      this.tags = tags;
+      this.hash = metric == null ? 0 : 31 * metric.hashCode() + tags.hashCode();
+      return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SeriesKey)) {
+        return false;
+      }
+      SeriesKey other = (SeriesKey) o;
+      return hash == other.hash && Objects.equals(metric, other.metric)
+          && Objects.equals(tags, other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
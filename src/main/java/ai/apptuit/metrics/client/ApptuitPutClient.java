@@ -16,39 +16,56 @@
 
 package ai.apptuit.metrics.client;
 
-import java.io.*;
-import java.net.HttpURLConnection;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 import static ai.apptuit.metrics.client.Sanitizer.DEFAULT_SANITIZER;
 
 /**
  * @author Rajiv Shivane
  */
-public class ApptuitPutClient {
+public class ApptuitPutClient implements Closeable {
 
   private static final Logger LOGGER = Logger.getLogger(ApptuitPutClient.class.getName());
 
   private static final boolean DEBUG = true;
-  private static final boolean GZIP = true;
 
-  private static final int BUFFER_SIZE = 8 * 1024;
-  private static final int MAX_RESP_LENGTH = 5 * 1024 * 1024;
   private static final int CONNECT_TIMEOUT_MS = 5000;
   private static final int SOCKET_TIMEOUT_MS = 15000;
+  private static final int MAX_CONNECTIONS = 4;
+  private static final long CONNECTION_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+  private static final int MAX_REPLAYS_PER_PUT = 10;
 
   private static final String CONTENT_TYPE = "Content-Type";
   private static final String APPLICATION_JSON = "application/json";
   private static final String CONTENT_ENCODING = "Content-Encoding";
-  private static final String CONTENT_ENCODING_GZIP = "gzip";
+  private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+  private static final int MAX_NEGOTIATIONS_PER_PUT = 2;
 
   private static final URL DEFAULT_PUT_API_URI;
 
@@ -61,9 +78,22 @@ public class ApptuitPutClient {
   }
 
   private final URL apiEndPoint;
+  private final HttpConnectionPool connectionPool;
+  private final Map<String, String> requestHeaders;
+
+  private final ReentrantLock replayLock = new ReentrantLock();
+  private final AtomicLong retries = new AtomicLong();
 
   private Map<String, String> globalTags;
   private String token;
+  private volatile DiskSpool spool;
+  private volatile GlobalTagsFragment globalTagsFragment;
+  private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+  private volatile int maxBatchPoints = Integer.MAX_VALUE;
+  private volatile long maxBatchBytes = Long.MAX_VALUE;
+  private volatile int uploadParallelism = 1;
+  private volatile ExecutorService uploader;
+  private volatile Encoding encoding;
 
   public ApptuitPutClient(String token, Map<String, String> globalTags) {
     this(token, globalTags, null);
@@ -73,84 +103,558 @@ public class ApptuitPutClient {
     this.globalTags = globalTags;
     this.token = token;
     this.apiEndPoint = (apiEndPoint != null) ? apiEndPoint : DEFAULT_PUT_API_URI;
+    this.connectionPool = new HttpConnectionPool(this.apiEndPoint, MAX_CONNECTIONS,
+            CONNECTION_IDLE_TIMEOUT_MS, CONNECT_TIMEOUT_MS, SOCKET_TIMEOUT_MS);
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put(CONTENT_TYPE, APPLICATION_JSON);
+    headers.put("Authorization", "Bearer " + token);
+    this.requestHeaders = Collections.unmodifiableMap(headers);
+    this.encoding = new Encoding(PayloadFormat.JSON, DeflaterCodec.DEFAULT_GZIP, requestHeaders);
   }
 
   public void put(Collection<DataPoint> dataPoints) {
-    put(dataPoints, DEFAULT_SANITIZER);
+    send(dataPoints);
   }
 
+  /**
+   * Sends the batch like {@link #send(Collection, Sanitizer)}, without handing back the outcome.
+   */
   public void put(Collection<DataPoint> dataPoints, Sanitizer sanitizer) {
+    send(dataPoints, sanitizer);
+  }
 
-    DatapointsHttpEntity entity = new DatapointsHttpEntity(dataPoints, globalTags, sanitizer);
+  /**
+   * Streams the batch like {@link #send(DataPointProducer, Sanitizer)}, without handing back the
+   * outcome.
+   */
+  public void put(DataPointProducer producer, Sanitizer sanitizer) {
+    send(producer, sanitizer);
+  }
 
-    HttpURLConnection urlConnection;
-    int status;
-    try {
-      urlConnection = (HttpURLConnection) apiEndPoint.openConnection();
-      urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
-      urlConnection.setReadTimeout(SOCKET_TIMEOUT_MS);
-      urlConnection.setChunkedStreamingMode(0);
-
-      urlConnection.setRequestProperty(CONTENT_TYPE, APPLICATION_JSON);
-      if (GZIP) {
-        urlConnection.setRequestProperty(CONTENT_ENCODING, CONTENT_ENCODING_GZIP);
+  public PutResult send(Collection<DataPoint> dataPoints) {
+    return send(dataPoints, DEFAULT_SANITIZER);
+  }
+
+  /**
+   * Sends the batch, retrying it as the {@link #setRetryPolicy retry policy} allows while the API
+   * is throttling or failing. A batch that still could not be delivered is spooled, if spooling is
+   * enabled. A batch larger than the {@link #setMaxBatchPoints point} or
+   * {@link #setMaxBatchBytes byte} limits is split and its shards sent, retried and spooled
+   * independently, {@link #setUploadParallelism in parallel} if configured.
+   *
+   * @return the outcome of the last attempt, aggregated over the shards if the batch was split
+   */
+  public PutResult send(Collection<DataPoint> dataPoints, Sanitizer sanitizer) {
+    GlobalTagsFragment globalTags = getGlobalTagsFragment(sanitizer);
+    Encoding encoding = this.encoding;
+    PutResult result = sendBatch(dataPoints, globalTags, sanitizer, encoding);
+    for (int i = 0; i < MAX_NEGOTIATIONS_PER_PUT
+            && result.getStatus() == HTTP_UNSUPPORTED_MEDIA_TYPE; i++) {
+      // Resend in an encoding the end point accepts, if there is another one to try
+      Encoding negotiated = negotiate(encoding, result);
+      if (negotiated == encoding) {
+        break;
       }
-      urlConnection.setRequestProperty("Authorization", "Bearer " + token);
-      urlConnection.setRequestMethod("POST");
-      urlConnection.setDoInput(true);
-      urlConnection.setDoOutput(true);
-      OutputStream outputStream = new BufferedOutputStream(urlConnection.getOutputStream(),
-              BUFFER_SIZE);
-      entity.writeTo(outputStream);
-      outputStream.flush();
-
-      status = urlConnection.getResponseCode();
-      debug("-------------------" + status + "---------------------");
+      encoding = negotiated;
+      result = sendBatch(dataPoints, globalTags, sanitizer, encoding);
+    }
+    if (!result.isRetryable()) {
+      replaySpool();
+    }
+    return result;
+  }
+
+  private PutResult sendBatch(Collection<DataPoint> dataPoints, GlobalTagsFragment globalTags,
+                              Sanitizer sanitizer, Encoding encoding) {
+    int maxPoints = maxBatchPoints;
+    long maxBytes = maxBatchBytes;
+    if (dataPoints.isEmpty() || (dataPoints.size() <= maxPoints && maxBytes == Long.MAX_VALUE)) {
+      DatapointsHttpEntity entity = new DatapointsHttpEntity(dataPoints::forEach, globalTags,
+              sanitizer, encoding.format, encoding.codec);
+      return deliver(entity::writeTo, encoding);
+    }
+
+    long start = System.currentTimeMillis();
+    List<BatchSplitter.Shard> shards;
+    try {
+      shards = new BatchSplitter(maxPoints, maxBytes).split(dataPoints, globalTags, sanitizer,
+              encoding.format, encoding.codec);
     } catch (IOException e) {
-      //TODO: Return status to caller, so they can choose to retry etc
-      LOGGER.log(Level.SEVERE, "Error posting data", e);
-      return;
+      LOGGER.log(Level.SEVERE, "Error encoding data", e);
+      return PutResult.of(e, 0, System.currentTimeMillis() - start);
+    }
+    List<PutResult> results = upload(shards, encoding);
+    return results.size() == 1 ? results.get(0)
+            : PutResult.aggregate(results, System.currentTimeMillis() - start);
+  }
+
+  private List<PutResult> upload(List<BatchSplitter.Shard> shards, Encoding encoding) {
+    ExecutorService uploader = this.uploader;
+    if (uploader == null || shards.size() == 1) {
+      List<PutResult> results = new ArrayList<>(shards.size());
+      for (BatchSplitter.Shard shard : shards) {
+        results.add(deliver(shard::writeTo, encoding));
+      }
+      return results;
     }
 
+    List<Future<PutResult>> futures = new ArrayList<>(shards.size());
+    for (BatchSplitter.Shard shard : shards) {
+      futures.add(uploader.submit(() -> deliver(shard::writeTo, encoding)));
+    }
+    List<PutResult> results = new ArrayList<>(shards.size());
+    for (Future<PutResult> future : futures) {
+      results.add(getShardResult(future));
+    }
+    return results;
+  }
+
+  private static PutResult getShardResult(Future<PutResult> future) {
     try {
-      InputStream inputStr;
-      if (status < HttpURLConnection.HTTP_BAD_REQUEST) {
-        inputStr = urlConnection.getInputStream();
-      } else {
-        /* error from server */
-        inputStr = urlConnection.getErrorStream();
+      return future.get();
+    } catch (InterruptedException e) {
+      // The shard is still sent, and spooled if it fails, but its outcome is not waited for
+      Thread.currentThread().interrupt();
+      return PutResult.of(e, 0, 0);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
       }
+      return PutResult.of((Exception) cause, 0, 0);
+    }
+  }
 
-      String encoding = urlConnection.getContentEncoding() == null ? "UTF-8"
-              : urlConnection.getContentEncoding();
-      String responseBody = consumeResponse(inputStr, Charset.forName(encoding));
-      debug(responseBody);
-    } catch (IOException e) {
-      LOGGER.log(Level.SEVERE, "Error draining response", e);
+  /**
+   * Posts the body, retrying it as the retry policy allows, and spools it if it could not be
+   * delivered.
+   */
+  private PutResult deliver(HttpConnectionPool.EntityWriter entity, Encoding encoding) {
+    RetryPolicy retryPolicy = this.retryPolicy;
+    long start = System.currentTimeMillis();
+    PutResult result;
+    for (int attempt = 1; ; attempt++) {
+      result = post(entity, encoding, attempt, start);
+      if (!result.isRetryable()) {
+        break;
+      }
+      long delay = retryPolicy.getDelayMillis(attempt, result.getRetryAfterMillis());
+      if (delay < 0 || !sleep(delay)) {
+        break;
+      }
+      retries.incrementAndGet();
     }
 
+    if (result.isRetryable()) {
+      spool(entity, encoding);
+    }
+    return result;
   }
 
-  private String consumeResponse(InputStream inputStr, Charset encoding) {
-    StringBuilder body = new StringBuilder();
-    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStr, encoding));
+  /**
+   * Streams the points generated by {@code producer} straight into the request body, so the batch
+   * is never held in memory as a whole. The producer is run only once: a streamed batch is
+   * neither retried, spooled nor resent if the request fails. A pooled connection that the server
+   * closed while idle is detected before the producer runs, and the batch goes out on a new
+   * connection instead.
+   *
+   * @return the outcome of sending the batch
+   */
+  public PutResult send(DataPointProducer producer, Sanitizer sanitizer) {
+    Encoding encoding = this.encoding;
+    AtomicBoolean produced = new AtomicBoolean();
+    DatapointsHttpEntity entity = new DatapointsHttpEntity(writer -> {
+      if (!produced.compareAndSet(false, true)) {
+        // The connection pool never writes an entity twice; this guards the producer regardless
+        throw new IllegalStateException("Streamed points cannot be resent");
+      }
+      producer.writeTo(writer);
+    }, getGlobalTagsFragment(sanitizer), sanitizer, encoding.format, encoding.codec);
+
+    PutResult result = post(entity::writeTo, encoding, 1, System.currentTimeMillis());
+    if (result.getStatus() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+      // Too late for this batch, but the next one is sent in an accepted encoding
+      negotiate(encoding, result);
+    }
+    if (!result.isRetryable()) {
+      replaySpool();
+    }
+    return result;
+  }
+
+  private PutResult post(HttpConnectionPool.EntityWriter entity, Encoding encoding, int attempt,
+                         long start) {
+    HttpConnectionPool.Response response;
     try {
-      int i;
-      char[] cbuf = new char[BUFFER_SIZE];
-      while ((i = reader.read(cbuf)) > 0) {
-        if (body == null) {
-          continue;
+      response = connectionPool.post(encoding.headers, entity);
+    } catch (IOException | IllegalStateException e) {
+      LOGGER.log(Level.SEVERE, "Error posting data", e);
+      return PutResult.of(e, attempt, System.currentTimeMillis() - start);
+    }
+
+    debug("-------------------" + response.getStatus() + "---------------------");
+    debug(response.getBody());
+    return PutResult.of(response, attempt, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Picks another encoding after the end point rejected {@code rejected}: the first known one it
+   * lists in the {@code Accept-Encoding} header of its response, else gzip, else no encoding. A
+   * rejection without that header reverts a non-JSON format to JSON first. The choice sticks for
+   * later requests to this end point.
+   *
+   * @return the encoding to use from now on, or {@code rejected} if there is nothing else to try
+   */
+  private synchronized Encoding negotiate(Encoding rejected, PutResult result) {
+    if (this.encoding != rejected) {
+      // Negotiated meanwhile by another request, or set explicitly
+      return this.encoding;
+    }
+    String rejectedName = rejected.codec.getContentEncoding();
+    if (result.getAcceptEncoding() == null && rejected.format != PayloadFormat.JSON) {
+      // The encoding was not complained about, so it must be the format
+      LOGGER.warning(apiEndPoint + " does not accept " + rejected.format + ", switching to "
+              + PayloadFormat.JSON);
+      this.encoding = new Encoding(PayloadFormat.JSON, rejected.codec, requestHeaders);
+      return this.encoding;
+    }
+    PayloadCodec codec;
+    if (result.getAcceptEncoding() != null) {
+      codec = getAcceptedCodec(result.getAcceptEncoding(), rejectedName);
+    } else if (rejectedName == null) {
+      // Unencoded bodies are rejected for some other reason
+      codec = null;
+    } else if (!PayloadCodecs.GZIP.equals(rejectedName)) {
+      codec = DeflaterCodec.DEFAULT_GZIP;
+    } else {
+      codec = PayloadCodecs.identity();
+    }
+    if (codec == null) {
+      return rejected;
+    }
+    LOGGER.warning(apiEndPoint + " does not accept " + rejected.codec + ", switching to "
+            + codec);
+    this.encoding = new Encoding(rejected.format, codec, requestHeaders);
+    return this.encoding;
+  }
+
+  private static PayloadCodec getAcceptedCodec(String acceptEncoding, String rejectedName) {
+    if (acceptEncoding.trim().isEmpty()) {
+      return PayloadCodecs.identity();
+    }
+    for (String token : acceptEncoding.split(",")) {
+      String[] parts = token.split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase(rejectedName)
+              || (parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?"))) {
+        continue;
+      }
+      PayloadCodec codec = PayloadCodecs.forName(name, Deflater.DEFAULT_COMPRESSION, false);
+      if (codec != null) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return false if the thread was interrupted while waiting
+   */
+  private static boolean sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Splits batches of more than {@code maxPoints} points into several requests. Batches are not
+   * split by point count by default.
+   */
+  public void setMaxBatchPoints(int maxPoints) {
+    if (maxPoints < 1) {
+      throw new IllegalArgumentException("maxPoints must be positive");
+    }
+    this.maxBatchPoints = maxPoints;
+  }
+
+  public int getMaxBatchPoints() {
+    return maxBatchPoints;
+  }
+
+  /**
+   * Splits batches into requests whose bodies are about {@code maxBytes} long after compression.
+   * Batches are not split by size by default.
+   */
+  public void setMaxBatchBytes(long maxBytes) {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.maxBatchBytes = maxBytes;
+  }
+
+  public long getMaxBatchBytes() {
+    return maxBatchBytes;
+  }
+
+  /**
+   * Sends the shards of a split batch over up to {@code parallelism} connections at once, though
+   * never over more connections than the client keeps to the end point. Shards are sent one after
+   * the other by default.
+   */
+  public void setUploadParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    int threads = Math.min(parallelism, MAX_CONNECTIONS);
+    ExecutorService oldUploader = this.uploader;
+    this.uploader = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "apptuit-put-uploader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.uploadParallelism = threads;
+    if (oldUploader != null) {
+      oldUploader.shutdown();
+    }
+  }
+
+  public int getUploadParallelism() {
+    return uploadParallelism;
+  }
+
+  /**
+   * Sets how request bodies are encoded. Defaults to gzip. If the end point rejects the encoding,
+   * the client switches to one the end point accepts.
+   */
+  public synchronized void setPayloadCodec(PayloadCodec codec) {
+    this.encoding = new Encoding(encoding.format,
+            codec != null ? codec : DeflaterCodec.DEFAULT_GZIP, requestHeaders);
+  }
+
+  /**
+   * Sets the format of the points in request bodies. Defaults to {@link PayloadFormat#JSON}. If
+   * the end point rejects the format, the client reverts to JSON.
+   */
+  public synchronized void setPayloadFormat(PayloadFormat format) {
+    this.encoding = new Encoding(format != null ? format : PayloadFormat.JSON, encoding.codec,
+            requestHeaders);
+  }
+
+  /**
+   * @return the format of the points in request bodies, as negotiated with the end point
+   */
+  public synchronized PayloadFormat getPayloadFormat() {
+    return encoding.format;
+  }
+
+  /**
+   * @return the codec request bodies are encoded with, as negotiated with the end point
+   */
+  public synchronized PayloadCodec getPayloadCodec() {
+    return encoding.codec;
+  }
+
+  /**
+   * Encodes request bodies with gzip at the given level, from {@link Deflater#BEST_SPEED} to
+   * {@link Deflater#BEST_COMPRESSION}. Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public void setCompressionLevel(int level) {
+    setPayloadCodec(PayloadCodecs.gzip(level));
+  }
+
+  /**
+   * Picks the compression level of each request body from the CPU time spent compressing and the
+   * bytes saved at each level, preferring a higher level only while it saves enough bytes for the
+   * extra CPU it takes. Useful where CPU is scarcer than bandwidth, as in throttled containers.
+   * Disabling it reverts to {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public void setAdaptiveCompression(boolean adaptive) {
+    setPayloadCodec(adaptive ? PayloadCodecs.adaptiveGzip() : DeflaterCodec.DEFAULT_GZIP);
+  }
+
+  public boolean isAdaptiveCompression() {
+    PayloadCodec codec = encoding.codec;
+    return codec instanceof DeflaterCodec && ((DeflaterCodec) codec).isAdaptive();
+  }
+
+  /**
+   * @return the compression level of request bodies, the level currently preferred in adaptive
+   *     mode, or {@link Deflater#DEFAULT_COMPRESSION} if the codec has no levels
+   */
+  public int getCompressionLevel() {
+    PayloadCodec codec = encoding.codec;
+    return codec instanceof DeflaterCodec ? ((DeflaterCodec) codec).getLevel()
+            : Deflater.DEFAULT_COMPRESSION;
+  }
+
+  /**
+   * Sets how batches that the API throttled or failed are retried. Defaults to
+   * {@link RetryPolicy#NONE}.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.NONE;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @return number of times a batch was sent again after a failed attempt
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  private GlobalTagsFragment getGlobalTagsFragment(Sanitizer sanitizer) {
+    GlobalTagsFragment fragment = GlobalTagsFragment.of(globalTagsFragment, globalTags, sanitizer);
+    globalTagsFragment = fragment;
+    return fragment;
+  }
+
+  /**
+   * Spools batches that could not be delivered to memory-mapped files under {@code directory},
+   * using at most {@code maxBytes} of disk, and replays them in order once the API end point
+   * accepts data again. The spool is picked up again by a client created on the same directory
+   * after a restart.
+   */
+  public void enableSpool(File directory, long maxBytes) throws IOException {
+    DiskSpool oldSpool = this.spool;
+    this.spool = new DiskSpool(directory, maxBytes);
+    if (oldSpool != null) {
+      oldSpool.close();
+    }
+  }
+
+  /**
+   * @return number of batches waiting in the spool to be replayed
+   */
+  public long getSpooledBatches() {
+    DiskSpool spool = this.spool;
+    return spool == null ? 0 : spool.getPendingCount();
+  }
+
+  /**
+   * @return number of spooled batches discarded to keep the spool within its size limit
+   */
+  public long getSpoolEvictedBatches() {
+    DiskSpool spool = this.spool;
+    return spool == null ? 0 : spool.getEvictedCount();
+  }
+
+  private void spool(HttpConnectionPool.EntityWriter entity, Encoding encoding) {
+    DiskSpool spool = this.spool;
+    if (spool == null) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream record = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(record);
+      out.writeUTF(encoding.headers.get(CONTENT_TYPE));
+      out.writeUTF(encoding.headers.getOrDefault(CONTENT_ENCODING, ""));
+      entity.writeTo(out);
+      out.flush();
+      if (!spool.append(record.toByteArray())) {
+        LOGGER.warning("Batch too large to spool, dropped");
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Error spooling data", e);
+    }
+  }
+
+  private void replaySpool() {
+    DiskSpool spool = this.spool;
+    if (spool == null || !replayLock.tryLock()) {
+      return;
+    }
+    try {
+      for (int i = 0; i < MAX_REPLAYS_PER_PUT; i++) {
+        DiskSpool.Record record = spool.peek();
+        if (record == null) {
+          return;
         }
-        if (body.length() + i >= MAX_RESP_LENGTH) {
-          body = null;
-        } else {
-          body.append(cbuf, 0, i);
+        if (!replay(record.getPayload())) {
+          return;
         }
+        // Another sender may have evicted the record meanwhile, which remove() tolerates
+        spool.remove(record);
+      }
+    } finally {
+      replayLock.unlock();
+    }
+  }
+
+  /**
+   * @return false if the end point is still not accepting data and the record should be kept
+   */
+  private boolean replay(byte[] record) {
+    Map<String, String> headers = new LinkedHashMap<>(requestHeaders);
+    int offset;
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      headers.put(CONTENT_TYPE, in.readUTF());
+      String contentEncoding = in.readUTF();
+      headers.remove(CONTENT_ENCODING);
+      if (!contentEncoding.isEmpty()) {
+        headers.put(CONTENT_ENCODING, contentEncoding);
       }
+      offset = record.length - in.available();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Discarding corrupt spooled batch", e);
+      return true;
+    }
+
+    try {
+      HttpConnectionPool.Response response = connectionPool.post(headers,
+              out -> out.write(record, offset, record.length - offset));
+      debug("-------------------" + response.getStatus() + " (replay)-----------");
+      return !PutResult.isRetryable(response.getStatus());
     } catch (IOException e) {
-      LOGGER.log(Level.SEVERE, "Error reading response", e);
+      LOGGER.log(Level.SEVERE, "Error replaying spooled data", e);
+      return false;
+    }
+  }
+
+  /**
+   * @return number of connections opened to the API end point
+   */
+  public long getConnectionsCreated() {
+    return connectionPool.getCreatedCount();
+  }
+
+  /**
+   * @return number of requests that were sent on a kept-alive connection
+   */
+  public long getConnectionsReused() {
+    return connectionPool.getReusedCount();
+  }
+
+  /**
+   * @return number of idle connections closed because they expired or went stale
+   */
+  public long getConnectionsEvicted() {
+    return connectionPool.getEvictedCount();
+  }
+
+  /**
+   * Closes the connections kept alive to the API end point.
+   */
+  @Override
+  public void close() {
+    ExecutorService uploader = this.uploader;
+    if (uploader != null) {
+      uploader.shutdown();
+    }
+    connectionPool.close();
+    DiskSpool spool = this.spool;
+    if (spool != null) {
+      spool.close();
     }
-    return body == null ? "Response too long" : body.toString();
   }
 
   private void debug(String s) {
@@ -159,49 +663,76 @@ public class ApptuitPutClient {
     }
   }
 
+  /**
+   * A format and codec, with the request headers announcing them.
+   */
+  private static class Encoding {
+
+    private final PayloadFormat format;
+    private final PayloadCodec codec;
+    private final Map<String, String> headers;
+
+    Encoding(PayloadFormat format, PayloadCodec codec, Map<String, String> requestHeaders) {
+      this.format = format;
+      this.codec = codec;
+      Map<String, String> headers = new LinkedHashMap<>(requestHeaders);
+      headers.put(CONTENT_TYPE, format.getContentType());
+      if (codec.getContentEncoding() != null) {
+        headers.put(CONTENT_ENCODING, codec.getContentEncoding());
+      }
+      this.headers = Collections.unmodifiableMap(headers);
+    }
+  }
+
   static class DatapointsHttpEntity {
 
-    private final Collection<DataPoint> dataPoints;
-    private final Map<String, String> globalTags;
-    private final boolean doZip;
+    private final DataPointProducer dataPoints;
+    private final GlobalTagsFragment globalTags;
+    private final PayloadFormat format;
+    private final PayloadCodec codec;
     private final Sanitizer sanitizer;
 
     public DatapointsHttpEntity(Collection<DataPoint> dataPoints,
                                 Map<String, String> globalTags,
                                 Sanitizer sanitizer) {
-      this(dataPoints, globalTags, sanitizer, GZIP);
+      this(dataPoints, globalTags, sanitizer, true);
     }
 
     public DatapointsHttpEntity(Collection<DataPoint> dataPoints,
                                 Map<String, String> globalTags,
                                 Sanitizer sanitizer, boolean doZip) {
+      this(dataPoints::forEach, GlobalTagsFragment.of(globalTags, sanitizer), sanitizer,
+              PayloadFormat.JSON, doZip ? DeflaterCodec.DEFAULT_GZIP : PayloadCodecs.identity());
+    }
+
+    DatapointsHttpEntity(DataPointProducer dataPoints, GlobalTagsFragment globalTags,
+                         Sanitizer sanitizer, PayloadFormat format, PayloadCodec codec) {
       this.dataPoints = dataPoints;
       this.globalTags = globalTags;
-      this.doZip = doZip;
+      this.format = format;
+      this.codec = codec;
       this.sanitizer = sanitizer;
     }
 
     public void writeTo(OutputStream outputStream) throws IOException {
-      if (doZip) {
-        outputStream = new GZIPOutputStream(outputStream);
-      }
-
-      PrintStream ps = new PrintStream(outputStream, false, "UTF-8");
-      ps.println("[");
-      Iterator<DataPoint> iterator = dataPoints.iterator();
-      while (iterator.hasNext()) {
-        DataPoint dp = iterator.next();
-        dp.toJson(ps, globalTags, this.sanitizer);
-        if (iterator.hasNext()) {
-          ps.println(",");
-        }
-      }
-      ps.println("]");
-
-      ps.flush();
-
-      if (doZip) {
-        ((GZIPOutputStream) outputStream).finish();
+      EncodingOutputStream encoded = codec.open(outputStream, false);
+      BatchEncoder encoder = format.getEncoder();
+      encoder.begin(encoded, globalTags, sanitizer);
+      try {
+        dataPoints.writeTo(dataPoint -> {
+          try {
+            encoder.writeDataPoint(dataPoint);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        encoder.end();
+        encoded.finish();
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        encoder.reset();
+        encoded.release();
       }
     }
   }
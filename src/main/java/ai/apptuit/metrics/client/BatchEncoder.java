@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams a batch of points in a {@link PayloadFormat}: {@link #begin}, then
+ * {@link #writeDataPoint} for every point and finally {@link #end()}. Global tags take precedence
+ * over point tags with the same key. Encoders are reused, so {@link #reset()} must be called once
+ * the batch is done with, even if it was abandoned midway.
+ */
+interface BatchEncoder {
+
+  void begin(OutputStream out, GlobalTagsFragment globalTags, Sanitizer sanitizer)
+      throws IOException;
+
+  void writeDataPoint(DataPoint dataPoint) throws IOException;
+
+  /**
+   * Writes out the buffered bytes and flushes the stream, so that everything written so far can
+   * be measured downstream.
+   */
+  void flush() throws IOException;
+
+  /**
+   * Completes the batch and flushes the buffered bytes to the stream.
+   */
+  void end() throws IOException;
+
+  /**
+   * Releases the stream and any state of the batch.
+   */
+  void reset();
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes a batch of points into request bodies ("shards") of at most {@code maxPoints} points
+ * and about {@code maxBytes} encoded bytes each, so that a large batch goes out as several
+ * requests that are each small enough to complete within the socket timeout.
+ *
+ * <p>Compressed output only becomes measurable after a sync flush of the compressor, which costs
+ * a little compression. Instead of flushing after every point, the size is checked at intervals
+ * estimated from the average size of the points so far, getting closer as the limit nears. The
+ * first check of a shard is estimated from the average point size of the previous shard, or
+ * happens after {@value #MIN_FIRST_CHECK} points for the first shard, since the first few points
+ * say little about the compressed size. A shard can therefore exceed {@code maxBytes} by about
+ * the size of the points since the last check.
+ */
+class BatchSplitter {
+
+  private static final int MIN_FIRST_CHECK = 32;
+  private static final int MAX_CHECK_INTERVAL = 256;
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+
+  private final int maxPoints;
+  private final long maxBytes;
+
+  BatchSplitter(int maxPoints, long maxBytes) {
+    if (maxPoints < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("Batch limits must be positive");
+    }
+    this.maxPoints = maxPoints;
+    this.maxBytes = maxBytes;
+  }
+
+  List<Shard> split(Collection<DataPoint> dataPoints, GlobalTagsFragment globalTags,
+                    Sanitizer sanitizer, PayloadFormat format, PayloadCodec codec)
+      throws IOException {
+    boolean checkBytes = maxBytes < Long.MAX_VALUE;
+    List<Shard> shards = new ArrayList<>();
+    BatchEncoder encoder = format.getEncoder();
+    Shard shard = null;
+    EncodingOutputStream out = null;
+    int nextCheck = 0;
+    long previousBytesPerPoint = 0;
+    try {
+      for (DataPoint dataPoint : dataPoints) {
+        if (shard != null && shard.pointCount >= nextCheck) {
+          if (checkBytes) {
+            encoder.flush();
+          }
+          if (shard.pointCount >= maxPoints || shard.size() >= maxBytes) {
+            previousBytesPerPoint = Math.max(1, shard.size() / shard.pointCount);
+            finish(encoder, out);
+            shard = null;
+          } else {
+            nextCheck = nextCheck(shard);
+          }
+        }
+        if (shard == null) {
+          shard = new Shard();
+          shards.add(shard);
+          out = codec.open(shard, true);
+          encoder.begin(out, globalTags, sanitizer);
+          nextCheck = checkBytes ? firstCheck(previousBytesPerPoint) : maxPoints;
+        }
+        encoder.writeDataPoint(dataPoint);
+        shard.pointCount++;
+      }
+      if (shard != null) {
+        finish(encoder, out);
+      }
+    } finally {
+      encoder.reset();
+      if (out != null) {
+        out.release();
+      }
+    }
+    return shards;
+  }
+
+  private int nextCheck(Shard shard) {
+    int count = shard.pointCount;
+    if (maxBytes == Long.MAX_VALUE) {
+      return maxPoints;
+    }
+    return checkAfter(count, shard.size(), Math.max(1, shard.size() / count));
+  }
+
+  /**
+   * @param previousBytesPerPoint average encoded size of the points of the previous shard, or 0
+   */
+  private int firstCheck(long previousBytesPerPoint) {
+    if (previousBytesPerPoint == 0) {
+      return Math.min(maxPoints, MIN_FIRST_CHECK);
+    }
+    return checkAfter(0, 0, previousBytesPerPoint);
+  }
+
+  private int checkAfter(int count, long size, long bytesPerPoint) {
+    // Aim halfway to the byte limit at the given average point size
+    long interval = (maxBytes - size) / bytesPerPoint / 2;
+    interval = Math.max(1, Math.min(MAX_CHECK_INTERVAL, interval));
+    return (int) Math.min(maxPoints, count + interval);
+  }
+
+  private static void finish(BatchEncoder encoder, EncodingOutputStream out)
+      throws IOException {
+    encoder.end();
+    out.finish();
+  }
+
+  /**
+   * An encoded request body, ready to be sent or spooled with {@link #writeTo(OutputStream)}.
+   */
+  static class Shard extends ByteArrayOutputStream {
+
+    private int pointCount;
+
+    private Shard() {
+      super(INITIAL_BUFFER_SIZE);
+    }
+
+    int getPointCount() {
+      return pointCount;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams batches of {@link DataPoint}s in the {@link PayloadFormat#BINARY} format, where metric
+ * names, tags and series are defined once per batch and referred to by number afterwards. Points
+ * follow each other in the order they were written:
+ * <pre>
+ * batch     := header point* 0
+ * point     := seriesRef+1 [series] timestampDelta value
+ * value     := 'L' int64 | 'D' float64
+ * </pre>
+ * See {@link AbstractBinaryEncoder} for the header, series and dictionary encoding. Series are
+ * defined inline like the other dictionary entries, in a dictionary of their own. Timestamps are
+ * zigzag encoded differences from the timestamp of the previous point, or from zero for the first
+ * point. Values are 8 byte big endian integers or IEEE doubles.
+ *
+ * <p>Instances are not thread safe; use {@link #get()} to obtain the encoder of the current
+ * thread.
+ */
+class BinaryBatchEncoder extends AbstractBinaryEncoder {
+
+  static final String CONTENT_TYPE = "application/x-apptuit-batch";
+  static final byte[] MAGIC = {'A', 'P', 'B', 1};
+
+  private static final ThreadLocal<BinaryBatchEncoder> ENCODERS =
+      ThreadLocal.withInitial(BinaryBatchEncoder::new);
+
+  private final Map<SeriesKey, Integer> series = new HashMap<>();
+  private final SeriesKey probe = new SeriesKey();
+  private long lastTimestamp;
+
+  BinaryBatchEncoder() {
+    super(MAGIC);
+  }
+
+  static BinaryBatchEncoder get() {
+    return ENCODERS.get();
+  }
+
+  @Override
+  public void writeDataPoint(DataPoint dataPoint) throws IOException {
+    Integer seriesId = series.get(probe.set(dataPoint.getMetric(), dataPoint.getTags()));
+    if (seriesId != null) {
+      writeVarint(seriesId + 1L);
+    } else {
+      int id = series.size();
+      series.put(new SeriesKey().set(dataPoint.getMetric(), dataPoint.getTags()), id);
+      writeVarint(id + 1L);
+      writeSeries(dataPoint.getMetric(), dataPoint.getTags());
+    }
+
+    long timestamp = dataPoint.getTimestamp();
+    writeZigzag(timestamp - lastTimestamp);
+    lastTimestamp = timestamp;
+    Number value = dataPoint.getValue();
+    if (isIntegral(value)) {
+      writeByte(LONG_VALUE);
+      writeFixed64(value.longValue());
+    } else {
+      writeByte(DOUBLE_VALUE);
+      writeFixed64(Double.doubleToRawLongBits(toDouble(value)));
+    }
+  }
+
+  @Override
+  public void end() throws IOException {
+    try {
+      writeVarint(0);
+      flushBuffer();
+    } finally {
+      reset();
+    }
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    this.lastTimestamp = 0;
+    this.probe.set(null, null);
+    series.clear();
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams batches of {@link DataPoint}s in the {@link PayloadFormat#COLUMNAR} format, where the
+ * points are grouped by series into blocks. A block names each of its series once, followed by
+ * the timestamps and values of its points as columns. When all points of a block share one
+ * timestamp, as they do in a report, the timestamp is written only once for the whole block.
+ * <pre>
+ * batch     := header block* 0
+ * block     := seriesCount layout baseTimestamp column+
+ * layout    := 0 (all points at baseTimestamp) | 1 (per point timestamps)
+ * column    := seriesRef [series] pointCount timestampDelta* values
+ * values    := 'L' zigzag* | 'D' float64* | 'M' ('L' zigzag | 'D' float64)*
+ * </pre>
+ * See {@link AbstractBinaryEncoder} for the header, series and dictionary encoding. Series are
+ * defined inline like the other dictionary entries, in a dictionary of their own, and the
+ * dictionaries span the whole batch.
+ * The base timestamp is zigzag encoded; timestamp deltas from it are only present in the
+ * per point layout. Integer values are zigzag varints and others 8 byte big endian IEEE doubles.
+ *
+ * <p>Points are held back until the block is written, which happens on {@link #flush()},
+ * {@link #end()}, or once {@value #MAX_BLOCK_POINTS} points are pending. The order of points
+ * within a series is kept, but not across series.
+ *
+ * <p>Instances are not thread safe; use {@link #get()} to obtain the encoder of the current
+ * thread.
+ */
+class ColumnarBatchEncoder extends AbstractBinaryEncoder {
+
+  static final String CONTENT_TYPE = "application/x-apptuit-columnar";
+  static final byte[] MAGIC = {'A', 'P', 'C', 1};
+  static final byte SHARED_TIMESTAMP = 0;
+  static final byte POINT_TIMESTAMPS = 1;
+  static final byte MIXED_VALUES = 'M';
+  static final int MAX_BLOCK_POINTS = 4096;
+
+  private static final ThreadLocal<ColumnarBatchEncoder> ENCODERS =
+      ThreadLocal.withInitial(ColumnarBatchEncoder::new);
+
+  private final Map<SeriesKey, Integer> series = new HashMap<>();
+  private final Map<SeriesKey, List<DataPoint>> block = new LinkedHashMap<>();
+  private final SeriesKey probe = new SeriesKey();
+  private int blockPoints;
+  private long baseTimestamp;
+  private boolean sharedTimestamp;
+
+  ColumnarBatchEncoder() {
+    super(MAGIC);
+  }
+
+  static ColumnarBatchEncoder get() {
+    return ENCODERS.get();
+  }
+
+  @Override
+  public void writeDataPoint(DataPoint dataPoint) throws IOException {
+    List<DataPoint> column = block.get(probe.set(dataPoint.getMetric(), dataPoint.getTags()));
+    if (column == null) {
+      column = new ArrayList<>();
+      block.put(new SeriesKey().set(dataPoint.getMetric(), dataPoint.getTags()), column);
+    }
+    if (blockPoints == 0) {
+      baseTimestamp = dataPoint.getTimestamp();
+      sharedTimestamp = true;
+    } else if (dataPoint.getTimestamp() != baseTimestamp) {
+      sharedTimestamp = false;
+    }
+    column.add(dataPoint);
+    if (++blockPoints >= MAX_BLOCK_POINTS) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Writes the pending points as a block before flushing, so that they can be measured.
+   */
+  @Override
+  public void flush() throws IOException {
+    writeBlock();
+    super.flush();
+  }
+
+  @Override
+  public void end() throws IOException {
+    try {
+      writeBlock();
+      writeVarint(0);
+      flushBuffer();
+    } finally {
+      reset();
+    }
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    this.blockPoints = 0;
+    this.probe.set(null, null);
+    series.clear();
+    block.clear();
+  }
+
+  private void writeBlock() throws IOException {
+    if (blockPoints == 0) {
+      return;
+    }
+    writeVarint(block.size());
+    writeByte(sharedTimestamp ? SHARED_TIMESTAMP : POINT_TIMESTAMPS);
+    writeZigzag(baseTimestamp);
+    for (Map.Entry<SeriesKey, List<DataPoint>> entry : block.entrySet()) {
+      List<DataPoint> column = entry.getValue();
+      Integer seriesId = series.get(entry.getKey());
+      if (seriesId != null) {
+        writeVarint(seriesId);
+      } else {
+        int id = series.size();
+        series.put(entry.getKey(), id);
+        writeVarint(id);
+        DataPoint first = column.get(0);
+        writeSeries(first.getMetric(), first.getTags());
+      }
+      writeVarint(column.size());
+      if (!sharedTimestamp) {
+        for (DataPoint dataPoint : column) {
+          writeZigzag(dataPoint.getTimestamp() - baseTimestamp);
+        }
+      }
+      writeValues(column);
+    }
+    block.clear();
+    blockPoints = 0;
+  }
+
+  private void writeValues(List<DataPoint> column) throws IOException {
+    int integral = 0;
+    for (DataPoint dataPoint : column) {
+      if (isIntegral(dataPoint.getValue())) {
+        integral++;
+      }
+    }
+    boolean mixed = integral > 0 && integral < column.size();
+    writeByte(mixed ? MIXED_VALUES : integral > 0 ? LONG_VALUE : DOUBLE_VALUE);
+    for (DataPoint dataPoint : column) {
+      Number value = dataPoint.getValue();
+      boolean isLong = isIntegral(value);
+      if (mixed) {
+        writeByte(isLong ? LONG_VALUE : DOUBLE_VALUE);
+      }
+      if (isLong) {
+        writeZigzag(value.longValue());
+      } else {
+        writeFixed64(Double.doubleToRawLongBits(toDouble(value)));
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.util.function.Consumer;
+
+/**
+ * A batch of points that is generated while it is being sent, instead of being held in memory as
+ * a collection.
+ */
+@FunctionalInterface
+public interface DataPointProducer {
+
+  /**
+   * Generates the points of the batch, passing each one to {@code writer} as soon as it is
+   * created.
+   */
+  void writeTo(Consumer<DataPoint> writer);
+}
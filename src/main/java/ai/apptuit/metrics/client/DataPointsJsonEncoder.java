@@ -0,0 +1,440 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Streams batches of {@link DataPoint}s as a UTF-8 JSON array, encoding straight into a reusable
+ * byte buffer. Numbers are formatted without intermediate Strings and the global tags are
+ * appended to every point as a pre-encoded {@link GlobalTagsFragment}.
+ *
+ * <p>Instances are not thread safe; use {@link #get()} to obtain the encoder of the current
+ * thread.
+ */
+class DataPointsJsonEncoder implements BatchEncoder {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final ThreadLocal<DataPointsJsonEncoder> ENCODERS =
+      ThreadLocal.withInitial(DataPointsJsonEncoder::new);
+
+  private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+  private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+      'a', 'b', 'c', 'd', 'e', 'f'};
+  private static final byte[] METRIC = ascii("{\"metric\":\"");
+  private static final byte[] TIMESTAMP = ascii("\",\"timestamp\":");
+  private static final byte[] VALUE = ascii(",\"value\":");
+  private static final byte[] TAGS = ascii(",\"tags\":{");
+  private static final byte[] CLOSE_POINT = ascii("}}");
+
+  private static final int MAX_FRACTION_DIGITS = 9;
+  private static final long MAX_EXACT_LONG = 1L << 53;
+  private static final double[] POWERS_OF_TEN = new double[MAX_FRACTION_DIGITS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private OutputStream out;
+  private GlobalTagsFragment globalTags;
+  private Sanitizer sanitizer;
+  private int pointCount;
+
+  DataPointsJsonEncoder() {
+  }
+
+  /**
+   * @return the encoder of the calling thread
+   */
+  static DataPointsJsonEncoder get() {
+    return ENCODERS.get();
+  }
+
+  /**
+   * Writes the points as a JSON array. Global tags take precedence over point tags with the same
+   * key.
+   */
+  void write(OutputStream out, Collection<DataPoint> dataPoints, GlobalTagsFragment globalTags,
+             Sanitizer sanitizer) throws IOException {
+    begin(out, globalTags, sanitizer);
+    try {
+      for (DataPoint dataPoint : dataPoints) {
+        writeDataPoint(dataPoint);
+      }
+      end();
+    } finally {
+      reset();
+    }
+  }
+
+  /**
+   * Starts a JSON array of points on {@code out}, to be followed by calls to
+   * {@link #writeDataPoint(DataPoint)} and finally {@link #end()}. The encoder must not be used
+   * for anything else till then.
+   */
+  @Override
+  public void begin(OutputStream out, GlobalTagsFragment globalTags, Sanitizer sanitizer)
+      throws IOException {
+    this.out = out;
+    this.position = 0;
+    this.globalTags = globalTags;
+    this.sanitizer = sanitizer;
+    this.pointCount = 0;
+    writeByte('[');
+  }
+
+  @Override
+  public void writeDataPoint(DataPoint dataPoint) throws IOException {
+    if (pointCount++ > 0) {
+      writeByte(',');
+    }
+    writeDataPoint(dataPoint, globalTags, sanitizer);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Closes the array and flushes the buffered bytes to the stream.
+   */
+  @Override
+  public void end() throws IOException {
+    try {
+      writeByte(']');
+      flushBuffer();
+    } finally {
+      reset();
+    }
+  }
+
+  /**
+   * Releases the stream, after {@link #end()} or after the array was abandoned midway.
+   */
+  @Override
+  public void reset() {
+    this.out = null;
+    this.globalTags = null;
+    this.sanitizer = null;
+  }
+
+  /**
+   * @return the tags as JSON object members, each preceded by a comma
+   */
+  byte[] encodeTags(Map<String, String> tags, Sanitizer sanitizer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    this.out = bytes;
+    this.position = 0;
+    try {
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        writeTag(tag.getKey(), tag.getValue(), false, sanitizer);
+      }
+      flushBuffer();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      this.out = null;
+    }
+    return bytes.toByteArray();
+  }
+
+  private void writeDataPoint(DataPoint dataPoint, GlobalTagsFragment globalTags,
+                              Sanitizer sanitizer) throws IOException {
+    writeBytes(METRIC);
+    writeEscaped(sanitizer.sanitizer(dataPoint.getMetric()));
+    writeBytes(TIMESTAMP);
+    writeLong(dataPoint.getTimestamp());
+    writeBytes(VALUE);
+    writeNumber(dataPoint.getValue());
+    writeBytes(TAGS);
+
+    boolean first = true;
+    for (Map.Entry<String, String> tag : dataPoint.getTags().entrySet()) {
+      if (!globalTags.overrides(tag.getKey())) {
+        first = writeTag(tag.getKey(), tag.getValue(), first, sanitizer);
+      }
+    }
+    byte[] fragment = globalTags.getJson();
+    if (fragment.length > 0) {
+      //The fragment starts with a comma, which is skipped if no point tag has been written
+      int offset = first ? 1 : 0;
+      writeBytes(fragment, offset, fragment.length - offset);
+    }
+    writeBytes(CLOSE_POINT);
+  }
+
+  private boolean writeTag(String key, String value, boolean first, Sanitizer sanitizer)
+      throws IOException {
+    if (!first) {
+      writeByte(',');
+    }
+    writeByte('"');
+    writeEscaped(sanitizer.sanitizer(key));
+    writeByte('"');
+    writeByte(':');
+    writeByte('"');
+    writeEscaped(value);
+    writeByte('"');
+    return false;
+  }
+
+  private void writeNumber(Number value) throws IOException {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      writeLong(value.longValue());
+    } else if (value instanceof Double) {
+      writeDouble(value.doubleValue(), false);
+    } else if (value instanceof Float) {
+      writeDouble(value.floatValue(), true);
+    } else {
+      writeAscii(String.valueOf(value));
+    }
+  }
+
+  void writeLong(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      writeAscii(Long.toString(value));
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[position++] = '-';
+      value = -value;
+    }
+    int end = position + stringSize(value);
+    int index = end;
+    do {
+      buffer[--index] = DIGITS[(int) (value % 10)];
+      value /= 10;
+    } while (value != 0);
+    position = end;
+  }
+
+  /**
+   * Writes the shortest decimal with at most {@link #MAX_FRACTION_DIGITS} fraction digits that
+   * parses back to the same value, falling back to {@link Double#toString(double)} for values that
+   * need more digits or an exponent. Floats only need to round-trip at float precision, which
+   * matches what {@link Float#toString(float)} would have produced.
+   */
+  void writeDouble(double value, boolean floatPrecision) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writeAscii(Double.toString(value));
+      return;
+    }
+    double magnitude = Math.abs(value);
+    int fractionDigits = fractionDigits(magnitude, floatPrecision);
+    if (fractionDigits < 0) {
+      writeAscii(floatPrecision ? Float.toString((float) value) : Double.toString(value));
+      return;
+    }
+    if (Double.doubleToRawLongBits(value) < 0) {
+      writeByte('-');
+    }
+    writeScaled(unscaled(magnitude, fractionDigits), fractionDigits);
+  }
+
+  /**
+   * @return the fewest fraction digits, at most {@link #MAX_FRACTION_DIGITS}, of a decimal that
+   *     parses back to the finite, non negative {@code magnitude}, or -1 if it needs more digits
+   *     or an exponent
+   */
+  static int fractionDigits(double magnitude, boolean floatPrecision) {
+    for (int fractionDigits = 0; fractionDigits <= MAX_FRACTION_DIGITS; fractionDigits++) {
+      double scaled = magnitude * POWERS_OF_TEN[fractionDigits];
+      if (scaled >= MAX_EXACT_LONG) {
+        return -1;
+      }
+      double parsed = Math.round(scaled) / POWERS_OF_TEN[fractionDigits];
+      if (floatPrecision ? Float.compare((float) parsed, (float) magnitude) == 0
+          : Double.compare(parsed, magnitude) == 0) {
+        return fractionDigits;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the digits of {@code magnitude} with {@code fractionDigits} fraction digits, as an
+   *     integer
+   */
+  static long unscaled(double magnitude, int fractionDigits) {
+    return Math.round(magnitude * POWERS_OF_TEN[fractionDigits]);
+  }
+
+  /**
+   * @return {@code 10^exponent}, for exponents up to {@link #MAX_FRACTION_DIGITS}
+   */
+  static long powerOfTen(int exponent) {
+    return (long) POWERS_OF_TEN[exponent];
+  }
+
+  private void writeScaled(long unscaled, int fractionDigits) throws IOException {
+    if (fractionDigits == 0) {
+      writeLong(unscaled);
+      writeByte('.');
+      writeByte('0');
+      return;
+    }
+    long divisor = powerOfTen(fractionDigits);
+    writeLong(unscaled / divisor);
+    writeByte('.');
+    long fraction = unscaled % divisor;
+    ensureCapacity(fractionDigits);
+    int end = position + fractionDigits;
+    for (int index = end - 1; index >= position; index--) {
+      buffer[index] = DIGITS[(int) (fraction % 10)];
+      fraction /= 10;
+    }
+    position = end;
+  }
+
+  /**
+   * Writes the string as UTF-8, escaping it for use inside a JSON string literal.
+   */
+  void writeEscaped(String value) throws IOException {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          writeByte(c);
+        } else {
+          writeEscapedAscii(c);
+        }
+      } else if (c < 0x800) {
+        ensureCapacity(2);
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        ensureCapacity(4);
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        //Unpaired surrogate, replaced the same way String.getBytes() does
+        writeByte('?');
+      } else {
+        ensureCapacity(3);
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void writeEscapedAscii(char c) throws IOException {
+    ensureCapacity(6);
+    buffer[position++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        buffer[position++] = (byte) c;
+        break;
+      case '\n':
+        buffer[position++] = 'n';
+        break;
+      case '\r':
+        buffer[position++] = 'r';
+        break;
+      case '\t':
+        buffer[position++] = 't';
+        break;
+      default:
+        buffer[position++] = 'u';
+        buffer[position++] = '0';
+        buffer[position++] = '0';
+        buffer[position++] = HEX[c >> 4];
+        buffer[position++] = HEX[c & 0xF];
+        break;
+    }
+  }
+
+  private void writeAscii(String value) throws IOException {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      writeByte(value.charAt(i));
+    }
+  }
+
+  private void writeByte(int b) throws IOException {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = (byte) b;
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    writeBytes(bytes, 0, bytes.length);
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+    if (length > buffer.length) {
+      flushBuffer();
+      out.write(bytes, offset, length);
+      return;
+    }
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, buffer, position, length);
+    position += length;
+  }
+
+  private void ensureCapacity(int length) throws IOException {
+    if (position + length > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  static int stringSize(long value) {
+    long limit = 10;
+    for (int size = 1; size < 19; size++) {
+      if (value < limit) {
+        return size;
+      }
+      limit *= 10;
+    }
+    return 19;
+  }
+
+  private static byte[] ascii(String value) {
+    byte[] bytes = new byte[value.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) value.charAt(i);
+    }
+    return bytes;
+  }
+}
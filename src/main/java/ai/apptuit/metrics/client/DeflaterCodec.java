@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * {@link PayloadCodec} for the gzip and deflate (zlib) encodings, deflating bodies with pooled
+ * deflaters at a fixed or adaptive compression level.
+ *
+ * <p>A fixed level is used for every body. In adaptive mode, the level is picked from the CPU time
+ * spent compressing and the bytes saved at each level: the level goes up as long as the next one
+ * saves at least {@code minBytesSavedPerCpuMilli} more bytes for every extra millisecond of CPU
+ * it costs, and down when the current one no longer does. Now and then a body is compressed at a
+ * neighbouring level to keep the measurements of the alternatives current.
+ */
+class DeflaterCodec implements PayloadCodec {
+
+  static final long DEFAULT_MIN_BYTES_SAVED_PER_CPU_MILLI = 2048;
+
+  private static final int MAX_IDLE_DEFLATERS = 16;
+  private static final int[] ADAPTIVE_LEVELS = {1, 3, 6, 9};
+  private static final int INITIAL_ADAPTIVE_INDEX = 2;
+  private static final int PROBE_INTERVAL = 16;
+  private static final long MIN_SAMPLE_BYTES = 4096;
+  private static final double SMOOTHING = 0.3;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+  static final DeflaterCodec DEFAULT_GZIP = fixed(true, Deflater.DEFAULT_COMPRESSION);
+
+  private final ConcurrentLinkedQueue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final boolean gzip;
+  private final int fixedLevel;
+  private final boolean adaptive;
+  private final double minBytesSavedPerCpuMilli;
+  private final double[] cpuNanosPerByte = new double[ADAPTIVE_LEVELS.length];
+  private final double[] compressionRatio = new double[ADAPTIVE_LEVELS.length];
+  private int current = INITIAL_ADAPTIVE_INDEX;
+  private long streams;
+
+  private DeflaterCodec(boolean gzip, int fixedLevel, boolean adaptive,
+                        double minBytesSavedPerCpuMilli) {
+    this.gzip = gzip;
+    this.fixedLevel = fixedLevel;
+    this.adaptive = adaptive;
+    this.minBytesSavedPerCpuMilli = minBytesSavedPerCpuMilli;
+  }
+
+  /**
+   * @param gzip whether to write the gzip format rather than zlib
+   * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9
+   */
+  static DeflaterCodec fixed(boolean gzip, int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    return new DeflaterCodec(gzip, level, false, 0);
+  }
+
+  static DeflaterCodec adaptive(boolean gzip, long minBytesSavedPerCpuMilli) {
+    return new DeflaterCodec(gzip, Deflater.DEFAULT_COMPRESSION, true, minBytesSavedPerCpuMilli);
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return gzip ? PayloadCodecs.GZIP : PayloadCodecs.DEFLATE;
+  }
+
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /**
+   * @return the level new streams are compressed at, disregarding occasional probes of other
+   *     levels in adaptive mode
+   */
+  synchronized int getLevel() {
+    return adaptive ? ADAPTIVE_LEVELS[current] : fixedLevel;
+  }
+
+  @Override
+  public DeflaterStream open(OutputStream out, boolean syncFlush) throws IOException {
+    int level = nextLevel();
+    Deflater deflater = acquire(level);
+    try {
+      return new DeflaterStream(out, this, deflater, level, gzip, syncFlush);
+    } catch (IOException | RuntimeException e) {
+      release(deflater);
+      throw e;
+    }
+  }
+
+  private synchronized int nextLevel() {
+    if (!adaptive) {
+      return fixedLevel;
+    }
+    streams++;
+    if (streams % PROBE_INTERVAL == 0) {
+      int probe = (streams / PROBE_INTERVAL) % 2 == 0 ? current + 1 : current - 1;
+      if (probe >= 0 && probe < ADAPTIVE_LEVELS.length) {
+        return ADAPTIVE_LEVELS[probe];
+      }
+    }
+    return ADAPTIVE_LEVELS[current];
+  }
+
+  synchronized void record(int level, long bytesIn, long bytesOut, long cpuNanos) {
+    if (!adaptive || bytesIn < MIN_SAMPLE_BYTES) {
+      return;
+    }
+    int index = indexOf(level);
+    if (index < 0) {
+      return;
+    }
+    double cpu = (double) Math.max(cpuNanos, 0) / bytesIn;
+    double ratio = (double) bytesOut / bytesIn;
+    if (compressionRatio[index] == 0) {
+      cpuNanosPerByte[index] = cpu;
+      compressionRatio[index] = ratio;
+    } else {
+      cpuNanosPerByte[index] += SMOOTHING * (cpu - cpuNanosPerByte[index]);
+      compressionRatio[index] += SMOOTHING * (ratio - compressionRatio[index]);
+    }
+
+    if (!isMeasured(current)) {
+      return;
+    }
+    if (current + 1 < ADAPTIVE_LEVELS.length && isMeasured(current + 1)
+        && isWorthIt(current, current + 1)) {
+      current++;
+    } else if (current > 0 && isMeasured(current - 1) && !isWorthIt(current - 1, current)) {
+      current--;
+    }
+  }
+
+  private boolean isMeasured(int index) {
+    return compressionRatio[index] != 0;
+  }
+
+  /**
+   * @return whether the higher level saves enough bytes for the extra CPU time it takes
+   */
+  private boolean isWorthIt(int lower, int higher) {
+    double bytesSavedPerByte = compressionRatio[lower] - compressionRatio[higher];
+    double extraCpuNanosPerByte = cpuNanosPerByte[higher] - cpuNanosPerByte[lower];
+    if (extraCpuNanosPerByte <= 0) {
+      return bytesSavedPerByte >= 0;
+    }
+    return bytesSavedPerByte / extraCpuNanosPerByte * 1e6 >= minBytesSavedPerCpuMilli;
+  }
+
+  private static int indexOf(int level) {
+    for (int i = 0; i < ADAPTIVE_LEVELS.length; i++) {
+      if (ADAPTIVE_LEVELS[i] == level) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  long cpuTime() {
+    if (!adaptive) {
+      return 0;
+    }
+    return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  private Deflater acquire(int level) {
+    Deflater deflater = idleDeflaters.poll();
+    if (deflater == null) {
+      return new Deflater(level, gzip);
+    }
+    idleCount.decrementAndGet();
+    deflater.setLevel(level);
+    return deflater;
+  }
+
+  @Override
+  public String toString() {
+    return getContentEncoding() + (adaptive ? "(adaptive)" : "(" + fixedLevel + ")");
+  }
+
+  void release(Deflater deflater) {
+    if (idleCount.incrementAndGet() > MAX_IDLE_DEFLATERS) {
+      idleCount.decrementAndGet();
+      deflater.end();
+      return;
+    }
+    deflater.reset();
+    idleDeflaters.offer(deflater);
+  }
+}
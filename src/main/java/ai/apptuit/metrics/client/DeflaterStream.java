@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates a body in the gzip or zlib format with a {@link Deflater} borrowed from a
+ * {@link DeflaterCodec}, instead of a new native one for every stream as
+ * {@link java.util.zip.GZIPOutputStream} does. The deflater is handed back by {@link #finish()},
+ * or by {@link #release()} if the stream is abandoned.
+ */
+final class DeflaterStream extends EncodingOutputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] GZIP_HEADER = {
+      0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private final DeflaterCodec codec;
+  private final Deflater deflater;
+  private final int level;
+  private final boolean syncFlush;
+  private final CRC32 crc;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private long framingBytes;
+  private long cpuNanos;
+  private boolean released;
+
+  DeflaterStream(OutputStream out, DeflaterCodec codec, Deflater deflater, int level,
+                 boolean gzip, boolean syncFlush) throws IOException {
+    super(out);
+    this.codec = codec;
+    this.deflater = deflater;
+    this.level = level;
+    this.syncFlush = syncFlush;
+    this.crc = gzip ? new CRC32() : null;
+    if (gzip) {
+      out.write(GZIP_HEADER);
+      framingBytes = GZIP_HEADER.length + GZIP_TRAILER_SIZE;
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (released) {
+      throw new IOException("Stream already finished");
+    }
+    long start = codec.cpuTime();
+    deflater.setInput(b, off, len);
+    while (!deflater.needsInput()) {
+      deflate(Deflater.NO_FLUSH);
+    }
+    if (crc != null) {
+      crc.update(b, off, len);
+    }
+    cpuNanos += codec.cpuTime() - start;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (syncFlush && !released) {
+      while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {
+        // The buffer was filled, there may be more
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Completes the body without closing the underlying stream, and returns the deflater.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (released) {
+      return;
+    }
+    try {
+      long start = codec.cpuTime();
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflate(Deflater.NO_FLUSH);
+      }
+      cpuNanos += codec.cpuTime() - start;
+      if (crc != null) {
+        byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+        writeInt((int) crc.getValue(), trailer, 0);
+        writeInt((int) deflater.getBytesRead(), trailer, 4);
+        out.write(trailer);
+      }
+      codec.record(level, deflater.getBytesRead(), deflater.getBytesWritten() + framingBytes,
+          cpuNanos);
+    } finally {
+      release();
+    }
+  }
+
+  @Override
+  public void release() {
+    if (!released) {
+      released = true;
+      codec.release(deflater);
+    }
+  }
+
+  private int deflate(int flush) throws IOException {
+    int length = deflater.deflate(buffer, 0, buffer.length, flush);
+    if (length > 0) {
+      out.write(buffer, 0, length);
+    }
+    return length;
+  }
+
+  private static void writeInt(int value, byte[] buf, int offset) {
+    buf[offset] = (byte) value;
+    buf[offset + 1] = (byte) (value >> 8);
+    buf[offset + 2] = (byte) (value >> 16);
+    buf[offset + 3] = (byte) (value >> 24);
+  }
+}
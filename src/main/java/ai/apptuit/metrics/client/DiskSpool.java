@@ -0,0 +1,381 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead spool of payloads that could not be delivered, kept in memory-mapped segment files
+ * so that it survives restarts of the JVM.
+ *
+ * <p>Each segment starts with a header holding a magic number and the offset of the oldest
+ * unread record. Records are laid out as {@code [length][crc32][payload]}, and a zero length
+ * marks the end of the segment. Segments are named after a monotonically increasing sequence
+ * number, which orders them oldest first. When the spool outgrows its size limit, whole segments
+ * are evicted, oldest first.
+ *
+ * <p>A record handed out by {@link #peek()} identifies its position, so that
+ * {@link #remove(Record)} discards nothing else if its segment was evicted by an
+ * {@link #append(byte[])} in the meantime.
+ */
+class DiskSpool implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(DiskSpool.class.getName());
+
+  static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final int MAGIC = 0x41505331;
+  private static final int HEADER_SIZE = 8;
+  private static final int READ_OFFSET_POSITION = 4;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private final File directory;
+  private final long maxBytes;
+  private final int segmentSize;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long nextSequence = 0;
+  private long totalBytes = 0;
+  private long pendingRecords = 0;
+  private long evictedRecords = 0;
+
+  DiskSpool(File directory, long maxBytes) throws IOException {
+    this(directory, maxBytes, DEFAULT_SEGMENT_SIZE);
+  }
+
+  DiskSpool(File directory, long maxBytes, int segmentSize) throws IOException {
+    if (maxBytes <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Spool size limit too small: " + maxBytes);
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create spool directory " + directory);
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.segmentSize = (int) Math.min(segmentSize, maxBytes);
+    recover();
+  }
+
+  /**
+   * Appends a payload at the tail of the spool, evicting the oldest segments if the spool would
+   * otherwise exceed its size limit.
+   *
+   * @return false if the payload is larger than the whole spool and was discarded
+   */
+  public synchronized boolean append(byte[] payload) throws IOException {
+    if (payload.length == 0) {
+      throw new IllegalArgumentException("Cannot spool an empty payload");
+    }
+    int recordSize = RECORD_HEADER_SIZE + payload.length;
+    if (HEADER_SIZE + recordSize > maxBytes) {
+      evictedRecords++;
+      return false;
+    }
+    Segment tail = segments.peekLast();
+    if (tail == null || !tail.hasRoomFor(recordSize)) {
+      int size = Math.max(segmentSize, HEADER_SIZE + recordSize);
+      evictFor(size);
+      tail = createSegment(size);
+    }
+    tail.append(payload);
+    pendingRecords++;
+    return true;
+  }
+
+  /**
+   * @return the oldest record in the spool, or null if the spool is empty
+   */
+  public synchronized Record peek() {
+    Segment head;
+    while ((head = segments.peekFirst()) != null) {
+      Record record = head.peek();
+      if (record != null) {
+        return record;
+      }
+      if (head == segments.peekLast()) {
+        return null;
+      }
+      deleteSegment(segments.pollFirst());
+    }
+    return null;
+  }
+
+  /**
+   * Discards {@code record}, a record returned by {@link #peek()}, unless it is already gone.
+   */
+  public synchronized void remove(Record record) {
+    Segment head = segments.peekFirst();
+    if (head != null && head.sequence == record.sequence && head.readOffset == record.offset
+        && head.advance()) {
+      pendingRecords--;
+      if (head.isFullyRead() && head != segments.peekLast()) {
+        deleteSegment(segments.pollFirst());
+      }
+    }
+  }
+
+  public synchronized long getPendingCount() {
+    return pendingRecords;
+  }
+
+  public synchronized long getEvictedCount() {
+    return evictedRecords;
+  }
+
+  public synchronized long getSizeInBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Forces the segments to disk and lets go of them. Their mappings are released once they are
+   * garbage collected, as Java offers no supported way to unmap a file earlier.
+   */
+  @Override
+  public synchronized void close() {
+    segments.forEach(Segment::force);
+    segments.clear();
+  }
+
+  private synchronized void recover() throws IOException {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) {
+      throw new IOException("Could not list spool directory " + directory);
+    }
+    long[] sequences = Arrays.stream(files).mapToLong(DiskSpool::getSequence)
+        .filter(seq -> seq >= 0).sorted().toArray();
+    for (long sequence : sequences) {
+      File file = getSegmentFile(sequence);
+      try {
+        Segment segment = Segment.open(file, sequence);
+        segments.addLast(segment);
+        totalBytes += segment.capacity();
+        pendingRecords += segment.countUnread();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Discarding unreadable spool segment " + file, e);
+        deleteFile(file);
+      }
+      nextSequence = sequence + 1;
+    }
+  }
+
+  private void evictFor(int size) {
+    while (!segments.isEmpty() && totalBytes + size > maxBytes) {
+      Segment oldest = segments.pollFirst();
+      long unread = oldest.countUnread();
+      evictedRecords += unread;
+      pendingRecords -= unread;
+      deleteSegment(oldest);
+    }
+  }
+
+  private Segment createSegment(int size) throws IOException {
+    long sequence = nextSequence++;
+    Segment segment = Segment.create(getSegmentFile(sequence), sequence, size);
+    segments.addLast(segment);
+    totalBytes += segment.capacity();
+    return segment;
+  }
+
+  private void deleteSegment(Segment segment) {
+    totalBytes -= segment.capacity();
+    deleteFile(segment.file);
+  }
+
+  private void deleteFile(File file) {
+    if (!file.delete()) {
+      //Can happen on platforms that do not allow deleting files that are still mapped
+      LOGGER.warning("Could not delete spool segment " + file);
+      file.deleteOnExit();
+    }
+  }
+
+  private File getSegmentFile(long sequence) {
+    return new File(directory, String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+  }
+
+  private static long getSequence(File file) {
+    String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A spooled payload and where it is in the spool.
+   */
+  static final class Record {
+
+    private final byte[] payload;
+    private final long sequence;
+    private final int offset;
+
+    private Record(byte[] payload, long sequence, int offset) {
+      this.payload = payload;
+      this.sequence = sequence;
+      this.offset = offset;
+    }
+
+    byte[] getPayload() {
+      return payload;
+    }
+  }
+
+  private static class Segment {
+
+    private final File file;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    private int readOffset;
+    private int writeOffset;
+
+    private Segment(File file, long sequence, MappedByteBuffer buffer) {
+      this.file = file;
+      this.sequence = sequence;
+      this.buffer = buffer;
+    }
+
+    static Segment create(File file, long sequence, int size) throws IOException {
+      Segment segment = new Segment(file, sequence, map(file, size));
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putInt(READ_OFFSET_POSITION, HEADER_SIZE);
+      segment.readOffset = HEADER_SIZE;
+      segment.writeOffset = HEADER_SIZE;
+      return segment;
+    }
+
+    static Segment open(File file, long sequence) throws IOException {
+      long length = file.length();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+        throw new IOException("Invalid segment size " + length);
+      }
+      Segment segment = new Segment(file, sequence, map(file, (int) length));
+      if (segment.buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a spool segment");
+      }
+      segment.readOffset = segment.buffer.getInt(READ_OFFSET_POSITION);
+      if (segment.readOffset < HEADER_SIZE || segment.readOffset > length) {
+        throw new IOException("Corrupt read offset " + segment.readOffset);
+      }
+      //Find the end of the valid records; a torn write at the tail is dropped
+      int offset = HEADER_SIZE;
+      int recordLength;
+      while ((recordLength = segment.recordLength(offset)) >= 0) {
+        offset += RECORD_HEADER_SIZE + recordLength;
+      }
+      segment.writeOffset = offset;
+      segment.readOffset = Math.min(segment.readOffset, offset);
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileChannel channel = raf.getChannel()) {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    int capacity() {
+      return buffer.capacity();
+    }
+
+    boolean hasRoomFor(int recordSize) {
+      return writeOffset + recordSize <= buffer.capacity();
+    }
+
+    void append(byte[] payload) {
+      int offset = writeOffset;
+      buffer.position(offset + RECORD_HEADER_SIZE);
+      buffer.put(payload);
+      buffer.putInt(offset + 4, checksum(payload));
+      //Length is written last, so that a torn write reads back as the end of the segment
+      buffer.putInt(offset, payload.length);
+      writeOffset = offset + RECORD_HEADER_SIZE + payload.length;
+    }
+
+    Record peek() {
+      if (readOffset >= writeOffset) {
+        return null;
+      }
+      byte[] payload = new byte[buffer.getInt(readOffset)];
+      buffer.position(readOffset + RECORD_HEADER_SIZE);
+      buffer.get(payload);
+      return new Record(payload, sequence, readOffset);
+    }
+
+    boolean advance() {
+      if (readOffset >= writeOffset) {
+        return false;
+      }
+      readOffset += RECORD_HEADER_SIZE + buffer.getInt(readOffset);
+      buffer.putInt(READ_OFFSET_POSITION, readOffset);
+      return true;
+    }
+
+    boolean isFullyRead() {
+      return readOffset >= writeOffset;
+    }
+
+    long countUnread() {
+      long count = 0;
+      for (int offset = readOffset; offset < writeOffset;
+           offset += RECORD_HEADER_SIZE + buffer.getInt(offset)) {
+        count++;
+      }
+      return count;
+    }
+
+    void force() {
+      buffer.force();
+    }
+
+    /**
+     * @return length of the valid record at offset, or -1 if there is none
+     */
+    private int recordLength(int offset) {
+      if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+        return -1;
+      }
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+        return -1;
+      }
+      byte[] payload = new byte[length];
+      buffer.position(offset + RECORD_HEADER_SIZE);
+      buffer.get(payload);
+      return checksum(payload) == buffer.getInt(offset + 4) ? length : -1;
+    }
+
+    private static int checksum(byte[] payload) {
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      return (int) crc.getValue();
+    }
+  }
+}
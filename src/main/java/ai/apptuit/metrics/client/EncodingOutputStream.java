@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream encoding a request body for a {@link PayloadCodec}. The underlying stream belongs to the
+ * caller: {@link #finish()} and {@link #close()} complete the encoding but leave it open.
+ */
+public abstract class EncodingOutputStream extends OutputStream {
+
+  protected final OutputStream out;
+  private final byte[] single = new byte[1];
+
+  protected EncodingOutputStream(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override
+  public abstract void write(byte[] b, int off, int len) throws IOException;
+
+  /**
+   * Writes out whatever the encoding still holds back, including any trailer.
+   */
+  public abstract void finish() throws IOException;
+
+  /**
+   * Frees the resources of a stream that is abandoned without being finished. Does nothing if the
+   * stream was finished.
+   */
+  public void release() {
+  }
+
+  @Override
+  public void close() throws IOException {
+    finish();
+  }
+}
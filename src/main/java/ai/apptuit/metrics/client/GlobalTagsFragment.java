@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Global tags sanitized and serialized once, in both the JSON and the text line formats, so they
+ * can be appended to every point as raw bytes.
+ *
+ * <p>Global tags take precedence over point tags with the same key; writers must skip the point
+ * tags for which {@link #overrides(String)} returns true before appending the fragment.
+ */
+class GlobalTagsFragment {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final Map<String, String> globalTags;
+  private final Sanitizer sanitizer;
+  private final byte[] json;
+  private final byte[] text;
+
+  private GlobalTagsFragment(Map<String, String> globalTags, Sanitizer sanitizer) {
+    this.globalTags = globalTags != null ? globalTags : Collections.emptyMap();
+    this.sanitizer = sanitizer;
+    if (this.globalTags.isEmpty()) {
+      this.json = EMPTY;
+      this.text = EMPTY;
+    } else {
+      this.json = new DataPointsJsonEncoder().encodeTags(this.globalTags, sanitizer);
+      this.text = encodeText(this.globalTags, sanitizer);
+    }
+  }
+
+  static GlobalTagsFragment of(Map<String, String> globalTags, Sanitizer sanitizer) {
+    return new GlobalTagsFragment(globalTags, sanitizer);
+  }
+
+  /**
+   * Returns {@code cached} if it was built for the same tags and sanitizer, or a new fragment
+   * otherwise.
+   */
+  static GlobalTagsFragment of(GlobalTagsFragment cached, Map<String, String> globalTags,
+                               Sanitizer sanitizer) {
+    Map<String, String> tags = globalTags != null ? globalTags : Collections.emptyMap();
+    if (cached != null && cached.sanitizer == sanitizer && cached.globalTags == tags) {
+      return cached;
+    }
+    return new GlobalTagsFragment(globalTags, sanitizer);
+  }
+
+  /**
+   * @return the tags as given, before sanitization
+   */
+  Map<String, String> getTags() {
+    return globalTags;
+  }
+
+  boolean overrides(String tagKey) {
+    return globalTags.containsKey(tagKey);
+  }
+
+  /**
+   * @return the tags as JSON object members, each preceded by a comma
+   */
+  byte[] getJson() {
+    return json;
+  }
+
+  /**
+   * @return the tags as {@code key=value} pairs of a text line, each preceded by a space
+   */
+  byte[] getText() {
+    return text;
+  }
+
+  private static byte[] encodeText(Map<String, String> tags, Sanitizer sanitizer) {
+    StringBuilder builder = new StringBuilder();
+    tags.forEach((key, value) -> builder.append(' ').append(sanitizer.sanitizer(key))
+        .append('=').append(value));
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A bounded pool of persistent HTTP/1.1 connections to a single endpoint.
+ *
+ * <p>Connections are kept alive between requests, so that a reporter flushing every few seconds
+ * does not pay for a TCP and TLS handshake on every flush. Idle connections are evicted once they
+ * outlive the configured idle timeout (or the timeout advertised by the server in its
+ * {@code Keep-Alive} header, whichever is shorter), and are checked for staleness before being
+ * handed out again.
+ */
+class HttpConnectionPool implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(HttpConnectionPool.class.getName());
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_RESP_LENGTH = 5 * 1024 * 1024;
+  private static final int STALE_CHECK_TIMEOUT_MS = 1;
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private final URL endPoint;
+  private final String host;
+  private final int port;
+  private final boolean secure;
+  private final String requestTarget;
+  private final String hostHeader;
+  private final int connectTimeoutMs;
+  private final int socketTimeoutMs;
+  private final long idleTimeoutMs;
+
+  private final Semaphore permits;
+  private final Deque<Connection> idleConnections = new ArrayDeque<>();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong reusedCount = new AtomicLong();
+  private final AtomicLong evictedCount = new AtomicLong();
+  private volatile boolean closed = false;
+
+  HttpConnectionPool(URL endPoint, int maxConnections, long idleTimeoutMs,
+                     int connectTimeoutMs, int socketTimeoutMs) {
+    String protocol = endPoint.getProtocol();
+    if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+      throw new IllegalArgumentException("Unsupported protocol [" + protocol + "]");
+    }
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("maxConnections must be positive");
+    }
+    this.endPoint = endPoint;
+    this.secure = "https".equalsIgnoreCase(protocol);
+    this.host = endPoint.getHost();
+    this.port = endPoint.getPort() > 0 ? endPoint.getPort() : endPoint.getDefaultPort();
+    this.hostHeader = endPoint.getPort() > 0 ? host + ":" + port : host;
+    String file = endPoint.getFile();
+    this.requestTarget = (file == null || file.isEmpty()) ? "/" : file;
+    this.permits = new Semaphore(maxConnections, true);
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.connectTimeoutMs = connectTimeoutMs;
+    this.socketTimeoutMs = socketTimeoutMs;
+  }
+
+  /**
+   * POSTs the entity to the end point on a pooled connection and returns the response.
+   * If a re-used connection turns out to have been closed by the server before the entity was
+   * written, the request is replayed once on a freshly opened connection. Once the entity has
+   * been written a failure is not replayed, as the server may have acted on the request, so
+   * the entity is written at most once per call.
+   *
+   * <p>Requests through an HTTP proxy are left to {@link HttpURLConnection}, which takes care of
+   * the request form each kind of proxy expects and of proxy authentication.
+   */
+  public Response post(Map<String, String> headers, EntityWriter entity) throws IOException {
+    acquirePermit();
+    try {
+      Proxy proxy = selectProxy();
+      if (proxy.type() == Proxy.Type.HTTP) {
+        return postThroughProxy(proxy, headers, entity);
+      }
+      Connection connection = borrowIdleConnection();
+      if (connection != null) {
+        try {
+          return execute(connection, headers, entity);
+        } catch (StaleConnectionException e) {
+          debug("Pooled connection went stale, retrying on a new connection");
+        }
+      }
+      return execute(openConnection(proxy), headers, entity);
+    } finally {
+      permits.release();
+    }
+  }
+
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  public long getReusedCount() {
+    return reusedCount.get();
+  }
+
+  public long getEvictedCount() {
+    return evictedCount.get();
+  }
+
+  int getIdleCount() {
+    synchronized (idleConnections) {
+      return idleConnections.size();
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (idleConnections) {
+      idleConnections.forEach(Connection::close);
+      idleConnections.clear();
+    }
+  }
+
+  private void acquirePermit() throws IOException {
+    try {
+      if (!permits.tryAcquire(connectTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new IOException("Timed out waiting for a connection to " + hostHeader);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for a connection to " + hostHeader, e);
+    }
+  }
+
+  private Response execute(Connection connection, Map<String, String> headers,
+                           EntityWriter entity) throws IOException {
+    boolean reusable = false;
+    try {
+      Response response = connection.post(headers, entity);
+      reusable = response.keepAlive && !closed;
+      return response;
+    } finally {
+      if (reusable) {
+        returnConnection(connection);
+      } else {
+        connection.close();
+      }
+    }
+  }
+
+  private Connection borrowIdleConnection() {
+    long now = System.currentTimeMillis();
+    synchronized (idleConnections) {
+      evictExpired(now);
+      Connection connection;
+      while ((connection = idleConnections.pollFirst()) != null) {
+        if (connection.isStale()) {
+          evictedCount.incrementAndGet();
+          connection.close();
+          continue;
+        }
+        reusedCount.incrementAndGet();
+        return connection;
+      }
+    }
+    return null;
+  }
+
+  private void returnConnection(Connection connection) {
+    long now = System.currentTimeMillis();
+    synchronized (idleConnections) {
+      idleConnections.addFirst(connection);
+      evictExpired(now);
+    }
+  }
+
+  private void evictExpired(long now) {
+    Iterator<Connection> iterator = idleConnections.iterator();
+    while (iterator.hasNext()) {
+      Connection connection = iterator.next();
+      if (connection.expiresAt <= now) {
+        iterator.remove();
+        evictedCount.incrementAndGet();
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Posts through {@link HttpURLConnection}, which pools its own connections to the proxy.
+   */
+  private Response postThroughProxy(Proxy proxy, Map<String, String> headers,
+                                    EntityWriter entity) throws IOException {
+    HttpURLConnection urlConnection = (HttpURLConnection) endPoint.openConnection(proxy);
+    try {
+      urlConnection.setConnectTimeout(connectTimeoutMs);
+      urlConnection.setReadTimeout(socketTimeoutMs);
+      urlConnection.setChunkedStreamingMode(0);
+      headers.forEach(urlConnection::setRequestProperty);
+      urlConnection.setRequestMethod("POST");
+      urlConnection.setDoInput(true);
+      urlConnection.setDoOutput(true);
+      try (OutputStream out = new BufferedOutputStream(urlConnection.getOutputStream(),
+          BUFFER_SIZE)) {
+        entity.writeTo(out);
+      }
+
+      int status = urlConnection.getResponseCode();
+      Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      urlConnection.getHeaderFields().forEach((name, values) -> {
+        if (name != null && !values.isEmpty()) {
+          responseHeaders.put(name, values.get(0));
+        }
+      });
+      InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+          ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+      String body = "";
+      if (in != null) {
+        try (InputStream bodyStream = in) {
+          body = readBody(bodyStream);
+        }
+      }
+      return new Response(status, Collections.unmodifiableMap(responseHeaders), body, false);
+    } catch (IOException e) {
+      urlConnection.disconnect();
+      throw e;
+    }
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buf = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buf)) >= 0) {
+      if (body.size() < MAX_RESP_LENGTH) {
+        body.write(buf, 0, Math.min(read, MAX_RESP_LENGTH - body.size()));
+      }
+    }
+    if (body.size() >= MAX_RESP_LENGTH) {
+      return "Response too long";
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private Connection openConnection(Proxy proxy) throws IOException {
+    Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+      socket.setSoTimeout(socketTimeoutMs);
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      if (secure) {
+        socket = startTls(socket);
+      }
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(socket);
+      throw e;
+    }
+    createdCount.incrementAndGet();
+    return new Connection(socket);
+  }
+
+  private Proxy selectProxy() {
+    try {
+      ProxySelector selector = ProxySelector.getDefault();
+      if (selector != null) {
+        List<Proxy> proxies = selector.select(endPoint.toURI());
+        if (proxies != null && !proxies.isEmpty() && proxies.get(0).address() != null) {
+          return proxies.get(0);
+        }
+      }
+    } catch (URISyntaxException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not select proxy for " + endPoint, e);
+    }
+    return Proxy.NO_PROXY;
+  }
+
+  private Socket startTls(Socket socket) throws IOException {
+    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+    SSLParameters parameters = sslSocket.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+    sslSocket.setSSLParameters(parameters);
+    sslSocket.startHandshake();
+    return sslSocket;
+  }
+
+  private static int parseStatus(String statusLine) throws IOException {
+    //HTTP-version SP status-code SP reason-phrase
+    int start = statusLine.indexOf(' ');
+    if (!statusLine.startsWith("HTTP/") || start < 0 || statusLine.length() < start + 4) {
+      throw new IOException("Malformed status line: " + statusLine);
+    }
+    try {
+      return Integer.parseInt(statusLine.substring(start + 1, start + 4));
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed status line: " + statusLine, e);
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b == -1) {
+        throw new EOFException("Connection closed by server");
+      }
+      if (b != '\r') {
+        line.append((char) b);
+      }
+    }
+    return line.toString();
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Error closing connection", e);
+    }
+  }
+
+  private void debug(String s) {
+    if (LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.fine(s);
+    }
+  }
+
+  interface EntityWriter {
+
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+
+  static class Response {
+
+    private final int status;
+    private final Map<String, String> headers;
+    private final String body;
+    private final boolean keepAlive;
+
+    Response(int status, Map<String, String> headers, String body, boolean keepAlive) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+      this.keepAlive = keepAlive;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public String getHeader(String name) {
+      return headers.get(name);
+    }
+
+    public String getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * Thrown when a re-used connection fails before any byte of the entity has been written, which
+   * means the server closed it while it was idling in the pool.
+   */
+  private static class StaleConnectionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    StaleConnectionException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  private class Connection implements Closeable {
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private long expiresAt;
+    private boolean used = false;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    Response post(Map<String, String> headers, EntityWriter entity) throws IOException {
+      boolean reused = used;
+      used = true;
+      try {
+        writeHead(headers);
+        if (reused) {
+          // Fail on a connection the server has reset before the entity is written
+          out.flush();
+        }
+      } catch (IOException e) {
+        if (reused) {
+          throw new StaleConnectionException(e);
+        }
+        throw e;
+      }
+      writeEntity(entity);
+      String statusLine = readLine(in);
+
+      int status = parseStatus(statusLine);
+      Map<String, String> responseHeaders = readHeaders();
+      while (status >= 100 && status < 200) {
+        //Interim response (100 Continue etc.) - the final response follows
+        status = parseStatus(readLine(in));
+        responseHeaders = readHeaders();
+      }
+
+      boolean keepAlive = isKeepAlive(statusLine, responseHeaders);
+      BodyReader bodyReader = new BodyReader(status, responseHeaders);
+      String body = bodyReader.read();
+      keepAlive = keepAlive && bodyReader.fullyConsumed;
+
+      expiresAt = System.currentTimeMillis() + getKeepAliveMillis(responseHeaders);
+      return new Response(status, Collections.unmodifiableMap(responseHeaders), body, keepAlive);
+    }
+
+    private void writeHead(Map<String, String> headers) throws IOException {
+      StringBuilder head = new StringBuilder(256);
+      head.append("POST ").append(requestTarget).append(" HTTP/1.1\r\n");
+      head.append("Host: ").append(hostHeader).append("\r\n");
+      headers.forEach((k, v) -> head.append(k).append(": ").append(v).append("\r\n"));
+      head.append("Transfer-Encoding: chunked\r\n");
+      head.append("Connection: keep-alive\r\n\r\n");
+      out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void writeEntity(EntityWriter entity) throws IOException {
+      ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+      entity.writeTo(chunked);
+      chunked.finish();
+      out.flush();
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+      Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      String line;
+      while (!(line = readLine(in)).isEmpty()) {
+        int idx = line.indexOf(':');
+        if (idx > 0) {
+          headers.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+        }
+      }
+      return headers;
+    }
+
+    private boolean isKeepAlive(String statusLine, Map<String, String> headers) {
+      String connection = headers.get("Connection");
+      if (connection != null) {
+        if (connection.toLowerCase().contains("close")) {
+          return false;
+        }
+        if (connection.toLowerCase().contains("keep-alive")) {
+          return true;
+        }
+      }
+      return statusLine.startsWith("HTTP/1.1");
+    }
+
+    private long getKeepAliveMillis(Map<String, String> headers) {
+      String keepAlive = headers.get("Keep-Alive");
+      if (keepAlive != null) {
+        for (String param : keepAlive.split(",")) {
+          String[] kv = param.trim().split("=");
+          if (kv.length == 2 && "timeout".equalsIgnoreCase(kv[0].trim())) {
+            try {
+              return Math.min(idleTimeoutMs, TimeUnit.SECONDS.toMillis(
+                  Long.parseLong(kv[1].trim())));
+            } catch (NumberFormatException e) {
+              LOGGER.log(Level.FINE, "Ignoring malformed Keep-Alive header: " + keepAlive, e);
+            }
+          }
+        }
+      }
+      return idleTimeoutMs;
+    }
+
+    /**
+     * A connection is stale if the server has closed it, or has sent unsolicited data on it,
+     * while the connection sat idle in the pool.
+     */
+    boolean isStale() {
+      if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+        return true;
+      }
+      try {
+        socket.setSoTimeout(STALE_CHECK_TIMEOUT_MS);
+        try {
+          //Either EOF, or data the server should not have sent
+          in.read();
+          return true;
+        } finally {
+          socket.setSoTimeout(socketTimeoutMs);
+        }
+      } catch (SocketTimeoutException e) {
+        return false;
+      } catch (IOException e) {
+        return true;
+      }
+    }
+
+    @Override
+    public void close() {
+      closeQuietly(socket);
+    }
+
+    private class BodyReader {
+
+      private final int status;
+      private final Map<String, String> headers;
+      private boolean fullyConsumed = false;
+
+      BodyReader(int status, Map<String, String> headers) {
+        this.status = status;
+        this.headers = headers;
+      }
+
+      String read() throws IOException {
+        if (status == 204 || status == 304) {
+          fullyConsumed = true;
+          return "";
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+          readChunked(body);
+        } else if (contentLength != null) {
+          readFixed(body, parseContentLength(contentLength));
+        } else {
+          //Body delimited by the server closing the connection
+          copy(in, body, Long.MAX_VALUE);
+        }
+        if (body.size() >= MAX_RESP_LENGTH) {
+          return "Response too long";
+        }
+        return new String(body.toByteArray(), getCharset());
+      }
+
+      private long parseContentLength(String contentLength) throws IOException {
+        try {
+          return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid Content-Length: " + contentLength, e);
+        }
+      }
+
+      private void readFixed(ByteArrayOutputStream body, long length) throws IOException {
+        if (copy(in, body, length) != length) {
+          throw new EOFException("Premature end of response body");
+        }
+        fullyConsumed = true;
+      }
+
+      private void readChunked(ByteArrayOutputStream body) throws IOException {
+        while (true) {
+          String sizeLine = readLine(in);
+          int ext = sizeLine.indexOf(';');
+          long size;
+          try {
+            size = Long.parseLong((ext >= 0 ? sizeLine.substring(0, ext) : sizeLine).trim(), 16);
+          } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + sizeLine, e);
+          }
+          if (size == 0) {
+            //Skip trailers
+            while (!readLine(in).isEmpty()) {
+              debug("Trailer discarded");
+            }
+            fullyConsumed = true;
+            return;
+          }
+          if (copy(in, body, size) != size) {
+            throw new EOFException("Premature end of chunk");
+          }
+          readLine(in);
+        }
+      }
+
+      private long copy(InputStream from, ByteArrayOutputStream to, long limit)
+          throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long copied = 0;
+        while (copied < limit) {
+          int read = from.read(buf, 0, (int) Math.min(buf.length, limit - copied));
+          if (read < 0) {
+            break;
+          }
+          if (to.size() < MAX_RESP_LENGTH) {
+            to.write(buf, 0, Math.min(read, MAX_RESP_LENGTH - to.size()));
+          }
+          copied += read;
+        }
+        return copied;
+      }
+
+      private Charset getCharset() {
+        String contentType = headers.get("Content-Type");
+        if (contentType != null) {
+          for (String param : contentType.split(";")) {
+            String[] kv = param.trim().split("=");
+            if (kv.length == 2 && "charset".equalsIgnoreCase(kv[0].trim())) {
+              try {
+                return Charset.forName(kv[1].trim().replace("\"", ""));
+              } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Unknown charset in " + contentType, e);
+              }
+            }
+          }
+        }
+        return StandardCharsets.UTF_8;
+      }
+    }
+  }
+
+  /**
+   * Writes the request entity using the chunked transfer coding, one chunk per buffer-full.
+   */
+  private static class ChunkedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count = 0;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushChunk();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      flushChunk();
+      out.flush();
+    }
+
+    @Override
+    public void close() {
+      //The underlying connection outlives the request; finish() ends the entity.
+    }
+
+    void finish() throws IOException {
+      flushChunk();
+      out.write('0');
+      out.write(CRLF);
+      out.write(CRLF);
+    }
+
+    private void flushChunk() throws IOException {
+      if (count == 0) {
+        return;
+      }
+      out.write(Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII));
+      out.write(CRLF);
+      out.write(buffer, 0, count);
+      out.write(CRLF);
+      count = 0;
+    }
+  }
+}
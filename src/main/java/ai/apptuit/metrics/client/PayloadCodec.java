@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encoding applied to request bodies on the way to the API, such as gzip. Codecs for the supported
+ * encodings are created by {@link PayloadCodecs}.
+ */
+public interface PayloadCodec {
+
+  /**
+   * @return value of the {@code Content-Encoding} header of bodies encoded by this codec, or null
+   *     if they are sent as is
+   */
+  String getContentEncoding();
+
+  /**
+   * Starts encoding a body onto {@code out}.
+   *
+   * @param syncFlush whether flushing the returned stream pushes everything written so far to
+   *     {@code out}, at some cost in compression; used to measure the encoded size midway
+   */
+  EncodingOutputStream open(OutputStream out, boolean syncFlush) throws IOException;
+}
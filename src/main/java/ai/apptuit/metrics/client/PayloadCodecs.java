@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * The {@link PayloadCodec}s available for request bodies.
+ */
+public final class PayloadCodecs {
+
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+  public static final String LZ4 = Lz4BlockCodec.CONTENT_ENCODING;
+  public static final String IDENTITY = "identity";
+
+  private static final PayloadCodec IDENTITY_CODEC = new PayloadCodec() {
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public EncodingOutputStream open(OutputStream out, boolean syncFlush) {
+      return new EncodingOutputStream(out) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+          out.flush();
+        }
+
+        @Override
+        public void finish() {
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return IDENTITY;
+    }
+  };
+
+  private static final PayloadCodec LZ4_CODEC = new Lz4BlockCodec();
+
+  private PayloadCodecs() {
+  }
+
+  /**
+   * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9
+   */
+  public static PayloadCodec gzip(int level) {
+    return DeflaterCodec.fixed(true, level);
+  }
+
+  /**
+   * Gzip, with the level picked from the CPU time spent compressing and the bytes saved at each
+   * level. A higher level is used only while it saves enough bytes for the extra CPU it takes.
+   */
+  public static PayloadCodec adaptiveGzip() {
+    return DeflaterCodec.adaptive(true, DeflaterCodec.DEFAULT_MIN_BYTES_SAVED_PER_CPU_MILLI);
+  }
+
+  /**
+   * The HTTP {@code deflate} coding: deflate in the zlib format, which skips the CRC of gzip.
+   *
+   * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9
+   */
+  public static PayloadCodec deflate(int level) {
+    return DeflaterCodec.fixed(false, level);
+  }
+
+  /**
+   * A pure Java LZ4 style block compressor: much cheaper on CPU than gzip, at the cost of larger
+   * bodies. {@value #LZ4} is a nonstandard encoding specific to this client, so use it only with
+   * end points known to decode it. An end point that rejects it gets an encoding it accepts.
+   */
+  public static PayloadCodec lz4() {
+    return LZ4_CODEC;
+  }
+
+  /**
+   * Sends bodies uncompressed.
+   */
+  public static PayloadCodec identity() {
+    return IDENTITY_CODEC;
+  }
+
+  /**
+   * @param name {@value #GZIP}, {@value #DEFLATE}, {@value #LZ4} or {@value #IDENTITY}
+   * @param level compression level of the deflate based codecs
+   * @param adaptive whether gzip picks its level adaptively, ignoring {@code level}
+   * @return the codec, or null if the name is unknown
+   */
+  public static PayloadCodec forName(String name, int level, boolean adaptive) {
+    if (name == null) {
+      return null;
+    }
+    switch (name.trim().toLowerCase(Locale.ROOT)) {
+      case GZIP:
+      case "x-gzip":
+        return adaptive ? adaptiveGzip() : gzip(level);
+      case DEFLATE:
+        return adaptive
+            ? DeflaterCodec.adaptive(false, DeflaterCodec.DEFAULT_MIN_BYTES_SAVED_PER_CPU_MILLI)
+            : deflate(level);
+      case LZ4:
+        return lz4();
+      case IDENTITY:
+        return identity();
+      default:
+        return null;
+    }
+  }
+}
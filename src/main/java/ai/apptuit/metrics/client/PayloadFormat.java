@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+/**
+ * Format of the points in request bodies, before any {@link PayloadCodec} is applied.
+ */
+public enum PayloadFormat {
+
+  /**
+   * A JSON array of points, each with its metric name, timestamp, value and tags.
+   */
+  JSON("application/json") {
+    @Override
+    BatchEncoder getEncoder() {
+      return DataPointsJsonEncoder.get();
+    }
+  },
+
+  /**
+   * A binary batch that lists every distinct metric name, tag and series once and refers to them
+   * by number afterwards. See {@link BinaryBatchEncoder} for the layout.
+   */
+  BINARY(BinaryBatchEncoder.CONTENT_TYPE) {
+    @Override
+    BatchEncoder getEncoder() {
+      return BinaryBatchEncoder.get();
+    }
+  },
+
+  /**
+   * A binary batch like {@link #BINARY}, with the points grouped by series so that every series
+   * and a timestamp shared by all points are written once. See {@link ColumnarBatchEncoder} for
+   * the layout.
+   */
+  COLUMNAR(ColumnarBatchEncoder.CONTENT_TYPE) {
+    @Override
+    BatchEncoder getEncoder() {
+      return ColumnarBatchEncoder.get();
+    }
+  };
+
+  private final String contentType;
+
+  PayloadFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the encoder of the calling thread
+   */
+  abstract BatchEncoder getEncoder();
+}
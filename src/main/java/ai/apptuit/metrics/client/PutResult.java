@@ -0,0 +1,508 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of sending a batch with {@link ApptuitPutClient}: the HTTP status of the last attempt,
+ * the points the API rejected as reported in its {@code ?details} response, and how long it took.
+ */
+public class PutResult {
+
+  /**
+   * Status of a batch that got no HTTP response at all.
+   */
+  public static final int NO_RESPONSE = -1;
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private final int status;
+  private final Exception error;
+  private final int attempts;
+  private final long durationMillis;
+  private final long retryAfterMillis;
+  private final int successCount;
+  private final int failedCount;
+  private final List<PointError> pointErrors;
+  private final List<PutResult> shards;
+  private final String acceptEncoding;
+
+  private PutResult(int status, Exception error, int attempts, long durationMillis,
+                    long retryAfterMillis, int successCount, int failedCount,
+                    List<PointError> pointErrors) {
+    this(status, error, attempts, durationMillis, retryAfterMillis, successCount, failedCount,
+        pointErrors, Collections.emptyList(), null);
+  }
+
+  private PutResult(int status, Exception error, int attempts, long durationMillis,
+                    long retryAfterMillis, int successCount, int failedCount,
+                    List<PointError> pointErrors, List<PutResult> shards,
+                    String acceptEncoding) {
+    this.status = status;
+    this.error = error;
+    this.attempts = attempts;
+    this.durationMillis = durationMillis;
+    this.retryAfterMillis = retryAfterMillis;
+    this.successCount = successCount;
+    this.failedCount = failedCount;
+    this.pointErrors = pointErrors;
+    this.shards = shards;
+    this.acceptEncoding = acceptEncoding;
+  }
+
+  static PutResult of(HttpConnectionPool.Response response, int attempts, long durationMillis) {
+    Details details = Details.parse(response.getBody());
+    return new PutResult(response.getStatus(), null, attempts, durationMillis,
+        parseRetryAfter(response.getHeader("Retry-After")), details.success, details.failed,
+        details.errors, Collections.emptyList(), response.getHeader("Accept-Encoding"));
+  }
+
+  static PutResult of(Exception error, int attempts, long durationMillis) {
+    return new PutResult(NO_RESPONSE, error, attempts, durationMillis, -1, -1, -1,
+        Collections.emptyList());
+  }
+
+  /**
+   * Combines the results of the shards of a split batch. The status and error are those of the
+   * first shard that failed in a retryable way, else of the first shard that failed, else of the
+   * last shard. Counts and point errors are summed up over the shards.
+   */
+  static PutResult aggregate(List<PutResult> shards, long durationMillis) {
+    PutResult failure = null;
+    int attempts = 0;
+    long retryAfterMillis = -1;
+    int successCount = 0;
+    int failedCount = 0;
+    List<PointError> pointErrors = new ArrayList<>();
+    for (PutResult shard : shards) {
+      if (!shard.isSuccess()
+          && (failure == null || (shard.isRetryable() && !failure.isRetryable()))) {
+        failure = shard;
+      }
+      attempts += shard.attempts;
+      retryAfterMillis = Math.max(retryAfterMillis, shard.retryAfterMillis);
+      successCount = sumCounts(successCount, shard.successCount);
+      failedCount = sumCounts(failedCount, shard.failedCount);
+      pointErrors.addAll(shard.pointErrors);
+    }
+    PutResult representative = failure != null ? failure : shards.get(shards.size() - 1);
+    return new PutResult(representative.status, representative.error, attempts, durationMillis,
+        retryAfterMillis, successCount, failedCount, Collections.unmodifiableList(pointErrors),
+        Collections.unmodifiableList(new ArrayList<>(shards)), representative.acceptEncoding);
+  }
+
+  private static int sumCounts(int a, int b) {
+    return a < 0 || b < 0 ? -1 : a + b;
+  }
+
+  /**
+   * @return HTTP status of the last attempt, or {@link #NO_RESPONSE}
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the error that prevented the last attempt from getting a response, if any
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  public boolean isSuccess() {
+    return status >= HttpURLConnection.HTTP_OK && status < HttpURLConnection.HTTP_MULT_CHOICE;
+  }
+
+  /**
+   * @return whether the batch failed in a way that sending it again later may fix: throttling,
+   *     a server error or no response at all
+   */
+  public boolean isRetryable() {
+    return status == NO_RESPONSE || isRetryable(status);
+  }
+
+  static boolean isRetryable(int status) {
+    return status == HTTP_TOO_MANY_REQUESTS || status >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+  }
+
+  /**
+   * @return number of times the batch was sent
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @return time spent sending the batch, including retries and the waits between them
+   */
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  /**
+   * @return how long the server asked to wait before sending again, or {@code -1}
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+
+  /**
+   * @return number of points the API accepted, or {@code -1} if it did not say
+   */
+  public int getSuccessCount() {
+    return successCount;
+  }
+
+  /**
+   * @return number of points the API rejected, or {@code -1} if it did not say
+   */
+  public int getFailedCount() {
+    return failedCount;
+  }
+
+  /**
+   * @return the rejected points with the reason for each, as far as the API listed them
+   */
+  public List<PointError> getPointErrors() {
+    return pointErrors;
+  }
+
+  /**
+   * @return the encodings the end point listed as acceptable in its response, if any
+   */
+  String getAcceptEncoding() {
+    return acceptEncoding;
+  }
+
+  /**
+   * @return results of the individual requests if the batch was split into shards, in the order
+   *     of the shards; empty otherwise
+   */
+  public List<PutResult> getShards() {
+    return shards;
+  }
+
+  @Override
+  public String toString() {
+    return "PutResult{status=" + status + ", attempts=" + attempts + ", durationMillis="
+        + durationMillis + ", success=" + successCount + ", failed=" + failedCount
+        + (shards.isEmpty() ? "" : ", shards=" + shards.size())
+        + (error != null ? ", error=" + error : "") + "}";
+  }
+
+  static long parseRetryAfter(String value) {
+    if (value == null || value.isEmpty()) {
+      return -1;
+    }
+    try {
+      return Math.max(0, Long.parseLong(value.trim()) * 1000);
+    } catch (NumberFormatException e) {
+      // Not delay-seconds, try an HTTP-date
+    }
+    try {
+      Instant until = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+          .toInstant();
+      return Math.max(0, until.toEpochMilli() - System.currentTimeMillis());
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A point the API rejected.
+   */
+  public static class PointError {
+
+    private final Map<String, Object> dataPoint;
+    private final String error;
+
+    PointError(Map<String, Object> dataPoint, String error) {
+      this.dataPoint = dataPoint;
+      this.error = error;
+    }
+
+    /**
+     * @return the rejected point as echoed by the API: {@code metric}, {@code timestamp},
+     *     {@code value} and {@code tags}
+     */
+    public Map<String, Object> getDataPoint() {
+      return dataPoint;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return error + ": " + dataPoint;
+    }
+  }
+
+  /**
+   * The counts and errors of a {@code ?details} response body:
+   * {@code {"success":N,"failed":M,"errors":[{"datapoint":{...},"error":"..."}]}}. A body that is
+   * not in this format yields unknown counts and no errors.
+   */
+  private static class Details {
+
+    private int success = -1;
+    private int failed = -1;
+    private List<PointError> errors = Collections.emptyList();
+
+    @SuppressWarnings("unchecked")
+    static Details parse(String body) {
+      Details details = new Details();
+      if (body == null || body.isEmpty()) {
+        return details;
+      }
+      Object json;
+      try {
+        json = new JsonReader(body).read();
+      } catch (IllegalArgumentException e) {
+        return details;
+      }
+      if (!(json instanceof Map)) {
+        return details;
+      }
+      Map<String, Object> map = (Map<String, Object>) json;
+      details.success = toInt(map.get("success"));
+      details.failed = toInt(map.get("failed"));
+      Object errors = map.get("errors");
+      if (errors instanceof List) {
+        List<PointError> pointErrors = new ArrayList<>();
+        for (Object entry : (List<Object>) errors) {
+          if (entry instanceof Map) {
+            Map<String, Object> error = (Map<String, Object>) entry;
+            Object dataPoint = error.get("datapoint");
+            pointErrors.add(new PointError(dataPoint instanceof Map
+                ? (Map<String, Object>) dataPoint : Collections.emptyMap(),
+                String.valueOf(error.get("error"))));
+          }
+        }
+        details.errors = Collections.unmodifiableList(pointErrors);
+      }
+      return details;
+    }
+
+    private static int toInt(Object value) {
+      return value instanceof Number ? ((Number) value).intValue() : -1;
+    }
+  }
+
+  /**
+   * Minimal reader for the JSON of API responses, producing maps, lists, strings, numbers,
+   * booleans and nulls.
+   */
+  private static class JsonReader {
+
+    private final String json;
+    private int pos;
+
+    JsonReader(String json) {
+      this.json = json;
+    }
+
+    Object read() {
+      Object value = readValue();
+      skipWhitespace();
+      if (pos != json.length()) {
+        throw error();
+      }
+      return value;
+    }
+
+    private Object readValue() {
+      skipWhitespace();
+      if (pos >= json.length()) {
+        throw error();
+      }
+      char c = json.charAt(pos);
+      switch (c) {
+        case '{':
+          return readObject();
+        case '[':
+          return readArray();
+        case '"':
+          return readString();
+        case 't':
+          return readLiteral("true", Boolean.TRUE);
+        case 'f':
+          return readLiteral("false", Boolean.FALSE);
+        case 'n':
+          return readLiteral("null", null);
+        default:
+          return readNumber();
+      }
+    }
+
+    private Map<String, Object> readObject() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      pos++;
+      skipWhitespace();
+      if (peek() == '}') {
+        pos++;
+        return map;
+      }
+      while (true) {
+        skipWhitespace();
+        if (peek() != '"') {
+          throw error();
+        }
+        String key = readString();
+        skipWhitespace();
+        expect(':');
+        map.put(key, readValue());
+        skipWhitespace();
+        if (peek() == ',') {
+          pos++;
+        } else {
+          expect('}');
+          return map;
+        }
+      }
+    }
+
+    private List<Object> readArray() {
+      List<Object> list = new ArrayList<>();
+      pos++;
+      skipWhitespace();
+      if (peek() == ']') {
+        pos++;
+        return list;
+      }
+      while (true) {
+        list.add(readValue());
+        skipWhitespace();
+        if (peek() == ',') {
+          pos++;
+        } else {
+          expect(']');
+          return list;
+        }
+      }
+    }
+
+    private String readString() {
+      StringBuilder s = new StringBuilder();
+      pos++;
+      while (true) {
+        if (pos >= json.length()) {
+          throw error();
+        }
+        char c = json.charAt(pos++);
+        if (c == '"') {
+          return s.toString();
+        }
+        if (c != '\\') {
+          s.append(c);
+          continue;
+        }
+        if (pos >= json.length()) {
+          throw error();
+        }
+        char escaped = json.charAt(pos++);
+        switch (escaped) {
+          case 'b':
+            s.append('\b');
+            break;
+          case 'f':
+            s.append('\f');
+            break;
+          case 'n':
+            s.append('\n');
+            break;
+          case 'r':
+            s.append('\r');
+            break;
+          case 't':
+            s.append('\t');
+            break;
+          case 'u':
+            if (pos + 4 > json.length()) {
+              throw error();
+            }
+            try {
+              s.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error();
+            }
+            pos += 4;
+            break;
+          default:
+            s.append(escaped);
+            break;
+        }
+      }
+    }
+
+    private Number readNumber() {
+      int start = pos;
+      while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+        pos++;
+      }
+      String number = json.substring(start, pos);
+      try {
+        if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+          return Long.parseLong(number);
+        }
+        return Double.parseDouble(number);
+      } catch (NumberFormatException e) {
+        throw error();
+      }
+    }
+
+    private Object readLiteral(String literal, Object value) {
+      if (!json.startsWith(literal, pos)) {
+        throw error();
+      }
+      pos += literal.length();
+      return value;
+    }
+
+    private void expect(char c) {
+      if (peek() != c) {
+        throw error();
+      }
+      pos++;
+    }
+
+    private char peek() {
+      return pos < json.length() ? json.charAt(pos) : 0;
+    }
+
+    private void skipWhitespace() {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private IllegalArgumentException error() {
+      return new IllegalArgumentException("Malformed JSON at " + pos);
+    }
+  }
+}
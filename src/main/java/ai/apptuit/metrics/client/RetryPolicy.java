@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How {@link ApptuitPutClient} retries a batch that was throttled (429), failed on the server
+ * (5xx) or could not be sent at all. Retries wait for an exponentially growing, jittered backoff,
+ * or for as long as the server asked in its {@code Retry-After} header. A batch that still fails
+ * after the last attempt is spooled, if spooling is enabled.
+ */
+public final class RetryPolicy {
+
+  /**
+   * Sends every batch once, without retrying.
+   */
+  public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+
+  /**
+   * @param maxAttempts number of times a batch is sent, including the first attempt
+   * @param initialBackoffMillis backoff before the first retry, doubled for every further retry
+   * @param maxBackoffMillis longest time to wait before a retry. A {@code Retry-After} asking for
+   *     a longer wait ends the retries.
+   */
+  public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required");
+    }
+    if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+      throw new IllegalArgumentException("Invalid backoff range");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getInitialBackoffMillis() {
+    return initialBackoffMillis;
+  }
+
+  public long getMaxBackoffMillis() {
+    return maxBackoffMillis;
+  }
+
+  /**
+   * @param attempt number of attempts made so far
+   * @param retryAfterMillis wait requested by the server, or {@code -1} if none
+   * @return how long to wait before the next attempt, or {@code -1} to stop retrying
+   */
+  long getDelayMillis(int attempt, long retryAfterMillis) {
+    if (attempt >= maxAttempts) {
+      return -1;
+    }
+    if (retryAfterMillis >= 0) {
+      return retryAfterMillis <= maxBackoffMillis ? retryAfterMillis : -1;
+    }
+    long backoff = initialBackoffMillis;
+    for (int i = 1; i < attempt && backoff < maxBackoffMillis; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, maxBackoffMillis);
+    // Equal jitter: wait at least half the backoff, so that retries still back off
+    long half = backoff / 2;
+    return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+  }
+}
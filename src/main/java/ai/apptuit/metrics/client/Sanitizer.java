@@ -16,6 +16,9 @@
 
 package ai.apptuit.metrics.client;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public interface Sanitizer {
 
   Sanitizer PROMETHEUS_SANITIZER = new PrometheusSanitizer();
@@ -25,25 +28,113 @@ public interface Sanitizer {
 
   String sanitizer(String unSanitizedString);
 
+  /**
+   * Replaces characters other than {@code [a-zA-Z0-9_]} with an underscore, collapses runs of
+   * underscores and prefixes names starting with a digit with an underscore.
+   */
   class PrometheusSanitizer implements Sanitizer {
     private PrometheusSanitizer() {
     }
 
     public String sanitizer(String unSanitizedString) {
-      return ((Character.isDigit(unSanitizedString.charAt(0)) ? "_" : "")
-              + unSanitizedString).replaceAll("[^a-zA-Z0-9_]", "_")
-              .replaceAll("[_]+", "_");
+      int length = unSanitizedString.length();
+      boolean prefix = length > 0 && Character.isDigit(unSanitizedString.charAt(0));
+      if (!prefix && isSanitized(unSanitizedString)) {
+        return unSanitizedString;
+      }
+
+      StringBuilder sanitized = new StringBuilder(length + 1);
+      if (prefix) {
+        sanitized.append('_');
+      }
+      for (int i = 0; i < length; i++) {
+        char c = unSanitizedString.charAt(i);
+        appendCollapsingUnderscores(sanitized, isValid(c) ? c : '_');
+      }
+      return sanitized.toString();
+    }
+
+    private static boolean isSanitized(String name) {
+      char previous = 0;
+      for (int i = 0; i < name.length(); i++) {
+        char c = name.charAt(i);
+        if (!isValid(c) || (c == '_' && previous == '_')) {
+          return false;
+        }
+        previous = c;
+      }
+      return true;
+    }
+
+    private static boolean isValid(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+              || c == '_';
+    }
 
+    private static void appendCollapsingUnderscores(StringBuilder sanitized, char c) {
+      int last = sanitized.length() - 1;
+      if (c == '_' && last >= 0 && sanitized.charAt(last) == '_') {
+        return;
+      }
+      sanitized.append(c);
     }
   }
 
+  /**
+   * Replaces characters other than letters, digits and {@code -./_} with an underscore and
+   * collapses runs of underscores.
+   */
   class ApptuitSanitizer implements Sanitizer {
     private ApptuitSanitizer() {
     }
 
     public String sanitizer(String unSanitizedString) {
-      return unSanitizedString.replaceAll("[^\\p{L}\\-./_0-9]+", "_")
-              .replaceAll("[_]+", "_");
+      if (isSanitized(unSanitizedString)) {
+        return unSanitizedString;
+      }
+
+      int length = unSanitizedString.length();
+      StringBuilder sanitized = new StringBuilder(length);
+      for (int i = 0; i < length; ) {
+        int codePoint = unSanitizedString.codePointAt(i);
+        if (isValid(codePoint)) {
+          if (codePoint == '_') {
+            appendCollapsingUnderscores(sanitized, '_');
+          } else {
+            sanitized.appendCodePoint(codePoint);
+          }
+        } else {
+          appendCollapsingUnderscores(sanitized, '_');
+        }
+        i += Character.charCount(codePoint);
+      }
+      return sanitized.toString();
+    }
+
+    private static boolean isSanitized(String name) {
+      int previous = 0;
+      for (int i = 0; i < name.length(); ) {
+        int codePoint = name.codePointAt(i);
+        if (!isValid(codePoint) || (codePoint == '_' && previous == '_')) {
+          return false;
+        }
+        previous = codePoint;
+        i += Character.charCount(codePoint);
+      }
+      return true;
+    }
+
+    private static boolean isValid(int codePoint) {
+      return (codePoint >= '0' && codePoint <= '9') || codePoint == '-' || codePoint == '.'
+              || codePoint == '/' || codePoint == '_' || Character.isLetter(codePoint);
+    }
+
+    private static void appendCollapsingUnderscores(StringBuilder sanitized, char c) {
+      int last = sanitized.length() - 1;
+      if (c == '_' && last >= 0 && sanitized.charAt(last) == '_') {
+        return;
+      }
+      sanitized.append(c);
     }
   }
 
@@ -55,4 +146,39 @@ public interface Sanitizer {
       return unSanitizedString;
     }
   }
+
+  /**
+   * Memoizes the results of another sanitizer. The cache is emptied whenever it grows past
+   * {@code maxSize} entries, which bounds its footprint when names are unbounded.
+   */
+  class CachingSanitizer implements Sanitizer {
+
+    private final Sanitizer delegate;
+    private final int maxSize;
+    private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+
+    public CachingSanitizer(Sanitizer delegate, int maxSize) {
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("Cache size must be positive");
+      }
+      this.delegate = delegate;
+      this.maxSize = maxSize;
+    }
+
+    public String sanitizer(String unSanitizedString) {
+      String sanitized = cache.get(unSanitizedString);
+      if (sanitized == null) {
+        sanitized = delegate.sanitizer(unSanitizedString);
+        if (cache.size() >= maxSize) {
+          cache.clear();
+        }
+        cache.put(unSanitizedString, sanitized);
+      }
+      return sanitized;
+    }
+
+    int size() {
+      return cache.size();
+    }
+  }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes points as OpenTSDB telnet style {@code put} lines over a persistent TCP connection.
+ *
+ * <p>Lines are encoded straight into a large direct buffer, which is written out when it fills up
+ * or at the end of a batch. Writes wait while the receiver is not reading, which holds back the
+ * reporter instead of losing points the way a full UDP socket buffer does, but for no longer than
+ * the send timeout without progress: a receiver that stops reading is treated like a broken
+ * connection. When the connection breaks, the lines of the current batch that were not written
+ * are dropped and reconnects are attempted with an exponential backoff, dropping the batches
+ * reported in between.
+ */
+final class TcpLineWriter implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(TcpLineWriter.class.getName());
+
+  private static final byte[] PUT = "put ".getBytes(StandardCharsets.US_ASCII);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+  private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final SocketAddress address;
+  private final long initialBackoffMillis;
+  private final long sendTimeoutMillis;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong linesSent = new AtomicLong();
+  private final AtomicLong linesDropped = new AtomicLong();
+
+  private SocketChannel channel;
+  private Selector selector;
+  private int bufferedLines;
+  private long backoffMillis;
+  private long nextConnectMillis;
+
+  /**
+   * @param sendTimeoutMillis how long writing out a buffer may wait for the receiver to read
+   *     anything, after which the connection is considered broken
+   */
+  TcpLineWriter(SocketAddress address, long initialBackoffMillis, long sendTimeoutMillis) {
+    this.address = address;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.sendTimeoutMillis = sendTimeoutMillis;
+  }
+
+  synchronized void write(DataPointProducer producer, GlobalTagsFragment globalTags,
+                          Sanitizer sanitizer) {
+    connect();
+    producer.writeTo(dp -> append(dp, globalTags, sanitizer));
+    flush();
+  }
+
+  long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  long getLinesSent() {
+    return linesSent.get();
+  }
+
+  long getLinesDropped() {
+    return linesDropped.get();
+  }
+
+  @Override
+  public synchronized void close() {
+    flush();
+    disconnect();
+  }
+
+  private void connect() {
+    if (channel != null || System.currentTimeMillis() < nextConnectMillis) {
+      return;
+    }
+    SocketChannel newChannel = null;
+    Selector newSelector = null;
+    try {
+      newChannel = SocketChannel.open();
+      newChannel.socket().connect(address, CONNECT_TIMEOUT_MILLIS);
+      newChannel.configureBlocking(false);
+      newSelector = Selector.open();
+      newChannel.register(newSelector, SelectionKey.OP_WRITE);
+      channel = newChannel;
+      selector = newSelector;
+      backoffMillis = 0;
+      LOGGER.info("Connected to " + address);
+    } catch (IOException e) {
+      closeQuietly(newSelector);
+      closeQuietly(newChannel);
+      backOff(e);
+    }
+  }
+
+  private void append(DataPoint dataPoint, GlobalTagsFragment globalTags, Sanitizer sanitizer) {
+    if (channel == null) {
+      linesDropped.incrementAndGet();
+      return;
+    }
+    if (TextLineEncoder.write(buffer, PUT, dataPoint, globalTags, sanitizer)) {
+      bufferedLines++;
+      return;
+    }
+    flush();
+    if (channel == null) {
+      linesDropped.incrementAndGet();
+    } else if (TextLineEncoder.write(buffer, PUT, dataPoint, globalTags, sanitizer)) {
+      bufferedLines++;
+    } else {
+      writeOut(TextLineEncoder.render(PUT, dataPoint, globalTags, sanitizer), 1);
+    }
+  }
+
+  private void flush() {
+    if (buffer.position() > 0) {
+      buffer.flip();
+      writeOut(buffer, bufferedLines);
+    }
+    buffer.clear();
+    bufferedLines = 0;
+  }
+
+  private void writeOut(ByteBuffer data, int lines) {
+    if (channel == null) {
+      linesDropped.addAndGet(lines);
+      return;
+    }
+    int length = data.remaining();
+    try {
+      send(data);
+      bytesSent.addAndGet(length);
+      linesSent.addAndGet(lines);
+    } catch (SocketTimeoutException e) {
+      linesDropped.addAndGet(lines);
+      disconnect();
+      // The receiver accepts connections but does not read, reconnecting soon would stall again
+      backoffMillis = MAX_BACKOFF_MILLIS;
+      backOff(e);
+    } catch (IOException e) {
+      linesDropped.addAndGet(lines);
+      disconnect();
+      backOff(e);
+    }
+  }
+
+  /**
+   * Writes all of {@code data}, waiting for the receiver to make room for at most the send
+   * timeout at a time: the timeout starts over whenever some of the data is written.
+   */
+  private void send(ByteBuffer data) throws IOException {
+    long deadline = System.currentTimeMillis() + sendTimeoutMillis;
+    while (data.hasRemaining()) {
+      if (channel.write(data) > 0) {
+        deadline = System.currentTimeMillis() + sendTimeoutMillis;
+        continue;
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new SocketTimeoutException("No progress writing for " + sendTimeoutMillis + "ms");
+      }
+      selector.select(remaining);
+      selector.selectedKeys().clear();
+    }
+  }
+
+  private void backOff(IOException cause) {
+    backoffMillis = backoffMillis == 0 ? initialBackoffMillis
+        : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+    nextConnectMillis = System.currentTimeMillis() + backoffMillis;
+    LOGGER.log(Level.SEVERE, "Error writing to " + address + ", retrying in "
+        + backoffMillis + "ms", cause);
+  }
+
+  private void disconnect() {
+    closeQuietly(selector);
+    closeQuietly(channel);
+    selector = null;
+    channel = null;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Error closing socket", e);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Encodes {@link DataPoint}s as UTF-8 text lines, {@code metric timestamp value tag=value...},
+ * straight into a (typically direct and pooled) {@link ByteBuffer}. Numbers are formatted the way
+ * {@link DataPointsJsonEncoder} formats them, without intermediate Strings, and the global tags
+ * are appended as a pre-encoded {@link GlobalTagsFragment}.
+ */
+final class TextLineEncoder {
+
+  private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+  private static final int INITIAL_LINE_SIZE = 512;
+
+  private TextLineEncoder() {
+  }
+
+  /**
+   * Appends {@code prefix} and the line of the point to {@code target}.
+   *
+   * @return {@code false}, leaving {@code target} as it was, if the line does not fit in the
+   *     remaining space
+   */
+  static boolean write(ByteBuffer target, byte[] prefix, DataPoint dataPoint,
+                       GlobalTagsFragment globalTags, Sanitizer sanitizer) {
+    int start = target.position();
+    try {
+      target.put(prefix);
+      writeLine(target, dataPoint, globalTags, sanitizer);
+      return true;
+    } catch (BufferOverflowException e) {
+      target.position(start);
+      return false;
+    }
+  }
+
+  /**
+   * Encodes a line that does not fit in the regular buffers into a new buffer of its own.
+   *
+   * @return the buffer, flipped for reading
+   */
+  static ByteBuffer render(byte[] prefix, DataPoint dataPoint, GlobalTagsFragment globalTags,
+                           Sanitizer sanitizer) {
+    for (int size = INITIAL_LINE_SIZE; ; size *= 2) {
+      ByteBuffer line = ByteBuffer.allocate(size);
+      if (write(line, prefix, dataPoint, globalTags, sanitizer)) {
+        line.flip();
+        return line;
+      }
+    }
+  }
+
+  private static void writeLine(ByteBuffer target, DataPoint dataPoint,
+                                GlobalTagsFragment globalTags, Sanitizer sanitizer) {
+    writeUtf8(target, sanitizer.sanitizer(dataPoint.getMetric()));
+    target.put((byte) ' ');
+    writeLong(target, dataPoint.getTimestamp());
+    target.put((byte) ' ');
+    writeNumber(target, dataPoint.getValue());
+    for (Map.Entry<String, String> tag : dataPoint.getTags().entrySet()) {
+      if (!globalTags.overrides(tag.getKey())) {
+        target.put((byte) ' ');
+        writeUtf8(target, sanitizer.sanitizer(tag.getKey()));
+        target.put((byte) '=');
+        writeUtf8(target, tag.getValue());
+      }
+    }
+    target.put(globalTags.getText());
+    target.put((byte) '\n');
+  }
+
+  private static void writeNumber(ByteBuffer target, Number value) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      writeLong(target, value.longValue());
+    } else if (value instanceof Double) {
+      writeDouble(target, value.doubleValue(), false);
+    } else if (value instanceof Float) {
+      writeDouble(target, value.floatValue(), true);
+    } else {
+      writeUtf8(target, String.valueOf(value));
+    }
+  }
+
+  private static void writeLong(ByteBuffer target, long value) {
+    if (value == Long.MIN_VALUE) {
+      writeUtf8(target, Long.toString(value));
+      return;
+    }
+    if (value < 0) {
+      target.put((byte) '-');
+      value = -value;
+    }
+    writeDigits(target, value, DataPointsJsonEncoder.stringSize(value));
+  }
+
+  /**
+   * @see DataPointsJsonEncoder#writeDouble(double, boolean)
+   */
+  private static void writeDouble(ByteBuffer target, double value, boolean floatPrecision) {
+    double magnitude = Math.abs(value);
+    int fractionDigits = Double.isNaN(value) || Double.isInfinite(value) ? -1
+        : DataPointsJsonEncoder.fractionDigits(magnitude, floatPrecision);
+    if (fractionDigits < 0) {
+      writeUtf8(target, floatPrecision ? Float.toString((float) value) : Double.toString(value));
+      return;
+    }
+    if (Double.doubleToRawLongBits(value) < 0) {
+      target.put((byte) '-');
+    }
+    long unscaled = DataPointsJsonEncoder.unscaled(magnitude, fractionDigits);
+    long divisor = DataPointsJsonEncoder.powerOfTen(fractionDigits);
+    writeLong(target, unscaled / divisor);
+    target.put((byte) '.');
+    if (fractionDigits == 0) {
+      target.put((byte) '0');
+    } else {
+      writeDigits(target, unscaled % divisor, fractionDigits);
+    }
+  }
+
+  /**
+   * Writes the last {@code count} decimal digits of the non negative {@code value}, zero padded.
+   */
+  private static void writeDigits(ByteBuffer target, long value, int count) {
+    int end = target.position() + count;
+    if (end > target.limit()) {
+      throw new BufferOverflowException();
+    }
+    for (int index = end - 1; index >= end - count; index--) {
+      target.put(index, DIGITS[(int) (value % 10)]);
+      value /= 10;
+    }
+    target.position(end);
+  }
+
+  private static void writeUtf8(ByteBuffer target, String value) {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        target.put((byte) c);
+      } else if (c < 0x800) {
+        target.put((byte) (0xC0 | (c >> 6)));
+        target.put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        target.put((byte) (0xF0 | (codePoint >> 18)));
+        target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        target.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        //Unpaired surrogate, replaced the same way String.getBytes() does
+        target.put((byte) '?');
+      } else {
+        target.put((byte) (0xE0 | (c >> 12)));
+        target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        target.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+}
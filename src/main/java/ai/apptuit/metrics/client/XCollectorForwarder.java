@@ -16,43 +16,83 @@
 
 package ai.apptuit.metrics.client;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * @author Rajiv Shivane
  */
-public class XCollectorForwarder {
+public class XCollectorForwarder implements Closeable {
 
   private static final Logger LOGGER = Logger.getLogger(XCollectorForwarder.class.getName());
 
   private static final String DEFAULT_HOST = "127.0.0.1";
   private static final int DEFAULT_PORT = 8953;
+  private static final int DEFAULT_TCP_PORT = 4242;
+  private static final long TCP_INITIAL_BACKOFF_MILLIS = 100;
+  private static final long TCP_SEND_TIMEOUT_MILLIS = 10000;
 
   private static final int KB = 1024;
   private static final int PACKET_SIZE = 8 * KB;
-  private static final int BUFFER_SIZE = 16 * KB;
+  private static final byte[] NO_PREFIX = new byte[0];
 
   private final Map<String, String> globalTags;
   private final SocketAddress xcollectorAddress;
-  private DatagramSocket socket = null;
+  private final TcpLineWriter tcpWriter;
+  private final Queue<PacketBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong linesSent = new AtomicLong();
+  private final AtomicLong linesDropped = new AtomicLong();
+  private volatile DatagramChannel channel = null;
+  private GlobalTagsFragment globalTagsFragment;
 
   public XCollectorForwarder(Map<String, String> globalTags) {
-    this(globalTags, new InetSocketAddress(DEFAULT_HOST, DEFAULT_PORT));
+    this(globalTags, Transport.UDP);
+  }
+
+  /**
+   * @param transport whether to send to the local XCollector over UDP (port 8953) or as
+   *     {@code put} lines over TCP (port 4242)
+   */
+  public XCollectorForwarder(Map<String, String> globalTags, Transport transport) {
+    this(globalTags, transport, transport == Transport.TCP ? DEFAULT_TCP_PORT : DEFAULT_PORT);
+  }
+
+  /**
+   * @param transport whether to send to the local XCollector over UDP or as {@code put} lines
+   *     over TCP
+   * @param port local port the XCollector listens on for the transport
+   */
+  public XCollectorForwarder(Map<String, String> globalTags, Transport transport, int port) {
+    this(globalTags, new InetSocketAddress(DEFAULT_HOST, port), transport);
   }
 
   XCollectorForwarder(Map<String, String> globalTags, SocketAddress xcollectorAddress) {
+    this(globalTags, xcollectorAddress, Transport.UDP);
+  }
+
+  XCollectorForwarder(Map<String, String> globalTags, SocketAddress xcollectorAddress,
+                      Transport transport) {
+    this(globalTags, xcollectorAddress, transport, TCP_SEND_TIMEOUT_MILLIS);
+  }
+
+  XCollectorForwarder(Map<String, String> globalTags, SocketAddress xcollectorAddress,
+                      Transport transport, long tcpSendTimeoutMillis) {
     this.globalTags = globalTags;
     this.xcollectorAddress = xcollectorAddress;
+    this.tcpWriter = transport == Transport.TCP ? new TcpLineWriter(xcollectorAddress,
+        TCP_INITIAL_BACKOFF_MILLIS, tcpSendTimeoutMillis) : null;
   }
 
   public void forward(Collection<DataPoint> dataPoints) {
@@ -60,50 +100,149 @@ public class XCollectorForwarder {
   }
 
   public void forward(Collection<DataPoint> dataPoints, Sanitizer sanitizer) {
+    forward(dataPoints::forEach, sanitizer);
+  }
 
-    if (socket == null) {
-      try {
-        socket = new DatagramSocket();
-      } catch (SocketException e) {
-        LOGGER.log(Level.SEVERE, "Error creating UDP socket", e);
-        return;
-      }
+  /**
+   * Forwards the points generated by {@code producer}, sending each packet as soon as it fills
+   * up, so the batch is never held in memory as a whole.
+   */
+  public void forward(DataPointProducer producer, Sanitizer sanitizer) {
+    GlobalTagsFragment fragment = GlobalTagsFragment.of(globalTagsFragment, globalTags, sanitizer);
+    globalTagsFragment = fragment;
+
+    if (tcpWriter != null) {
+      tcpWriter.write(producer, fragment, sanitizer);
+      return;
+    }
+
+    DatagramChannel channel = getChannel();
+    if (channel == null) {
+      return;
+    }
+
+    PacketBuffer buffer = bufferPool.poll();
+    if (buffer == null) {
+      buffer = new PacketBuffer();
+    }
+    try {
+      PacketBuffer packetBuffer = buffer;
+      producer.writeTo(dp -> packetBuffer.append(channel, dp, fragment, sanitizer));
+      buffer.flush(channel);
+    } finally {
+      buffer.packet.clear();
+      buffer.packetLines = 0;
+      bufferPool.offer(buffer);
     }
+  }
+
+  /**
+   * @return number of bytes handed over to the network
+   */
+  public long getBytesSent() {
+    return tcpWriter != null ? tcpWriter.getBytesSent() : bytesSent.get();
+  }
 
-    ByteArrayOutputStream baos = new ByteArrayOutputStream(BUFFER_SIZE);
-
-    int idx = 0;
-    for (DataPoint dp : dataPoints) {
-      dp.toTextLine(baos, globalTags, sanitizer);
-      int size = baos.size();
-      if (size >= PACKET_SIZE) {
-        sendPacket(baos, idx);
-        idx = baos.size();
-      } else {
-        idx = size;
+  /**
+   * @return number of points handed over to the network
+   */
+  public long getLinesSent() {
+    return tcpWriter != null ? tcpWriter.getLinesSent() : linesSent.get();
+  }
+
+  /**
+   * @return number of points dropped because they could not be sent
+   */
+  public long getLinesDropped() {
+    return tcpWriter != null ? tcpWriter.getLinesDropped() : linesDropped.get();
+  }
+
+  @Override
+  public void close() {
+    if (tcpWriter != null) {
+      tcpWriter.close();
+    }
+    DatagramChannel channel = this.channel;
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Error closing UDP socket", e);
       }
     }
-    sendPacket(baos, idx);
   }
 
-  private void sendPacket(ByteArrayOutputStream outputStream, int idx) {
-    if (idx <= 0) {
-      return;
+  private DatagramChannel getChannel() {
+    DatagramChannel channel = this.channel;
+    if (channel == null) {
+      synchronized (this) {
+        channel = this.channel;
+        if (channel == null) {
+          try {
+            channel = DatagramChannel.open();
+          } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error creating UDP socket", e);
+            return null;
+          }
+          this.channel = channel;
+        }
+      }
     }
+    return channel;
+  }
 
-    int size = outputStream.size();
-    byte[] bytes = outputStream.toByteArray();
-    DatagramPacket packet = new DatagramPacket(bytes, 0, idx, xcollectorAddress);
+  private void send(DatagramChannel channel, ByteBuffer packet, int lines) {
+    int size = packet.remaining();
     try {
-      socket.send(packet);
-      LOGGER.info(" Forwarded [" + idx + "] bytes.");
+      channel.send(packet, xcollectorAddress);
+      bytesSent.addAndGet(size);
+      linesSent.addAndGet(lines);
+      LOGGER.info(" Forwarded [" + size + "] bytes.");
     } catch (IOException e) {
+      linesDropped.addAndGet(lines);
       LOGGER.log(Level.SEVERE, "Error sending packet", e);
     }
-    outputStream.reset();
-    int newSize = size - idx;
-    if (newSize > 0) {
-      outputStream.write(bytes, idx, newSize);
+  }
+
+  /**
+   * How points are sent to XCollector.
+   */
+  public enum Transport {
+    UDP, TCP
+  }
+
+  /**
+   * Reusable packet of one {@link #forward} call: lines are encoded straight into the direct
+   * {@code packet} buffer, which is sent whenever the next line would not fit. Packets are always
+   * cut at line boundaries.
+   */
+  private final class PacketBuffer {
+
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(PACKET_SIZE);
+    private int packetLines;
+
+    private void append(DatagramChannel channel, DataPoint dataPoint,
+                        GlobalTagsFragment globalTags, Sanitizer sanitizer) {
+      if (TextLineEncoder.write(packet, NO_PREFIX, dataPoint, globalTags, sanitizer)) {
+        packetLines++;
+        return;
+      }
+      flush(channel);
+      if (TextLineEncoder.write(packet, NO_PREFIX, dataPoint, globalTags, sanitizer)) {
+        packetLines++;
+        return;
+      }
+      send(channel, TextLineEncoder.render(NO_PREFIX, dataPoint, globalTags, sanitizer), 1);
+    }
+
+    private void flush(DatagramChannel channel) {
+      if (packet.position() == 0) {
+        return;
+      }
+      packet.flip();
+      send(channel, packet, packetLines);
+      packet.clear();
+      packetLines = 0;
     }
   }
 }
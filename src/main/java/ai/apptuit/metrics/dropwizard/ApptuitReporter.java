@@ -18,6 +18,9 @@ package ai.apptuit.metrics.dropwizard;
 
 import ai.apptuit.metrics.client.ApptuitPutClient;
 import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.client.DataPointProducer;
+import ai.apptuit.metrics.client.PayloadCodecs;
+import ai.apptuit.metrics.client.PutResult;
 import ai.apptuit.metrics.client.Sanitizer;
 import ai.apptuit.metrics.client.XCollectorForwarder;
 import com.codahale.metrics.Timer;
@@ -27,22 +30,31 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,28 +67,84 @@ public class ApptuitReporter extends ScheduledReporter {
   private static final boolean DEBUG = false;
   private static final ReportingMode DEFAULT_REPORTING_MODE = ReportingMode.API_PUT;
   private static final String REPORTER_NAME = "apptuit-reporter";
-  private static final String QUANTILE_TAG_NAME = "quantile";
-  private static final String WINDOW_TAG_NAME = "window";
-  private static final String RATE_SUBMETRIC = "rate";
+
+  /**
+   * Relative cost of collecting a gauge, counter, histogram, meter and timer, roughly the number
+   * of points each is reported as. Used to balance the partitions of parallel collection.
+   */
+  private static final int[] COLLECTION_WEIGHTS = {1, 1, 11, 4, 14};
 
   private final Timer buildReportTimer;
   private final Timer sendReportTimer;
   private final Counter metricsSentCounter;
   private final Counter pointsSentCounter;
+  private final Counter metricsSuppressedCounter;
   private final DataPointsReporter dataPointsReporter;
-  private final Map<TagEncodedMetricName, Long> lastReportedCount = new HashMap<>();
+  private final DataPointsStreamer streamer;
+  private final AsyncDataPointsReporter asyncReporter;
+  private final PipelinedDataPointsReporter pipeline;
+  private final ApptuitPutClient putClient;
+  private final XCollectorForwarder xcollectorForwarder;
+  private final LastCountTable lastReportedCount;
+  private final boolean suppressUnchanged;
+  private final long heartbeatSeconds;
   private final ReportingMode reportingMode;
+  private final MetricRegistry registry;
+  private final MetricNameCache nameCache;
+  private final CachingMetricFilter filterCache;
+  private final int collectionParallelism;
+  private final ExecutorService collectionExecutor;
+  private final boolean ownsCollectionExecutor;
 
   protected ApptuitReporter(MetricRegistry registry, MetricFilter filter, TimeUnit rateUnit,
                             TimeUnit durationUnit, Map<String, String> globalTags,
                             String key, URL apiUrl,
                             ReportingMode reportingMode, Sanitizer sanitizer) {
+    this(registry, filter, rateUnit, durationUnit, globalTags, key, apiUrl, reportingMode,
+            sanitizer, new ReporterOptions());
+  }
+
+  ApptuitReporter(MetricRegistry registry, MetricFilter filter, TimeUnit rateUnit,
+                  TimeUnit durationUnit, Map<String, String> globalTags,
+                  String key, URL apiUrl,
+                  ReportingMode reportingMode, Sanitizer sanitizer, ReporterOptions options) {
     super(registry, REPORTER_NAME, filter, rateUnit, durationUnit);
 
     this.buildReportTimer = registry.timer("apptuit.reporter.report.build");
     this.sendReportTimer = registry.timer("apptuit.reporter.report.send");
     this.metricsSentCounter = registry.counter("apptuit.reporter.metrics.sent.count");
     this.pointsSentCounter = registry.counter("apptuit.reporter.points.sent.count");
+    this.metricsSuppressedCounter = registry.counter("apptuit.reporter.metrics.suppressed.count");
+    this.registry = registry;
+    this.suppressUnchanged = options.suppressUnchanged;
+    this.heartbeatSeconds = options.heartbeatSeconds;
+    this.lastReportedCount = new LastCountTable(trackedMetrics(registry.getGauges().size(),
+            registry.getCounters().size(), registry.getHistograms().size()
+                    + registry.getMeters().size() + registry.getTimers().size()));
+    this.nameCache = new MetricNameCache(options.nameCacheSize,
+            registry.counter("apptuit.reporter.name.cache.hits"),
+            registry.counter("apptuit.reporter.name.cache.misses"),
+            lastReportedCount::remove, name -> registry.getMetrics().containsKey(name));
+    registry.addListener(nameCache);
+    this.filterCache = filter instanceof CachingMetricFilter ? (CachingMetricFilter) filter : null;
+    if (filterCache != null) {
+      registry.addListener(filterCache);
+    }
+
+    int parallelism = options.collectionParallelism;
+    if (parallelism > 1 && options.sendMode == SendMode.STREAMING) {
+      // Partitions would have to be buffered whole, undoing what streaming saves
+      LOGGER.warning("Collection parallelism " + parallelism
+              + " is ignored in STREAMING send mode, metrics are collected sequentially");
+      parallelism = 1;
+    }
+    this.collectionParallelism = parallelism;
+    this.ownsCollectionExecutor = parallelism > 1 && options.collectionExecutor == null;
+    if (ownsCollectionExecutor) {
+      this.collectionExecutor = new ForkJoinPool(parallelism);
+    } else {
+      this.collectionExecutor = parallelism > 1 ? options.collectionExecutor : null;
+    }
 
 
     if (reportingMode == null) {
@@ -85,26 +153,135 @@ public class ApptuitReporter extends ScheduledReporter {
       this.reportingMode = reportingMode;
     }
 
+    ApptuitPutClient client = null;
+    XCollectorForwarder xcollector = null;
+    DataPointsReporter sink;
+    DataPointsStreamer streamSink;
     switch (this.reportingMode) {
       case NO_OP:
-        this.dataPointsReporter = dataPoints -> {
+        sink = dataPoints -> {
         };
+        streamSink = producer -> producer.writeTo(dp -> {
+        });
         break;
       case SYS_OUT:
-        this.dataPointsReporter = dataPoints -> {
+        sink = dataPoints -> {
           dataPoints.forEach(dp -> dp.toTextLine(System.out, globalTags, sanitizer));
         };
+        streamSink = producer -> producer.writeTo(
+                dp -> dp.toTextLine(System.out, globalTags, sanitizer));
         break;
       case XCOLLECTOR:
-        XCollectorForwarder forwarder = new XCollectorForwarder(globalTags);
-        this.dataPointsReporter = dataPoints -> forwarder.forward(dataPoints, sanitizer);
+        XCollectorForwarder forwarder = options.xcollectorPort > 0
+                ? new XCollectorForwarder(globalTags, options.xcollectorTransport,
+                        options.xcollectorPort)
+                : new XCollectorForwarder(globalTags, options.xcollectorTransport);
+        sink = dataPoints -> forwarder.forward(dataPoints, sanitizer);
+        streamSink = producer -> forwarder.forward(producer, sanitizer);
+        registerGauge(registry, "apptuit.reporter.xcollector.bytes.sent",
+                forwarder::getBytesSent);
+        registerGauge(registry, "apptuit.reporter.xcollector.lines.sent",
+                forwarder::getLinesSent);
+        registerGauge(registry, "apptuit.reporter.xcollector.lines.dropped",
+                forwarder::getLinesDropped);
+        xcollector = forwarder;
         break;
       case API_PUT:
       default:
         ApptuitPutClient putClient = new ApptuitPutClient(key, globalTags, apiUrl);
-        this.dataPointsReporter = dataPoints -> putClient.put(dataPoints, sanitizer);
+        putClient.setRetryPolicy(options.retryPolicy);
+        if (options.maxBatchPoints != Integer.MAX_VALUE) {
+          putClient.setMaxBatchPoints(options.maxBatchPoints);
+        }
+        if (options.maxBatchBytes != Long.MAX_VALUE) {
+          putClient.setMaxBatchBytes(options.maxBatchBytes);
+        }
+        putClient.setUploadParallelism(options.uploadParallelism);
+        putClient.setPayloadFormat(options.payloadFormat);
+        putClient.setPayloadCodec(PayloadCodecs.forName(options.payloadCodec,
+                options.compressionLevel, options.adaptiveCompression));
+        Histogram requestLatency = registry.histogram("apptuit.reporter.put.request.millis");
+        sink = dataPoints -> recordLatency(putClient.send(dataPoints, sanitizer), requestLatency);
+        streamSink = producer -> recordLatency(putClient.send(producer, sanitizer),
+                requestLatency);
+        registerGauge(registry, "apptuit.reporter.connections.created",
+                putClient::getConnectionsCreated);
+        registerGauge(registry, "apptuit.reporter.connections.reused",
+                putClient::getConnectionsReused);
+        registerGauge(registry, "apptuit.reporter.connections.evicted",
+                putClient::getConnectionsEvicted);
+        registerGauge(registry, "apptuit.reporter.put.retries", putClient::getRetries);
+        registerGauge(registry, "apptuit.reporter.compression.level",
+                putClient::getCompressionLevel);
+        if (options.spoolDirectory != null) {
+          enableSpool(registry, putClient, options);
+        }
+        client = putClient;
         break;
     }
+    this.putClient = client;
+    this.xcollectorForwarder = xcollector;
+
+    DataPointsReporter timedSink = dataPoints -> {
+      Timer.Context context = sendReportTimer.time();
+      try {
+        sink.put(dataPoints);
+      } finally {
+        context.stop();
+      }
+    };
+    this.streamer = options.sendMode == SendMode.STREAMING ? streamSink : null;
+    if (options.sendMode == SendMode.ASYNC) {
+      this.asyncReporter = new AsyncDataPointsReporter(timedSink, options.sendQueueCapacity,
+              options.overflowPolicy, options.overflowTimeoutMillis, options.senderThreads,
+              registry.counter("apptuit.reporter.batches.dropped.count"),
+              registry.counter("apptuit.reporter.points.dropped.count"));
+      registerGauge(registry, "apptuit.reporter.send.queue.depth",
+              asyncReporter::getQueueDepth);
+      this.dataPointsReporter = asyncReporter;
+      this.pipeline = null;
+    } else if (options.sendMode == SendMode.PIPELINED) {
+      this.asyncReporter = null;
+      this.pipeline = new PipelinedDataPointsReporter(timedSink);
+      this.dataPointsReporter = pipeline;
+    } else {
+      this.asyncReporter = null;
+      this.pipeline = null;
+      this.dataPointsReporter = timedSink;
+    }
+  }
+
+  private static void enableSpool(MetricRegistry registry, ApptuitPutClient putClient,
+                                  ReporterOptions options) {
+    try {
+      putClient.enableSpool(new File(options.spoolDirectory), options.spoolMaxBytes);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Could not open spool directory " + options.spoolDirectory, e);
+      return;
+    }
+    registerGauge(registry, "apptuit.reporter.spool.pending", putClient::getSpooledBatches);
+    registerGauge(registry, "apptuit.reporter.spool.evicted", putClient::getSpoolEvictedBatches);
+  }
+
+  /**
+   * Records how long each request took, for every shard if the report was split.
+   */
+  private static void recordLatency(PutResult result, Histogram requestLatency) {
+    if (result == null) {
+      return;
+    }
+    if (result.getShards().isEmpty()) {
+      requestLatency.update(result.getDurationMillis());
+    } else {
+      for (PutResult shard : result.getShards()) {
+        requestLatency.update(shard.getDurationMillis());
+      }
+    }
+  }
+
+  private static <T> void registerGauge(MetricRegistry registry, String name, Gauge<T> gauge) {
+    registry.remove(name);
+    registry.register(name, gauge);
   }
 
   @Override
@@ -112,28 +289,18 @@ public class ApptuitReporter extends ScheduledReporter {
                      SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
                      SortedMap<String, Timer> timers) {
 
-    DataPointCollector collector = new DataPointCollector(System.currentTimeMillis() / 1000);
+    long epoch = System.currentTimeMillis() / 1000;
+    if (streamer != null) {
+      streamReport(epoch, gauges, counters, histograms, meters, timers);
+      return;
+    }
+
+    List<DataPoint> dataPoints = pipeline != null ? pipeline.nextBuffer() : new LinkedList<>();
     try {
       buildReportTimer.time(new Callable<Object>() {
         @Override
         public Object call() {
-          debug("################");
-
-          debug(">>>>>>>> Guages <<<<<<<<<");
-          gauges.forEach(collector::collectGauge);
-          debug(">>>>>>>> Counters <<<<<<<<<");
-          counters.forEach(collector::collectCounter);
-          debug(">>>>>>>> Histograms <<<<<<<<<");
-          histograms.forEach(collector::collectHistogram);
-          debug(">>>>>>>> Meters <<<<<<<<<");
-          meters.forEach(collector::collectMeter);
-          debug(">>>>>>>> Timers <<<<<<<<<");
-          timers.forEach(collector::collectTimer);
-
-          debug("################");
-          int numMetrics = gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size();
-          metricsSentCounter.inc(numMetrics);
-          pointsSentCounter.inc(collector.dataPoints.size());
+          collect(epoch, dataPoints::add, gauges, counters, histograms, meters, timers);
           return null;
         }
       });
@@ -142,21 +309,156 @@ public class ApptuitReporter extends ScheduledReporter {
     }
 
     try {
-      sendReportTimer.time(new Callable<Object>() {
-        @Override
-        public Object call() {
-          Collection<DataPoint> dataPoints = collector.dataPoints;
-          dataPointsReporter.put(dataPoints);
-          //dataPoints.forEach(System.out::println);
-          return null;
-        }
-      });
+      dataPointsReporter.put(dataPoints);
     } catch (Exception | Error e) {
       LOGGER.log(Level.SEVERE, "Error reporting metrics.", e);
     }
 
   }
 
+  /**
+   * Walks the metrics while the points are being sent, handing every point to the client as soon
+   * as it is created. Building and sending overlap, so the whole cycle is timed as a send.
+   */
+  private void streamReport(long epoch, SortedMap<String, Gauge> gauges,
+                            SortedMap<String, Counter> counters,
+                            SortedMap<String, Histogram> histograms,
+                            SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    Timer.Context context = sendReportTimer.time();
+    try {
+      streamer.stream(writer -> collect(epoch, writer,
+              gauges, counters, histograms, meters, timers));
+    } catch (Exception | Error e) {
+      LOGGER.log(Level.SEVERE, "Error reporting metrics.", e);
+    } finally {
+      context.stop();
+    }
+  }
+
+  private void collect(long epoch, Consumer<DataPoint> sink, SortedMap<String, Gauge> gauges,
+                       SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms,
+                       SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    debug("################");
+    int numMetrics = gauges.size() + counters.size() + histograms.size() + meters.size()
+            + timers.size();
+    lastReportedCount.ensureCapacity(trackedMetrics(gauges.size(), counters.size(),
+            histograms.size() + meters.size() + timers.size()));
+    int numPoints;
+    if (collectionExecutor != null && numMetrics > 1) {
+      numPoints = collectInParallel(epoch, sink, gauges, counters, histograms, meters, timers);
+    } else {
+      DataPointCollector collector = new DataPointCollector(epoch, sink);
+      debug(">>>>>>>> Guages <<<<<<<<<");
+      gauges.forEach(collector::collectGauge);
+      debug(">>>>>>>> Counters <<<<<<<<<");
+      counters.forEach(collector::collectCounter);
+      debug(">>>>>>>> Histograms <<<<<<<<<");
+      histograms.forEach(collector::collectHistogram);
+      debug(">>>>>>>> Meters <<<<<<<<<");
+      meters.forEach(collector::collectMeter);
+      debug(">>>>>>>> Timers <<<<<<<<<");
+      timers.forEach(collector::collectTimer);
+      numPoints = collector.pointCount;
+    }
+
+    debug("################");
+    metricsSentCounter.inc(numMetrics);
+    pointsSentCounter.inc(numPoints);
+  }
+
+  /**
+   * Splits the metrics, in the same order as sequential collection, into contiguous partitions of
+   * about equal cost and collects them on {@link #collectionExecutor}. Each partition buffers its
+   * points; the buffers are passed on to {@code sink} in partition order, so the report is the
+   * same as a sequential one.
+   *
+   * @return number of points collected
+   */
+  private int collectInParallel(long epoch, Consumer<DataPoint> sink,
+                                SortedMap<String, Gauge> gauges,
+                                SortedMap<String, Counter> counters,
+                                SortedMap<String, Histogram> histograms,
+                                SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    MetricsSnapshot metrics = new MetricsSnapshot(gauges, counters, histograms, meters, timers);
+    int partitions = Math.min(collectionParallelism, metrics.size());
+    long weightPerPartition = metrics.totalWeight / partitions + 1;
+
+    List<Future<List<DataPoint>>> results = new ArrayList<>(partitions);
+    int from = 0;
+    long weight = 0;
+    for (int i = 0; i < metrics.size(); i++) {
+      weight += metrics.weight(i);
+      if (weight >= weightPerPartition || i == metrics.size() - 1) {
+        int start = from;
+        int end = i + 1;
+        results.add(collectionExecutor.submit(() -> metrics.collect(epoch, start, end)));
+        from = end;
+        weight = 0;
+      }
+    }
+
+    int numPoints = 0;
+    for (Future<List<DataPoint>> result : results) {
+      List<DataPoint> dataPoints = getPartition(result);
+      dataPoints.forEach(sink);
+      numPoints += dataPoints.size();
+    }
+    return numPoints;
+  }
+
+  /**
+   * @return number of metrics whose last value is tracked across reports
+   */
+  private int trackedMetrics(int gauges, int counters, int countingMetrics) {
+    return suppressUnchanged ? gauges + counters + countingMetrics : countingMetrics;
+  }
+
+  private static List<DataPoint> getPartition(Future<List<DataPoint>> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while collecting metrics", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  @Override
+  public void stop() {
+    try {
+      super.stop();
+    } finally {
+      registry.removeListener(nameCache);
+      if (filterCache != null) {
+        registry.removeListener(filterCache);
+      }
+      if (asyncReporter != null) {
+        asyncReporter.close();
+      }
+      if (pipeline != null) {
+        pipeline.close();
+      }
+      if (putClient != null) {
+        putClient.close();
+      }
+      if (xcollectorForwarder != null) {
+        xcollectorForwarder.close();
+      }
+      if (ownsCollectionExecutor) {
+        collectionExecutor.shutdown();
+      }
+    }
+  }
+
   private void debug(Object s) {
     if (DEBUG) {
       System.out.println(s);
@@ -167,91 +469,235 @@ public class ApptuitReporter extends ScheduledReporter {
     NO_OP, SYS_OUT, XCOLLECTOR, API_PUT
   }
 
+  /**
+   * Whether reports are sent on the reporter thread ({@code SYNC}), handed over to a bounded
+   * queue drained by dedicated sender threads ({@code ASYNC}), or sent on the reporter thread
+   * while the metrics are being read, without holding the report in memory ({@code STREAMING}).
+   * {@code PIPELINED} sends each report on a background thread while the next one is built,
+   * alternating between two reused buffers.
+   */
+  public enum SendMode {
+    SYNC, ASYNC, STREAMING, PIPELINED
+  }
+
+  /**
+   * What to do with a report when the {@link SendMode#ASYNC} send queue is full: discard the
+   * oldest queued report, discard the new report, or wait for room for a bounded time and discard
+   * the new report if none frees up.
+   */
+  public enum OverflowPolicy {
+    DROP_OLDEST, DROP_NEWEST, BLOCK
+  }
+
   public interface DataPointsReporter {
 
     void put(Collection<DataPoint> dataPoints);
   }
 
+  interface DataPointsStreamer {
+
+    void stream(DataPointProducer producer);
+  }
+
+  /**
+   * The metrics of one report flattened into a single indexed sequence, gauges first and timers
+   * last, so that it can be split into ranges.
+   */
+  private class MetricsSnapshot {
+
+    private final String[] names;
+    private final Metric[] metrics;
+    private final int[] typeEnds = new int[COLLECTION_WEIGHTS.length];
+    private final long totalWeight;
+
+    MetricsSnapshot(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                    SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                    SortedMap<String, Timer> timers) {
+      int size = gauges.size() + counters.size() + histograms.size() + meters.size()
+              + timers.size();
+      this.names = new String[size];
+      this.metrics = new Metric[size];
+      int index = 0;
+      int type = 0;
+      long weight = 0;
+      for (SortedMap<String, ? extends Metric> map :
+              Arrays.asList(gauges, counters, histograms, meters, timers)) {
+        for (Map.Entry<String, ? extends Metric> entry : map.entrySet()) {
+          names[index] = entry.getKey();
+          metrics[index] = entry.getValue();
+          index++;
+        }
+        typeEnds[type] = index;
+        weight += (long) map.size() * COLLECTION_WEIGHTS[type];
+        type++;
+      }
+      this.totalWeight = weight;
+    }
+
+    int size() {
+      return names.length;
+    }
+
+    int weight(int index) {
+      return COLLECTION_WEIGHTS[type(index)];
+    }
+
+    private int type(int index) {
+      int type = 0;
+      while (index >= typeEnds[type]) {
+        type++;
+      }
+      return type;
+    }
+
+    List<DataPoint> collect(long epoch, int from, int to) {
+      List<DataPoint> dataPoints = new ArrayList<>();
+      DataPointCollector collector = new DataPointCollector(epoch, dataPoints::add);
+      for (int i = from; i < to; i++) {
+        switch (type(i)) {
+          case 0:
+            collector.collectGauge(names[i], (Gauge) metrics[i]);
+            break;
+          case 1:
+            collector.collectCounter(names[i], (Counter) metrics[i]);
+            break;
+          case 2:
+            collector.collectHistogram(names[i], (Histogram) metrics[i]);
+            break;
+          case 3:
+            collector.collectMeter(names[i], (Meter) metrics[i]);
+            break;
+          default:
+            collector.collectTimer(names[i], (Timer) metrics[i]);
+            break;
+        }
+      }
+      return dataPoints;
+    }
+  }
+
   private class DataPointCollector {
 
     private final long epoch;
-    private final List<DataPoint> dataPoints;
+    private final Consumer<DataPoint> sink;
+    private int pointCount = 0;
 
-    DataPointCollector(long epoch) {
+    DataPointCollector(long epoch, Consumer<DataPoint> sink) {
       this.epoch = epoch;
-      this.dataPoints = new LinkedList<>();
+      this.sink = sink;
     }
 
     private void collectGauge(String name, Gauge gauge) {
       Object value = gauge.getValue();
       if (value instanceof BigDecimal) {
-        addDataPoint(name, ((BigDecimal) value).doubleValue());
+        addGaugeValue(name, ((BigDecimal) value).doubleValue());
       } else if (value instanceof BigInteger) {
-        addDataPoint(name, ((BigInteger) value).doubleValue());
+        addGaugeValue(name, ((BigInteger) value).doubleValue());
       } else if (value != null && value.getClass().isAssignableFrom(Double.class)) {
         if (!Double.isNaN((Double) value) && Double.isFinite((Double) value)) {
-          addDataPoint(name, (Double) value);
+          addGaugeValue(name, (Double) value);
         }
       } else if (value instanceof Number) {
-        addDataPoint(name, ((Number) value).doubleValue());
+        addGaugeValue(name, ((Number) value).doubleValue());
+      }
+    }
+
+    private void addGaugeValue(String name, double value) {
+      if (!suppressUnchanged) {
+        addDataPoint(nameCache.decode(name), value);
+        return;
+      }
+      DerivedMetricNames names = nameCache.derive(name, DerivedMetricNames::forValue);
+      if (shouldSend(names, Double.doubleToLongBits(value))) {
+        addDataPoint(names.count, value);
       }
     }
 
     private void collectCounter(String name, Counter counter) {
-      addDataPoint(name, counter.getCount());
+      long count = counter.getCount();
+      if (!suppressUnchanged) {
+        addDataPoint(nameCache.decode(name), count);
+        return;
+      }
+      DerivedMetricNames names = nameCache.derive(name, DerivedMetricNames::forValue);
+      if (shouldSend(names, count)) {
+        addDataPoint(names.count, count);
+      }
+    }
+
+    /**
+     * Decides whether a value is sent when unchanged values are suppressed.
+     */
+    private boolean shouldSend(DerivedMetricNames names, long value) {
+      if (names.id == DerivedMetricNames.UNTRACKED
+              || lastReportedCount.shouldSend(names.id, value, epoch, heartbeatSeconds)) {
+        return true;
+      }
+      metricsSuppressedCounter.inc();
+      return false;
     }
 
 
     private void collectHistogram(String name, Histogram histogram) {
-      TagEncodedMetricName rootMetric = TagEncodedMetricName.decode(name);
-      collectCounting(rootMetric.submetric("count"), histogram, () -> reportSnapshot(rootMetric, histogram.getSnapshot()));
+      DerivedMetricNames names = nameCache.derive(name, DerivedMetricNames::forHistogram);
+      collectCounting(names, histogram, () -> reportSnapshot(names, histogram.getSnapshot()));
     }
 
     private void collectMeter(String name, Meter meter) {
-      TagEncodedMetricName rootMetric = TagEncodedMetricName.decode(name);
-      collectCounting(rootMetric.submetric("total"), meter, () -> reportMetered(rootMetric, meter));
+      DerivedMetricNames names = nameCache.derive(name, DerivedMetricNames::forMeter);
+      collectCounting(names, meter, () -> reportMetered(names, meter));
     }
 
     private void collectTimer(String name, final Timer timer) {
-      TagEncodedMetricName rootMetric = TagEncodedMetricName.decode(name);
-      collectCounting(rootMetric.submetric("count"), timer, () -> {
-        reportSnapshot(rootMetric.submetric("duration"), timer.getSnapshot());
-        reportMetered(rootMetric, timer)
-        ;
+      DerivedMetricNames names = nameCache.derive(name, DerivedMetricNames::forTimer);
+      collectCounting(names, timer, () -> {
+        reportSnapshot(names, timer.getSnapshot());
+        reportMetered(names, timer);
       });
     }
 
 
-    private <T extends Counting> void collectCounting(TagEncodedMetricName countMetric, T metric,
+    /**
+     * Reports the count, and the submetrics only if the count changed since the last report.
+     * When unchanged values are suppressed, an unchanged count is not reported either, until the
+     * heartbeat sends the count and submetrics again.
+     */
+    private <T extends Counting> void collectCounting(DerivedMetricNames names, T metric,
                                                       Runnable reportSubmetrics) {
       long currentCount = metric.getCount();
-      addDataPoint(countMetric, currentCount);
-      Long lastCount = lastReportedCount.put(countMetric, currentCount);
-      if (lastCount == null || lastCount != currentCount) {
+      if (suppressUnchanged) {
+        if (shouldSend(names, currentCount)) {
+          addDataPoint(names.count, currentCount);
+          reportSubmetrics.run();
+        }
+        return;
+      }
+      addDataPoint(names.count, currentCount);
+      if (names.id == DerivedMetricNames.UNTRACKED
+              || lastReportedCount.update(names.id, currentCount)) {
         reportSubmetrics.run();
       }
     }
 
-    private void reportSnapshot(TagEncodedMetricName metric, Snapshot snapshot) {
-      addDataPoint(metric.submetric("min"), convertDuration(snapshot.getMin()));
-      addDataPoint(metric.submetric("max"), convertDuration(snapshot.getMax()));
-      addDataPoint(metric.submetric("mean"), convertDuration(snapshot.getMean()));
-      addDataPoint(metric.submetric("stddev"), convertDuration(snapshot.getStdDev()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.5"), convertDuration(snapshot.getMedian()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.75"), convertDuration(snapshot.get75thPercentile()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.95"), convertDuration(snapshot.get95thPercentile()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.98"), convertDuration(snapshot.get98thPercentile()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.99"), convertDuration(snapshot.get99thPercentile()));
-      addDataPoint(metric.withTags(QUANTILE_TAG_NAME, "0.999"), convertDuration(snapshot.get999thPercentile()));
-    }
-
-    private void reportMetered(TagEncodedMetricName metric, Metered meter) {
-      addDataPoint(metric.submetric(RATE_SUBMETRIC).withTags(WINDOW_TAG_NAME, "1m"),
-              convertRate(meter.getOneMinuteRate()));
-      addDataPoint(metric.submetric(RATE_SUBMETRIC).withTags(WINDOW_TAG_NAME, "5m"),
-              convertRate(meter.getFiveMinuteRate()));
-      addDataPoint(metric.submetric(RATE_SUBMETRIC).withTags(WINDOW_TAG_NAME, "15m"),
-              convertRate(meter.getFifteenMinuteRate()));
+    private void reportSnapshot(DerivedMetricNames names, Snapshot snapshot) {
+      addDataPoint(names.min, convertDuration(snapshot.getMin()));
+      addDataPoint(names.max, convertDuration(snapshot.getMax()));
+      addDataPoint(names.mean, convertDuration(snapshot.getMean()));
+      addDataPoint(names.stddev, convertDuration(snapshot.getStdDev()));
+      TagEncodedMetricName[] quantiles = names.quantiles;
+      addDataPoint(quantiles[0], convertDuration(snapshot.getMedian()));
+      addDataPoint(quantiles[1], convertDuration(snapshot.get75thPercentile()));
+      addDataPoint(quantiles[2], convertDuration(snapshot.get95thPercentile()));
+      addDataPoint(quantiles[3], convertDuration(snapshot.get98thPercentile()));
+      addDataPoint(quantiles[4], convertDuration(snapshot.get99thPercentile()));
+      addDataPoint(quantiles[5], convertDuration(snapshot.get999thPercentile()));
+    }
+
+    private void reportMetered(DerivedMetricNames names, Metered meter) {
+      TagEncodedMetricName[] rates = names.rates;
+      addDataPoint(rates[0], convertRate(meter.getOneMinuteRate()));
+      addDataPoint(rates[1], convertRate(meter.getFiveMinuteRate()));
+      addDataPoint(rates[2], convertRate(meter.getFifteenMinuteRate()));
       //addDataPoint(rootMetric.submetric("rate", "window", "all"), epoch, meter.getMeanRate());
     }
 
@@ -263,14 +709,6 @@ public class ApptuitReporter extends ScheduledReporter {
       return ApptuitReporter.this.convertDuration(duration);
     }
 
-    private void addDataPoint(String name, double value) {
-      addDataPoint(TagEncodedMetricName.decode(name), value);
-    }
-
-    private void addDataPoint(String name, long value) {
-      addDataPoint(TagEncodedMetricName.decode(name), value);
-    }
-
     private void addDataPoint(TagEncodedMetricName name, Number value) {
       /*
       //TODO support disabled metric attributes
@@ -280,7 +718,8 @@ public class ApptuitReporter extends ScheduledReporter {
       */
 
       DataPoint dataPoint = new DataPoint(name.getMetricName(), epoch, value, name.getTags());
-      dataPoints.add(dataPoint);
+      sink.accept(dataPoint);
+      pointCount++;
       debug(dataPoint);
     }
   }
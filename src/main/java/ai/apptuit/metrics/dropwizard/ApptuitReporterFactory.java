@@ -16,19 +16,30 @@
 
 package ai.apptuit.metrics.dropwizard;
 
+import ai.apptuit.metrics.client.PayloadCodecs;
+import ai.apptuit.metrics.client.PayloadFormat;
+import ai.apptuit.metrics.client.RetryPolicy;
 import ai.apptuit.metrics.client.Sanitizer;
+import ai.apptuit.metrics.client.XCollectorForwarder;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  * @author Rajiv Shivane
@@ -41,6 +52,8 @@ public class ApptuitReporterFactory {
   private static final RegexStringMatchingStrategy REGEX_STRING_MATCHING_STRATEGY =
           new RegexStringMatchingStrategy();
 
+  private static final StringMatchingStrategy GLOB_STRING_MATCHING_STRATEGY = GlobTrie::new;
+
   private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
 
   private TimeUnit rateUnit = TimeUnit.SECONDS;
@@ -51,6 +64,8 @@ public class ApptuitReporterFactory {
 
   private boolean useRegexFilters = false;
 
+  private boolean useGlobFilters = false;
+
   private Map<String, String> globalTags = new LinkedHashMap<>();
 
   private String apiKey;
@@ -61,6 +76,8 @@ public class ApptuitReporterFactory {
 
   private Sanitizer sanitizer = Sanitizer.DEFAULT_SANITIZER;
 
+  private final ReporterOptions options = new ReporterOptions();
+
   public void addGlobalTag(String tag, String value) {
     globalTags.put(tag, value);
   }
@@ -117,6 +134,18 @@ public class ApptuitReporterFactory {
     this.useRegexFilters = useRegexFilters;
   }
 
+  public boolean getUseGlobFilters() {
+    return useGlobFilters;
+  }
+
+  /**
+   * @param useGlobFilters whether includes and excludes are globs, such as {@code jvm.gc.*},
+   *     where {@code *} matches any sequence of characters. Regex filters take precedence.
+   */
+  public void setUseGlobFilters(boolean useGlobFilters) {
+    this.useGlobFilters = useGlobFilters;
+  }
+
   public void setSanitizer(Sanitizer sanitizer) {
     this.sanitizer = sanitizer;
   }
@@ -125,23 +154,313 @@ public class ApptuitReporterFactory {
     return this.sanitizer;
   }
 
+  public int getSanitizerCacheSize() {
+    return options.sanitizerCacheSize;
+  }
+
+  /**
+   * @param cacheSize number of sanitized names to memoize, or 0 to sanitize every name on every
+   *     report
+   */
+  public void setSanitizerCacheSize(int cacheSize) {
+    options.sanitizerCacheSize = cacheSize;
+  }
+
+  public int getNameCacheSize() {
+    return options.nameCacheSize;
+  }
+
+  /**
+   * @param cacheSize number of decoded metric names, and of metrics whose values are compared
+   *     across reports, the reporter keeps between reports. Metrics beyond this size are reported
+   *     as if they changed on every report
+   */
+  public void setNameCacheSize(int cacheSize) {
+    options.nameCacheSize = cacheSize;
+  }
+
+  public int getFilterCacheSize() {
+    return options.filterCacheSize;
+  }
+
+  /**
+   * @param cacheSize number of include/exclude decisions the reporter remembers by metric name.
+   *     Filters are evaluated on every report if {@code 0}.
+   */
+  public void setFilterCacheSize(int cacheSize) {
+    options.filterCacheSize = cacheSize;
+  }
+
+  public ApptuitReporter.SendMode getSendMode() {
+    return options.sendMode;
+  }
+
+  public void setSendMode(ApptuitReporter.SendMode sendMode) {
+    options.sendMode = sendMode;
+  }
+
+  public int getSendQueueCapacity() {
+    return options.sendQueueCapacity;
+  }
+
+  /**
+   * @param capacity number of reports that can wait to be sent in {@code ASYNC} send mode
+   */
+  public void setSendQueueCapacity(int capacity) {
+    options.sendQueueCapacity = capacity;
+  }
+
+  public ApptuitReporter.OverflowPolicy getSendQueueOverflowPolicy() {
+    return options.overflowPolicy;
+  }
+
+  public void setSendQueueOverflowPolicy(ApptuitReporter.OverflowPolicy overflowPolicy) {
+    options.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * @param timeout how long to wait for room in the send queue under the {@code BLOCK} policy
+   */
+  public void setSendQueueOverflowTimeout(long timeout, TimeUnit unit) {
+    options.overflowTimeoutMillis = unit.toMillis(timeout);
+  }
+
+  public void setSenderThreads(int senderThreads) {
+    options.senderThreads = senderThreads;
+  }
+
+  public String getSpoolDirectory() {
+    return options.spoolDirectory;
+  }
+
+  /**
+   * @param spoolDirectory directory to spool undelivered reports to, for replay once the API end
+   *     point recovers. Spooling is disabled if not set.
+   */
+  public void setSpoolDirectory(String spoolDirectory) {
+    options.spoolDirectory = spoolDirectory;
+  }
+
+  public long getSpoolMaxBytes() {
+    return options.spoolMaxBytes;
+  }
+
+  public void setSpoolMaxBytes(long spoolMaxBytes) {
+    options.spoolMaxBytes = spoolMaxBytes;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return options.retryPolicy;
+  }
+
+  /**
+   * @param retryPolicy how {@code API_PUT} reporting mode retries reports the API throttled or
+   *     failed, before spooling them. Reports are not retried by default.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    options.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.NONE;
+  }
+
+  public int getMaxBatchPoints() {
+    return options.maxBatchPoints;
+  }
+
+  /**
+   * @param maxBatchPoints largest number of points {@code API_PUT} reporting mode sends in one
+   *     request. Larger reports are split into several requests.
+   */
+  public void setMaxBatchPoints(int maxBatchPoints) {
+    options.maxBatchPoints = maxBatchPoints;
+  }
+
+  public long getMaxBatchBytes() {
+    return options.maxBatchBytes;
+  }
+
+  /**
+   * @param maxBatchBytes approximate largest compressed size of a request in {@code API_PUT}
+   *     reporting mode. Larger reports are split into several requests.
+   */
+  public void setMaxBatchBytes(long maxBatchBytes) {
+    options.maxBatchBytes = maxBatchBytes;
+  }
+
+  public int getUploadParallelism() {
+    return options.uploadParallelism;
+  }
+
+  /**
+   * @param uploadParallelism number of requests of a split report sent at once
+   */
+  public void setUploadParallelism(int uploadParallelism) {
+    options.uploadParallelism = uploadParallelism;
+  }
+
+  public PayloadFormat getPayloadFormat() {
+    return options.payloadFormat;
+  }
+
+  /**
+   * @param payloadFormat format of the points in requests of {@code API_PUT} reporting mode:
+   *     {@link PayloadFormat#JSON} (default), the more compact {@link PayloadFormat#BINARY}, or
+   *     {@link PayloadFormat#COLUMNAR}, which groups the points of a report by series
+   */
+  public void setPayloadFormat(PayloadFormat payloadFormat) {
+    options.payloadFormat = payloadFormat;
+  }
+
+  public String getPayloadCodec() {
+    return options.payloadCodec;
+  }
+
+  /**
+   * @param payloadCodec how {@code API_PUT} reporting mode encodes requests: {@code gzip}
+   *     (default), {@code deflate}, {@code identity} or {@code x-lz4-block}, which is much cheaper
+   *     on CPU but larger, and nonstandard: only for end points known to decode it. The client
+   *     falls back to an encoding the end point accepts.
+   */
+  public void setPayloadCodec(String payloadCodec) {
+    if (PayloadCodecs.forName(payloadCodec, Deflater.DEFAULT_COMPRESSION, false) == null) {
+      throw new IllegalArgumentException("Unknown payload codec: " + payloadCodec);
+    }
+    options.payloadCodec = payloadCodec;
+  }
+
+  public int getCompressionLevel() {
+    return options.compressionLevel;
+  }
+
+  /**
+   * @param compressionLevel gzip or deflate level of requests in {@code API_PUT} reporting mode,
+   *     from 1 (fastest) to 9 (smallest)
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    options.compressionLevel = compressionLevel;
+  }
+
+  public boolean isAdaptiveCompression() {
+    return options.adaptiveCompression;
+  }
+
+  /**
+   * @param adaptiveCompression whether {@code API_PUT} reporting mode picks the gzip or deflate
+   *     level from the CPU time spent versus the bytes saved, instead of using the compression
+   *     level
+   */
+  public void setAdaptiveCompression(boolean adaptiveCompression) {
+    options.adaptiveCompression = adaptiveCompression;
+  }
+
+  public XCollectorForwarder.Transport getXCollectorTransport() {
+    return options.xcollectorTransport;
+  }
+
+  /**
+   * @param transport whether {@code XCOLLECTOR} reporting mode sends over UDP or TCP
+   */
+  public void setXCollectorTransport(XCollectorForwarder.Transport transport) {
+    options.xcollectorTransport = transport;
+  }
+
+  public int getXCollectorPort() {
+    return options.xcollectorPort;
+  }
+
+  /**
+   * @param port local port {@code XCOLLECTOR} reporting mode sends to, or 0 for the default port
+   *     of the transport (8953 for UDP, 4242 for TCP)
+   */
+  public void setXCollectorPort(int port) {
+    if (port < 0 || port > 65535) {
+      throw new IllegalArgumentException("XCollector port must be between 0 and 65535, was "
+          + port);
+    }
+    options.xcollectorPort = port;
+  }
+
+  public int getCollectionParallelism() {
+    return options.collectionParallelism;
+  }
+
+  /**
+   * @param parallelism number of partitions the metrics are split into and collected in
+   *     parallel on every report. Collection is sequential if {@code 1}, and always in
+   *     {@code STREAMING} send mode, which hands points to the end point as they are collected.
+   */
+  public void setCollectionParallelism(int parallelism) {
+    options.collectionParallelism = parallelism;
+  }
+
+  /**
+   * @param executor executor to run parallel collection on, instead of a {@code ForkJoinPool}
+   *     owned by the reporter, if the {@link #setCollectionParallelism parallelism} is above 1.
+   *     It is not shut down when the reporter stops.
+   */
+  public void setCollectionExecutor(ExecutorService executor) {
+    options.collectionExecutor = executor;
+  }
+
+  public boolean isSuppressUnchanged() {
+    return options.suppressUnchanged;
+  }
+
+  /**
+   * @param suppressUnchanged whether to skip gauges, counters and the counts of histograms,
+   *     meters and timers whose value has not changed since it was last sent. Unchanged values
+   *     are still sent once every heartbeat interval.
+   */
+  public void setSuppressUnchanged(boolean suppressUnchanged) {
+    options.suppressUnchanged = suppressUnchanged;
+  }
+
+  /**
+   * @param interval how often unchanged values are re-sent when suppression is enabled
+   */
+  public void setHeartbeatInterval(long interval, TimeUnit unit) {
+    options.heartbeatSeconds = unit.toSeconds(interval);
+  }
+
   public MetricFilter getFilter() {
-    final StringMatchingStrategy stringMatchingStrategy = getUseRegexFilters()
-            ? REGEX_STRING_MATCHING_STRATEGY : DEFAULT_STRING_MATCHING_STRATEGY;
+    final StringMatchingStrategy stringMatchingStrategy;
+    if (getUseRegexFilters()) {
+      stringMatchingStrategy = REGEX_STRING_MATCHING_STRATEGY;
+    } else if (getUseGlobFilters()) {
+      stringMatchingStrategy = GLOB_STRING_MATCHING_STRATEGY;
+    } else {
+      stringMatchingStrategy = DEFAULT_STRING_MATCHING_STRATEGY;
+    }
+
+    // Include the metric if its name is not excluded and its name is included
+    // Where, by default, with no includes setting, all names are included.
+    Predicate<String> nameFilter = stringMatchingStrategy.compile(
+            new HashSet<>(getIncludes()), new HashSet<>(getExcludes()));
+    return (name, metric) -> nameFilter.test(name);
+  }
 
-    return (name, metric) -> {
-      // Include the metric if its name is not excluded and its name is included
-      // Where, by default, with no includes setting, all names are included.
-      return !stringMatchingStrategy.containsMatch(getExcludes(), name)
-              && (getIncludes().isEmpty() || stringMatchingStrategy.containsMatch(getIncludes(), name));
-    };
+  private Sanitizer getReportingSanitizer() {
+    if (options.sanitizerCacheSize <= 0 || sanitizer == null
+            || sanitizer == Sanitizer.NO_OP_SANITIZER) {
+      return sanitizer;
+    }
+    return new Sanitizer.CachingSanitizer(sanitizer, options.sanitizerCacheSize);
+  }
+
+  private MetricFilter getReportingFilter() {
+    if (getIncludes().isEmpty() && getExcludes().isEmpty()) {
+      return MetricFilter.ALL;
+    }
+    MetricFilter filter = getFilter();
+    if (options.filterCacheSize <= 0) {
+      return filter;
+    }
+    return new CachingMetricFilter(filter, options.filterCacheSize);
   }
 
   public ScheduledReporter build(MetricRegistry registry) {
     try {
-      return new ApptuitReporter(registry, getFilter(), getRateUnit(), getDurationUnit(),
+      return new ApptuitReporter(registry, getReportingFilter(), getRateUnit(), getDurationUnit(),
               globalTags, apiKey, apiUrl != null ? new URL(apiUrl) : null,
-              reportingMode, sanitizer);
+              reportingMode, getReportingSanitizer(), options);
     } catch (MalformedURLException e) {
       throw new IllegalArgumentException(e);
     }
@@ -149,45 +468,121 @@ public class ApptuitReporterFactory {
 
   private interface StringMatchingStrategy {
 
-    boolean containsMatch(Set<String> matchExpressions, String metricName);
+    /**
+     * @return a predicate accepting the names that match none of the {@code excludes} and, if
+     *     there are any {@code includes}, match one of them
+     */
+    Predicate<String> compile(Set<String> includes, Set<String> excludes);
   }
 
   private static class DefaultStringMatchingStrategy implements StringMatchingStrategy {
 
     @Override
-    public boolean containsMatch(Set<String> matchExpressions, String metricName) {
-      return matchExpressions.contains(metricName);
+    public Predicate<String> compile(Set<String> includes, Set<String> excludes) {
+      return name -> !excludes.contains(name) && (includes.isEmpty() || includes.contains(name));
     }
   }
 
-  private static class RegexStringMatchingStrategy extends DefaultStringMatchingStrategy {
-    //TODO
-    /*
+  /**
+   * Matches names against regular expressions. All the expressions are compiled once into a
+   * single alternation, excludes first, so every name is matched in one pass: if an exclude
+   * matches, its named group is the one that captured. Combining renumbers the capturing groups
+   * of the expressions and puts their group names in one namespace, so if any expression uses
+   * back-references or named groups, each expression is matched on its own instead.
+   */
+  private static class RegexStringMatchingStrategy implements StringMatchingStrategy {
+
+    private static final String EXCLUDED_GROUP = "apptuitExcluded";
+    private static final String INCLUDED_GROUP = "apptuitIncluded";
+
+    @Override
+    public Predicate<String> compile(Set<String> includes, Set<String> excludes) {
+      if (includes.isEmpty() && excludes.isEmpty()) {
+        return name -> true;
+      }
+      if (includes.stream().anyMatch(RegexStringMatchingStrategy::refersToGroups)
+          || excludes.stream().anyMatch(RegexStringMatchingStrategy::refersToGroups)) {
+        return compileSeparately(includes, excludes);
+      }
+      StringBuilder regex = new StringBuilder();
+      appendGroup(regex, EXCLUDED_GROUP, excludes);
+      appendGroup(regex, INCLUDED_GROUP, includes);
+      Pattern pattern = Pattern.compile(regex.toString());
+      boolean includeAll = includes.isEmpty();
+
+      return name -> {
+        Matcher matcher = pattern.matcher(name);
+        if (!matcher.matches()) {
+          return includeAll;
+        }
+        return excludes.isEmpty() || matcher.group(EXCLUDED_GROUP) == null;
+      };
+    }
 
-    private final LoadingCache<String, Pattern> patternCache;
+    private static Predicate<String> compileSeparately(Set<String> includes,
+                                                       Set<String> excludes) {
+      List<Pattern> includePatterns = compileAll(includes);
+      List<Pattern> excludePatterns = compileAll(excludes);
+      return name -> excludePatterns.stream().noneMatch(p -> p.matcher(name).matches())
+          && (includePatterns.isEmpty()
+              || includePatterns.stream().anyMatch(p -> p.matcher(name).matches()));
+    }
 
-    private RegexStringMatchingStrategy() {
-        patternCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .build(new CacheLoader<String, Pattern>() {
-                @Override
-                public Pattern load(String regex) throws Exception {
-                    return Pattern.compile(regex);
-                }
-            });
+    private static List<Pattern> compileAll(Set<String> expressions) {
+      List<Pattern> patterns = new ArrayList<>(expressions.size());
+      for (String expression : expressions) {
+        patterns.add(Pattern.compile(expression));
+      }
+      return patterns;
     }
 
-    @Override
-    public boolean containsMatch(Set<String> matchExpressions, String metricName) {
-        for (String regexExpression : matchExpressions) {
-            if (patternCache.getUnchecked(regexExpression).matcher(metricName).matches()) {
-                // just need to match on a single value - return as soon as we do
-                return true;
+    /**
+     * @return {@code true} if the expression has a back-reference or a named group, which would
+     *     break or clash once combined with other expressions
+     */
+    static boolean refersToGroups(String expression) {
+      int length = expression.length();
+      for (int i = 0; i < length; i++) {
+        char c = expression.charAt(i);
+        if (c == '\\' && i + 1 < length) {
+          char escaped = expression.charAt(++i);
+          if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+            return true;
+          }
+          if (escaped == 'Q') {
+            // Quoted literal up to \E
+            int end = expression.indexOf("\\E", i + 1);
+            if (end < 0) {
+              return false;
             }
+            i = end + 1;
+          }
+        } else if (c == '(' && expression.startsWith("?<", i + 1) && i + 3 < length
+            && Character.isLetter(expression.charAt(i + 3))) {
+          return true;
         }
+      }
+      return false;
+    }
 
-        return false;
+    private static void appendGroup(StringBuilder regex, String group, Set<String> expressions) {
+      if (expressions.isEmpty()) {
+        return;
+      }
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      regex.append("(?<").append(group).append('>');
+      boolean first = true;
+      for (String expression : expressions) {
+        if (!first) {
+          regex.append('|');
+        }
+        // Scope inline flags and alternations of each expression to itself
+        regex.append("(?:").append(expression).append(')');
+        first = false;
+      }
+      regex.append(')');
     }
-    */
   }
 }
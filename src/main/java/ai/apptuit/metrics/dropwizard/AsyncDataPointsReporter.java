@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.DataPointsReporter;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.OverflowPolicy;
+import com.codahale.metrics.Counter;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands batches of points over to dedicated sender threads through a bounded queue, so that a
+ * slow end point does not hold up the thread building the reports.
+ */
+class AsyncDataPointsReporter implements DataPointsReporter, Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(AsyncDataPointsReporter.class.getName());
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+  private final DataPointsReporter delegate;
+  private final ThreadPoolExecutor executor;
+  private final Counter droppedBatchesCounter;
+  private final Counter droppedPointsCounter;
+
+  AsyncDataPointsReporter(DataPointsReporter delegate, int queueCapacity,
+                          OverflowPolicy overflowPolicy, long overflowTimeoutMillis,
+                          int senderThreads, Counter droppedBatchesCounter,
+                          Counter droppedPointsCounter) {
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    if (senderThreads <= 0) {
+      throw new IllegalArgumentException("Number of sender threads must be positive");
+    }
+    this.delegate = delegate;
+    this.droppedBatchesCounter = droppedBatchesCounter;
+    this.droppedPointsCounter = droppedPointsCounter;
+    this.executor = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), new SenderThreadFactory(),
+            getRejectionHandler(overflowPolicy, overflowTimeoutMillis));
+    this.executor.prestartAllCoreThreads();
+  }
+
+  @Override
+  public void put(Collection<DataPoint> dataPoints) {
+    executor.execute(new Batch(dataPoints));
+  }
+
+  int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Stops accepting new batches and waits for the queued ones to be sent.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        executor.shutdownNow().forEach(this::drop);
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow().forEach(this::drop);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private RejectedExecutionHandler getRejectionHandler(OverflowPolicy overflowPolicy,
+                                                       long overflowTimeoutMillis) {
+    switch (overflowPolicy) {
+      case DROP_NEWEST:
+        return (batch, executor) -> drop(batch);
+      case BLOCK:
+        return (batch, executor) -> {
+          try {
+            if (executor.isShutdown()
+                    || !executor.getQueue().offer(batch, overflowTimeoutMillis,
+                    TimeUnit.MILLISECONDS)) {
+              drop(batch);
+            } else if (executor.isShutdown() && executor.getQueue().remove(batch)) {
+              //Shut down while waiting: the sender threads may be gone and never run it
+              drop(batch);
+            }
+          } catch (InterruptedException e) {
+            drop(batch);
+            Thread.currentThread().interrupt();
+          }
+        };
+      case DROP_OLDEST:
+      default:
+        return (batch, executor) -> {
+          if (executor.isShutdown()) {
+            drop(batch);
+            return;
+          }
+          Runnable oldest = executor.getQueue().poll();
+          if (oldest != null) {
+            drop(oldest);
+          }
+          executor.execute(batch);
+        };
+    }
+  }
+
+  private void drop(Runnable batch) {
+    droppedBatchesCounter.inc();
+    droppedPointsCounter.inc(((Batch) batch).dataPoints.size());
+  }
+
+  private class Batch implements Runnable {
+
+    private final Collection<DataPoint> dataPoints;
+
+    Batch(Collection<DataPoint> dataPoints) {
+      this.dataPoints = dataPoints;
+    }
+
+    @Override
+    public void run() {
+      try {
+        delegate.put(dataPoints);
+      } catch (Exception | Error e) {
+        LOGGER.log(Level.SEVERE, "Error reporting metrics.", e);
+      }
+    }
+  }
+
+  private static class SenderThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+    private final int poolId = POOL_COUNT.incrementAndGet();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r,
+              "apptuit-reporter-sender-" + poolId + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
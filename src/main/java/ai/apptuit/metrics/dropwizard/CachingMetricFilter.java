@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistryListener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the decision of a name based {@link MetricFilter} per metric name, so that filtering
+ * a registry on every report is a lookup per metric. Registered as a
+ * {@link MetricRegistryListener}, it forgets the decisions for metrics removed from the registry.
+ * Once full, names that are not cached yet are passed to the delegate on every call.
+ */
+class CachingMetricFilter extends MetricRegistryListener.Base implements MetricFilter {
+
+  private final MetricFilter delegate;
+  private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+  private final int maxSize;
+
+  /**
+   * @param delegate filter whose decision depends on the name of the metric only
+   */
+  CachingMetricFilter(MetricFilter delegate, int maxSize) {
+    this.delegate = delegate;
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public boolean matches(String name, Metric metric) {
+    Boolean decision = decisions.get(name);
+    if (decision != null) {
+      return decision;
+    }
+    boolean matches = delegate.matches(name, metric);
+    if (decisions.size() < maxSize) {
+      decisions.put(name, matches ? Boolean.TRUE : Boolean.FALSE);
+    }
+    return matches;
+  }
+
+  int size() {
+    return decisions.size();
+  }
+
+  @Override
+  public void onGaugeRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onCounterRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onHistogramRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onMeterRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onTimerRemoved(String name) {
+    decisions.remove(name);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+/**
+ * Names of all the series a histogram, meter or timer is reported as, derived once per metric so
+ * that later reports only have to fill in the values.
+ */
+class DerivedMetricNames {
+
+  /**
+   * Id of names that are not cached, whose values are not compared across reports.
+   */
+  static final int UNTRACKED = -1;
+
+  private static final String QUANTILE_TAG_NAME = "quantile";
+  private static final String WINDOW_TAG_NAME = "window";
+  private static final String RATE_SUBMETRIC = "rate";
+
+  /**
+   * Quantiles reported for a snapshot, in the order of {@link #quantiles}.
+   */
+  private static final String[] QUANTILES = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+
+  /**
+   * Rate windows reported for a metered metric, in the order of {@link #rates}.
+   */
+  private static final String[] RATE_WINDOWS = {"1m", "5m", "15m"};
+
+  final TagEncodedMetricName count;
+  final TagEncodedMetricName min;
+  final TagEncodedMetricName max;
+  final TagEncodedMetricName mean;
+  final TagEncodedMetricName stddev;
+  final TagEncodedMetricName[] quantiles;
+  final TagEncodedMetricName[] rates;
+
+  /**
+   * Stable id of the metric while it is registered, assigned by {@link MetricNameCache}, or
+   * {@link #UNTRACKED}.
+   */
+  int id;
+
+  private DerivedMetricNames(TagEncodedMetricName count, TagEncodedMetricName snapshot,
+                             TagEncodedMetricName metered) {
+    this.count = count;
+    if (snapshot != null) {
+      this.min = snapshot.submetric("min");
+      this.max = snapshot.submetric("max");
+      this.mean = snapshot.submetric("mean");
+      this.stddev = snapshot.submetric("stddev");
+      this.quantiles = new TagEncodedMetricName[QUANTILES.length];
+      for (int i = 0; i < QUANTILES.length; i++) {
+        this.quantiles[i] = snapshot.withTags(QUANTILE_TAG_NAME, QUANTILES[i]);
+      }
+    } else {
+      this.min = null;
+      this.max = null;
+      this.mean = null;
+      this.stddev = null;
+      this.quantiles = null;
+    }
+    if (metered != null) {
+      TagEncodedMetricName rate = metered.submetric(RATE_SUBMETRIC);
+      this.rates = new TagEncodedMetricName[RATE_WINDOWS.length];
+      for (int i = 0; i < RATE_WINDOWS.length; i++) {
+        this.rates[i] = rate.withTags(WINDOW_TAG_NAME, RATE_WINDOWS[i]);
+      }
+    } else {
+      this.rates = null;
+    }
+  }
+
+  /**
+   * Names of a gauge or counter, whose single value is reported under {@link #count}.
+   */
+  static DerivedMetricNames forValue(TagEncodedMetricName root) {
+    return new DerivedMetricNames(root, null, null);
+  }
+
+  static DerivedMetricNames forHistogram(TagEncodedMetricName root) {
+    return new DerivedMetricNames(root.submetric("count"), root, null);
+  }
+
+  static DerivedMetricNames forMeter(TagEncodedMetricName root) {
+    return new DerivedMetricNames(root.submetric("total"), null, root);
+  }
+
+  static DerivedMetricNames forTimer(TagEncodedMetricName root) {
+    return new DerivedMetricNames(root.submetric("count"), root.submetric("duration"), root);
+  }
+}
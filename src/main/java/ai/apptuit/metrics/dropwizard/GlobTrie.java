@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Include and exclude glob rules compiled into a single trie. In a rule, {@code *} matches any
+ * sequence of characters, including none; every other character matches itself. A rule such as
+ * {@code jvm.gc.*} is a prefix rule.
+ *
+ * <p>A name is matched in one walk of the trie, following literal edges and staying on
+ * {@code *} nodes. Each character costs one step per active node. When rules only have a trailing
+ * {@code *}, at most one node is active, so the cost depends on the length of the name and not on
+ * the number of rules; each {@code *} inside a rule can keep one more node active for the rest of
+ * the walk. A rule ending in {@code *} that is reached decides the match right away.
+ */
+class GlobTrie implements Predicate<String> {
+
+  private static final char WILDCARD = '*';
+  private static final int INCLUDED = 1;
+  private static final int EXCLUDED = 2;
+
+  private final Node root = new Node(false);
+  private final boolean includeAll;
+
+  /**
+   * @see ApptuitReporterFactory#getFilter()
+   */
+  GlobTrie(Set<String> includes, Set<String> excludes) {
+    includes.forEach(rule -> add(rule, INCLUDED));
+    excludes.forEach(rule -> add(rule, EXCLUDED));
+    this.includeAll = includes.isEmpty();
+  }
+
+  /**
+   * @return {@code true} if {@code name} matches no exclude rule and, if there are include rules,
+   *     matches one of them
+   */
+  @Override
+  public boolean test(String name) {
+    int matched = match(name);
+    if ((matched & EXCLUDED) != 0) {
+      return false;
+    }
+    return includeAll || (matched & INCLUDED) != 0;
+  }
+
+  private void add(String rule, int kind) {
+    Node node = root;
+    for (int i = 0; i < rule.length(); i++) {
+      char c = rule.charAt(i);
+      if (c == WILDCARD) {
+        if (node.wildcard) {
+          continue;
+        }
+        if (node.star == null) {
+          node.star = new Node(true);
+        }
+        node = node.star;
+      } else {
+        node = node.child(c, true);
+      }
+    }
+    node.rules |= kind;
+  }
+
+  /**
+   * @return the kinds of all the rules {@code name} matches
+   */
+  private int match(String name) {
+    int matched = 0;
+    Set<Node> active = new HashSet<>();
+    Set<Node> next = new HashSet<>();
+    matched |= enter(root, active);
+    for (int i = 0; i < name.length() && !active.isEmpty() && (matched & EXCLUDED) == 0;
+        i++) {
+      char c = name.charAt(i);
+      next.clear();
+      for (Node node : active) {
+        if (node.wildcard) {
+          next.add(node);
+        }
+        Node child = node.child(c, false);
+        if (child != null) {
+          matched |= enter(child, next);
+        }
+      }
+      Set<Node> swap = active;
+      active = next;
+      next = swap;
+    }
+    for (Node node : active) {
+      matched |= node.rules;
+    }
+    return matched;
+  }
+
+  /**
+   * Makes {@code node}, and the {@code *} node that can follow it without consuming a character,
+   * active.
+   *
+   * @return the kinds of the rules already decided, by a trailing {@code *} that was reached
+   */
+  private static int enter(Node node, Set<Node> active) {
+    int decided = 0;
+    for (Node n = node; n != null; n = n.star) {
+      if (n.wildcard && n.isLeaf()) {
+        decided |= n.rules;
+      } else {
+        active.add(n);
+      }
+    }
+    return decided;
+  }
+
+  private static final class Node {
+
+    private final boolean wildcard;
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private Node star;
+    private int rules;
+
+    private Node(boolean wildcard) {
+      this.wildcard = wildcard;
+    }
+
+    private Node child(char c, boolean create) {
+      int index = Arrays.binarySearch(keys, c);
+      if (index >= 0) {
+        return children[index];
+      }
+      if (!create) {
+        return null;
+      }
+      int insertAt = -index - 1;
+      Node child = new Node(false);
+      keys = insert(keys, insertAt, c);
+      Node[] grown = new Node[children.length + 1];
+      System.arraycopy(children, 0, grown, 0, insertAt);
+      grown[insertAt] = child;
+      System.arraycopy(children, insertAt, grown, insertAt + 1, children.length - insertAt);
+      children = grown;
+      return child;
+    }
+
+    private boolean isLeaf() {
+      return keys.length == 0 && star == null;
+    }
+
+    private static char[] insert(char[] array, int index, char c) {
+      char[] grown = new char[array.length + 1];
+      System.arraycopy(array, 0, grown, 0, index);
+      grown[index] = c;
+      System.arraycopy(array, index, grown, index + 1, array.length - index);
+      return grown;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from the id of a metric to the count (or the bits of the gauge value)
+ * last reported for it and the epoch it was last sent at, kept in primitive arrays so that
+ * tracking values neither boxes nor hashes name objects. Synchronized, as partitions of a parallel
+ * collection update it concurrently.
+ */
+class LastCountTable {
+
+  private static final int FREE = -1;
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private int[] ids;
+  private long[] counts;
+  private long[] sentAt;
+  private int size;
+
+  LastCountTable(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Records {@code count} as the last reported count of metric {@code id}.
+   *
+   * @return {@code true} if the metric was not tracked yet or its count changed
+   */
+  synchronized boolean update(int id, long count) {
+    int mask = ids.length - 1;
+    int slot = slot(id, mask);
+    while (ids[slot] != FREE) {
+      if (ids[slot] == id) {
+        boolean changed = counts[slot] != count;
+        counts[slot] = count;
+        return changed;
+      }
+      slot = (slot + 1) & mask;
+    }
+    insert(slot, id, count, 0);
+    return true;
+  }
+
+  /**
+   * Records {@code value} as the last value of metric {@code id}, and decides whether it has to
+   * be sent: if the metric was not tracked yet, if its value changed, or if it was last sent at
+   * least {@code heartbeatSeconds} before {@code epoch}.
+   *
+   * @return {@code true} if the value has to be sent, in which case it is recorded as sent at
+   *     {@code epoch}
+   */
+  synchronized boolean shouldSend(int id, long value, long epoch, long heartbeatSeconds) {
+    int mask = ids.length - 1;
+    int slot = slot(id, mask);
+    while (ids[slot] != FREE) {
+      if (ids[slot] == id) {
+        boolean changed = counts[slot] != value;
+        counts[slot] = value;
+        if (changed || epoch - sentAt[slot] >= heartbeatSeconds) {
+          sentAt[slot] = epoch;
+          return true;
+        }
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    insert(slot, id, value, epoch);
+    return true;
+  }
+
+  synchronized void remove(int id) {
+    int mask = ids.length - 1;
+    int slot = slot(id, mask);
+    while (ids[slot] != id) {
+      if (ids[slot] == FREE) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    ids[slot] = FREE;
+    size--;
+
+    // Shift back the entries that probed past the freed slot, so that lookups need no tombstones
+    int next = (slot + 1) & mask;
+    while (ids[next] != FREE) {
+      int home = slot(ids[next], mask);
+      if (((next - home) & mask) >= ((next - slot) & mask)) {
+        ids[slot] = ids[next];
+        counts[slot] = counts[next];
+        sentAt[slot] = sentAt[next];
+        ids[next] = FREE;
+        slot = next;
+      }
+      next = (next + 1) & mask;
+    }
+  }
+
+  /**
+   * Grows the table ahead of time to hold {@code expectedSize} entries without rehashing.
+   */
+  synchronized void ensureCapacity(int expectedSize) {
+    int capacity = capacityFor(expectedSize);
+    if (capacity > ids.length) {
+      rehash(capacity);
+    }
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private void insert(int slot, int id, long value, long epoch) {
+    ids[slot] = id;
+    counts[slot] = value;
+    sentAt[slot] = epoch;
+    size++;
+    if (size > ids.length * 3 / 4) {
+      rehash(ids.length * 2);
+    }
+  }
+
+  private void rehash(int capacity) {
+    int[] oldIds = ids;
+    long[] oldCounts = counts;
+    long[] oldSentAt = sentAt;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIds[i] != FREE) {
+        int slot = slot(oldIds[i], mask);
+        while (ids[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        ids[slot] = oldIds[i];
+        counts[slot] = oldCounts[i];
+        sentAt[slot] = oldSentAt[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    ids = new int[capacity];
+    Arrays.fill(ids, FREE);
+    counts = new long[capacity];
+    sentAt = new long[capacity];
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < expectedSize && capacity < MAX_CAPACITY) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int slot(int id, int mask) {
+    int hash = id * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+}
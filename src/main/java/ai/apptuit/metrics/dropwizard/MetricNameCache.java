@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistryListener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Cache of decoded {@link TagEncodedMetricName}s and of the {@link DerivedMetricNames} of
+ * metrics tracked across reports, keyed by the encoded name they are registered under.
+ * Registered as a {@link MetricRegistryListener}, it forgets the names of metrics removed from
+ * the registry. Decoded names are bounded by {@code maxSize}: once full, names that are not
+ * cached yet are decoded on every lookup until removals free up room.
+ *
+ * <p>Derived names carry the stable id that change detection keeps its state by, and are bounded
+ * by {@code maxSize} as well: once full, the names of further metrics are derived on every lookup
+ * with the {@link DerivedMetricNames#UNTRACKED} id. The id is passed to the eviction listener
+ * when the metric is removed, so that state kept by id can be purged along with the names. As a
+ * metric can be removed between being read from the registry and its names being cached, names
+ * are only kept if the metric is still registered once they are cached.
+ */
+class MetricNameCache extends MetricRegistryListener.Base {
+
+  private final ConcurrentMap<String, TagEncodedMetricName> cache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, DerivedMetricNames> derivedCache =
+      new ConcurrentHashMap<>();
+  private final int maxSize;
+  private final Counter hits;
+  private final Counter misses;
+  private final IntConsumer evictionListener;
+  private final Predicate<String> registered;
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  MetricNameCache(int maxSize, Counter hits, Counter misses) {
+    this(maxSize, hits, misses, id -> {
+    });
+  }
+
+  MetricNameCache(int maxSize, Counter hits, Counter misses, IntConsumer evictionListener) {
+    this(maxSize, hits, misses, evictionListener, name -> true);
+  }
+
+  /**
+   * @param registered whether a metric is registered under a name, checked once its names are
+   *     cached
+   */
+  MetricNameCache(int maxSize, Counter hits, Counter misses, IntConsumer evictionListener,
+                  Predicate<String> registered) {
+    this.maxSize = maxSize;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictionListener = evictionListener;
+    this.registered = registered;
+  }
+
+  TagEncodedMetricName decode(String name) {
+    TagEncodedMetricName decoded = cache.get(name);
+    if (decoded != null) {
+      hits.inc();
+      return decoded;
+    }
+    misses.inc();
+    decoded = TagEncodedMetricName.decode(name);
+    if (cache.size() < maxSize) {
+      cache.put(name, decoded);
+      if (!registered.test(name)) {
+        cache.remove(name, decoded);
+      }
+    }
+    return decoded;
+  }
+
+  DerivedMetricNames derive(String name,
+                            Function<TagEncodedMetricName, DerivedMetricNames> deriver) {
+    DerivedMetricNames derived = derivedCache.get(name);
+    if (derived != null) {
+      hits.inc();
+      return derived;
+    }
+    derived = deriver.apply(decode(name));
+    if (derivedCache.size() >= maxSize) {
+      derived.id = DerivedMetricNames.UNTRACKED;
+      return derived;
+    }
+    derived.id = nextId.getAndIncrement();
+    DerivedMetricNames cached = derivedCache.putIfAbsent(name, derived);
+    if (cached != null) {
+      return cached;
+    }
+    if (!registered.test(name)) {
+      //Removed meanwhile, possibly before it was cached and the removal listener could evict it
+      if (derivedCache.remove(name, derived)) {
+        evictionListener.accept(derived.id);
+      }
+      derived.id = DerivedMetricNames.UNTRACKED;
+    }
+    return derived;
+  }
+
+  int size() {
+    return cache.size() + derivedCache.size();
+  }
+
+  private void evict(String name) {
+    cache.remove(name);
+    DerivedMetricNames derived = derivedCache.remove(name);
+    if (derived != null) {
+      evictionListener.accept(derived.id);
+    }
+  }
+
+  @Override
+  public void onGaugeRemoved(String name) {
+    evict(name);
+  }
+
+  @Override
+  public void onCounterRemoved(String name) {
+    evict(name);
+  }
+
+  @Override
+  public void onHistogramRemoved(String name) {
+    evict(name);
+  }
+
+  @Override
+  public void onMeterRemoved(String name) {
+    evict(name);
+  }
+
+  @Override
+  public void onTimerRemoved(String name) {
+    evict(name);
+  }
+}
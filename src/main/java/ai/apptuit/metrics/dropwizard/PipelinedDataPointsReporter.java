@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.DataPointsReporter;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Double buffered pipeline between building and sending reports. A report is built into one
+ * buffer while the previous report is sent from the other one on a dedicated sender thread;
+ * handing over a report waits for the previous send to finish, at which point its buffer is
+ * cleared and becomes the buffer the next report is built into.
+ *
+ * <p>Not thread safe: {@link #nextBuffer()} and {@link #put(Collection)} must be called by the
+ * reporter thread only, alternately.
+ */
+class PipelinedDataPointsReporter implements DataPointsReporter, Closeable {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(PipelinedDataPointsReporter.class.getName());
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  private final DataPointsReporter delegate;
+  private final ExecutorService sender;
+  private List<DataPoint> nextBuffer = new ArrayList<>();
+  private List<DataPoint> otherBuffer = new ArrayList<>();
+  private Future<?> inFlight;
+
+  PipelinedDataPointsReporter(DataPointsReporter delegate) {
+    this.delegate = delegate;
+    String threadName = "apptuit-reporter-pipeline-" + POOL_COUNT.incrementAndGet();
+    this.sender = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return the empty buffer to build the next report into
+   */
+  List<DataPoint> nextBuffer() {
+    return nextBuffer;
+  }
+
+  /**
+   * Waits for the previous report to be sent, then starts sending {@code dataPoints} in the
+   * background. The buffer is cleared once sent, so it must not be used by the caller afterwards.
+   */
+  @Override
+  public void put(Collection<DataPoint> dataPoints) {
+    awaitInFlight();
+    inFlight = sender.submit(() -> {
+      try {
+        delegate.put(dataPoints);
+      } catch (Exception | Error e) {
+        LOGGER.log(Level.SEVERE, "Error reporting metrics.", e);
+      } finally {
+        dataPoints.clear();
+      }
+    });
+    if (dataPoints == nextBuffer) {
+      List<DataPoint> sent = nextBuffer;
+      nextBuffer = otherBuffer;
+      otherBuffer = sent;
+    }
+  }
+
+  /**
+   * Waits for the report being sent, if any, to finish.
+   */
+  @Override
+  public void close() {
+    sender.shutdown();
+    try {
+      if (!sender.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        sender.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      sender.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the report being sent, if any, even if interrupted: its buffer is recycled for the
+   * next report as soon as this returns. An interrupt is passed on once the wait is over.
+   */
+  private void awaitInFlight() {
+    if (inFlight == null) {
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          inFlight.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          LOGGER.log(Level.SEVERE, "Error reporting metrics.", e.getCause());
+          break;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    inFlight = null;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import ai.apptuit.metrics.client.PayloadCodecs;
+import ai.apptuit.metrics.client.PayloadFormat;
+import ai.apptuit.metrics.client.RetryPolicy;
+import ai.apptuit.metrics.client.XCollectorForwarder.Transport;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.OverflowPolicy;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.SendMode;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * Tuning knobs of {@link ApptuitReporter}, populated by {@link ApptuitReporterFactory}.
+ */
+class ReporterOptions {
+
+  int sanitizerCacheSize = 0;
+  int nameCacheSize = 100000;
+  int filterCacheSize = 100000;
+  SendMode sendMode = SendMode.SYNC;
+  int sendQueueCapacity = 4;
+  OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+  long overflowTimeoutMillis = 5000;
+  int senderThreads = 1;
+  String spoolDirectory = null;
+  long spoolMaxBytes = 64 * 1024 * 1024;
+  RetryPolicy retryPolicy = RetryPolicy.NONE;
+  int maxBatchPoints = Integer.MAX_VALUE;
+  long maxBatchBytes = Long.MAX_VALUE;
+  int uploadParallelism = 1;
+  PayloadFormat payloadFormat = PayloadFormat.JSON;
+  String payloadCodec = PayloadCodecs.GZIP;
+  int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  boolean adaptiveCompression = false;
+  Transport xcollectorTransport = Transport.UDP;
+  int xcollectorPort = 0;
+  int collectionParallelism = 1;
+  ExecutorService collectionExecutor = null;
+  boolean suppressUnchanged = false;
+  long heartbeatSeconds = 300;
+}
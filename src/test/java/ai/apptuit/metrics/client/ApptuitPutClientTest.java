@@ -17,6 +17,8 @@
 package ai.apptuit.metrics.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import ai.apptuit.metrics.client.ApptuitPutClient.DatapointsHttpEntity;
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
@@ -24,7 +26,9 @@ import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedInputStream;
@@ -34,19 +38,27 @@ import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.json.simple.parser.ParseException;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author Rajiv Shivane
@@ -56,6 +68,9 @@ public class ApptuitPutClientTest {
 
   private static MockServer httpServer;
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   private TagEncodedMetricName tagEncodedMetricName;
   private HashMap<String, String> globalTags;
 
@@ -130,15 +145,407 @@ public class ApptuitPutClientTest {
 
   @Test
   public void testPut200() throws Exception {
-    testPut(200);
+    PutResult result = testPut(200);
+    assertTrue(result.isSuccess());
+    assertEquals(1, result.getAttempts());
+    assertEquals(1, result.getSuccessCount());
+    assertEquals(0, result.getFailedCount());
+    assertEquals(0, result.getPointErrors().size());
   }
 
   @Test
   public void testPut400() throws Exception {
-    testPut(400);
+    PutResult result = testPut(400);
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, result.getStatus());
+    assertFalse(result.isSuccess());
+    assertFalse(result.isRetryable());
+    assertEquals(223, result.getSuccessCount());
+    assertEquals(2, result.getFailedCount());
+    assertEquals(2, result.getPointErrors().size());
+    PutResult.PointError error = result.getPointErrors().get(1);
+    assertEquals("Unable to parse value to a number", error.getError());
+    assertEquals("tomcat.requests.duration.mean", error.getDataPoint().get("metric"));
+    assertEquals("NaN", error.getDataPoint().get("value"));
+  }
+
+  @Test
+  public void testPutReusesConnection() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.put(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.put(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    List<InetSocketAddress> remoteAddresses = httpServer.getRemoteAddresses();
+    assertEquals(2, remoteAddresses.size());
+    assertEquals(remoteAddresses.get(0), remoteAddresses.get(1));
+    assertEquals(1, client.getConnectionsCreated());
+    assertEquals(1, client.getConnectionsReused());
+    assertEquals(2, httpServer.getRequestBodies().size());
+  }
+
+  @Test
+  public void testPutDoesNotReuseClosedConnection() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+
+    URL apiEndPoint = new URL(httpServer.getUrl(HttpURLConnection.HTTP_OK) + "?connection=close");
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags, apiEndPoint);
+    client.put(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.put(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertEquals(2, httpServer.getExchanges().size());
+    assertEquals(2, client.getConnectionsCreated());
+    assertEquals(0, client.getConnectionsReused());
+  }
+
+  @Test
+  public void testStreamingPut() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.put(writer -> dataPoints.forEach(writer), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    DataPoint[] unmarshalledDPs = Util.jsonToDataPoints(httpServer.getRequestBodies().get(0));
+    assertEquals(10, unmarshalledDPs.length);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(getExpectedDataPoint(dataPoints.get(i), globalTags), unmarshalledDPs[i]);
+    }
+  }
+
+  @Test
+  public void testFailedStreamingPutIsNotSpooled() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(tempFolder.newFolder("spool"), 1024 * 1024);
+
+    httpServer.failNextRequests(1);
+    int[] runs = {0};
+    client.put(writer -> {
+      runs[0]++;
+      createDataPoints(2).forEach(writer);
+    }, Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertEquals(1, runs[0]);
+    assertEquals(0, client.getSpooledBatches());
+    assertEquals(1, httpServer.getRequestBodies().size());
+  }
+
+  @Test
+  public void testFailedPutIsSpooledAndReplayed() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(tempFolder.newFolder("spool"), 1024 * 1024);
+
+    httpServer.failNextRequests(1);
+    client.put(createDataPoints(1), Sanitizer.NO_OP_SANITIZER);
+    assertEquals(1, client.getSpooledBatches());
+
+    client.put(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(3, requestBodies.size());
+    assertEquals(requestBodies.get(0), requestBodies.get(2));
+    assertEquals(1, Util.jsonToDataPoints(requestBodies.get(2)).length);
+    assertEquals("Bearer " + MockServer.token,
+            httpServer.getExchanges().get(2).getRequestHeaders().getFirst("Authorization"));
+    assertEquals(0, client.getSpooledBatches());
+  }
+
+  @Test
+  public void testFailedPutIsRetried() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(tempFolder.newFolder("spool"), 1024 * 1024);
+    client.setRetryPolicy(new RetryPolicy(3, 1, 10));
+
+    httpServer.failNextRequests(2);
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertEquals(3, result.getAttempts());
+    assertEquals(2, client.getRetries());
+    assertEquals(0, client.getSpooledBatches());
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(3, requestBodies.size());
+    assertEquals(requestBodies.get(0), requestBodies.get(2));
+  }
+
+  @Test
+  public void testRetryHonoursRetryAfter() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setRetryPolicy(new RetryPolicy(2, 1, 5000));
+
+    httpServer.failNextRequests(1, "1");
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertEquals(2, result.getAttempts());
+    assertTrue(result.getDurationMillis() >= 1000);
+  }
+
+  @Test
+  public void testRetryAfterBeyondMaxBackoffIsSpooled() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(tempFolder.newFolder("spool"), 1024 * 1024);
+    client.setRetryPolicy(new RetryPolicy(3, 1, 1000));
+
+    httpServer.failNextRequests(1, "120");
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, result.getStatus());
+    assertTrue(result.isRetryable());
+    assertEquals(1, result.getAttempts());
+    assertEquals(120000, result.getRetryAfterMillis());
+    assertEquals(-1, result.getSuccessCount());
+    assertEquals(0, client.getRetries());
+    assertEquals(1, client.getSpooledBatches());
+  }
+
+  @Test
+  public void testPutWithCompressionLevels() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setCompressionLevel(1);
+    assertEquals(1, client.getCompressionLevel());
+    client.put(createDataPoints(3), Sanitizer.NO_OP_SANITIZER);
+    client.setAdaptiveCompression(true);
+    assertTrue(client.isAdaptiveCompression());
+    client.put(createDataPoints(3), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(2, requestBodies.size());
+    assertEquals(requestBodies.get(0), requestBodies.get(1));
+    assertEquals(3, Util.jsonToDataPoints(requestBodies.get(1)).length);
+  }
+
+  @Test
+  public void testPutWithPayloadCodecs() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    ArrayList<DataPoint> dataPoints = createDataPoints(5);
+    String[] encodings = {PayloadCodecs.LZ4, PayloadCodecs.DEFLATE, PayloadCodecs.IDENTITY};
+    for (String encoding : encodings) {
+      client.setPayloadCodec(PayloadCodecs.forName(encoding, 1, false));
+      assertTrue(client.send(dataPoints, Sanitizer.NO_OP_SANITIZER).isSuccess());
+    }
+    client.close();
+
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(encodings.length, requestBodies.size());
+    for (int i = 0; i < encodings.length; i++) {
+      String contentEncoding = httpServer.getExchanges().get(i).getRequestHeaders()
+              .getFirst("Content-Encoding");
+      assertEquals(i < 2 ? encodings[i] : null, contentEncoding);
+      DataPoint[] unmarshalledDPs = Util.jsonToDataPoints(requestBodies.get(i));
+      assertEquals(5, unmarshalledDPs.length);
+      assertEquals(getExpectedDataPoint(dataPoints.get(4), globalTags), unmarshalledDPs[4]);
+    }
+  }
+
+  @Test
+  public void testRejectedEncodingIsNegotiated() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setPayloadCodec(PayloadCodecs.lz4());
+    httpServer.rejectEncodings("br, deflate;q=0, gzip", PayloadCodecs.LZ4);
+
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    assertTrue(result.isSuccess());
+    assertEquals(PayloadCodecs.GZIP, client.getPayloadCodec().getContentEncoding());
+    client.put(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    List<HttpExchange> exchanges = httpServer.getExchanges();
+    assertEquals(3, exchanges.size());
+    assertEquals(PayloadCodecs.LZ4,
+            exchanges.get(0).getRequestHeaders().getFirst("Content-Encoding"));
+    assertEquals(PayloadCodecs.GZIP,
+            exchanges.get(2).getRequestHeaders().getFirst("Content-Encoding"));
+  }
+
+  @Test
+  public void testPutBinaryFormat() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setPayloadFormat(PayloadFormat.BINARY);
+    ArrayList<DataPoint> dataPoints = createDataPoints(20);
+    assertTrue(client.send(dataPoints, Sanitizer.NO_OP_SANITIZER).isSuccess());
+    client.close();
+
+    HttpExchange exchange = httpServer.getExchanges().get(0);
+    assertEquals(BinaryBatchEncoder.CONTENT_TYPE,
+            exchange.getRequestHeaders().getFirst("Content-Type"));
+    assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+    DataPoint[] unmarshalledDPs = Util.jsonToDataPoints(httpServer.getRequestBodies().get(0));
+    assertEquals(20, unmarshalledDPs.length);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(getExpectedDataPoint(dataPoints.get(i), globalTags), unmarshalledDPs[i]);
+    }
+  }
+
+  @Test
+  public void testPutColumnarFormat() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setPayloadFormat(PayloadFormat.COLUMNAR);
+    ArrayList<DataPoint> dataPoints = createDataPoints(20);
+    assertTrue(client.send(dataPoints, Sanitizer.NO_OP_SANITIZER).isSuccess());
+    client.close();
+
+    assertEquals(ColumnarBatchEncoder.CONTENT_TYPE,
+            httpServer.getExchanges().get(0).getRequestHeaders().getFirst("Content-Type"));
+    DataPoint[] unmarshalledDPs = Util.jsonToDataPoints(httpServer.getRequestBodies().get(0));
+    Set<DataPoint> expected = new HashSet<>();
+    for (DataPoint dataPoint : dataPoints) {
+      expected.add(getExpectedDataPoint(dataPoint, globalTags));
+    }
+    assertEquals(20, unmarshalledDPs.length);
+    assertEquals(expected, new HashSet<>(Arrays.asList(unmarshalledDPs)));
+  }
+
+  @Test
+  public void testRejectedBinaryFormatFallsBackToJson() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setPayloadFormat(PayloadFormat.BINARY);
+    httpServer.rejectContentTypes(BinaryBatchEncoder.CONTENT_TYPE);
+
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertEquals(PayloadFormat.JSON, client.getPayloadFormat());
+    assertEquals(PayloadCodecs.GZIP, client.getPayloadCodec().getContentEncoding());
+    List<HttpExchange> exchanges = httpServer.getExchanges();
+    assertEquals(2, exchanges.size());
+    assertEquals("application/json",
+            exchanges.get(1).getRequestHeaders().getFirst("Content-Type"));
+    assertEquals(2, Util.jsonToDataPoints(httpServer.getRequestBodies().get(1)).length);
+  }
+
+  @Test
+  public void testRejectedGzipFallsBackToIdentity() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    httpServer.rejectEncodings(null, PayloadCodecs.GZIP);
+
+    PutResult result = client.send(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertEquals(null, client.getPayloadCodec().getContentEncoding());
+    assertEquals(2, Util.jsonToDataPoints(httpServer.getRequestBodies().get(1)).length);
+  }
+
+  @Test
+  public void testLargeBatchIsSplit() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setMaxBatchPoints(4);
+
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+    PutResult result = client.send(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertEquals(3, result.getShards().size());
+    assertEquals(3, result.getAttempts());
+    assertEquals(3, result.getSuccessCount());
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(3, requestBodies.size());
+    int[] expectedSizes = {4, 4, 2};
+    int offset = 0;
+    for (int i = 0; i < expectedSizes.length; i++) {
+      DataPoint[] unmarshalledDPs = Util.jsonToDataPoints(requestBodies.get(i));
+      assertEquals(expectedSizes[i], unmarshalledDPs.length);
+      for (DataPoint dataPoint : unmarshalledDPs) {
+        assertEquals(getExpectedDataPoint(dataPoints.get(offset++), globalTags), dataPoint);
+      }
+    }
+  }
+
+  @Test
+  public void testShardsAreUploadedInParallel() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.setMaxBatchBytes(512);
+    client.setUploadParallelism(3);
+
+    ArrayList<DataPoint> dataPoints = createDataPoints(200);
+    PutResult result = client.send(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertTrue(result.isSuccess());
+    assertTrue(result.getShards().size() > 1);
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(result.getShards().size(), requestBodies.size());
+    Set<DataPoint> received = new HashSet<>();
+    for (String requestBody : requestBodies) {
+      received.addAll(Arrays.asList(Util.jsonToDataPoints(requestBody)));
+    }
+    Set<DataPoint> expected = new HashSet<>();
+    dataPoints.forEach(dataPoint -> expected.add(getExpectedDataPoint(dataPoint, globalTags)));
+    assertEquals(expected, received);
+  }
+
+  @Test
+  public void testFailedShardIsSpooled() throws Exception {
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(tempFolder.newFolder("spool"), 1024 * 1024);
+    client.setMaxBatchPoints(5);
+
+    httpServer.failNextRequests(1);
+    PutResult result = client.send(createDataPoints(10), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, result.getStatus());
+    assertTrue(result.isRetryable());
+    assertTrue(result.getShards().get(1).isSuccess());
+    assertEquals(1, client.getSpooledBatches());
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(2, requestBodies.size());
   }
 
-  private void testPut(int status) throws MalformedURLException, ParseException {
+  @Test
+  public void testSpoolSurvivesRestart() throws Exception {
+    File spoolDirectory = tempFolder.newFolder("spool");
+    ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(spoolDirectory, 1024 * 1024);
+    httpServer.failNextRequests(2);
+    client.put(createDataPoints(1), Sanitizer.NO_OP_SANITIZER);
+    client.put(createDataPoints(2), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    client = new ApptuitPutClient(MockServer.token, globalTags,
+            httpServer.getUrl(HttpURLConnection.HTTP_OK));
+    client.enableSpool(spoolDirectory, 1024 * 1024);
+    assertEquals(2, client.getSpooledBatches());
+    client.put(createDataPoints(3), Sanitizer.NO_OP_SANITIZER);
+    client.close();
+
+    List<String> requestBodies = httpServer.getRequestBodies();
+    assertEquals(5, requestBodies.size());
+    assertEquals(requestBodies.get(0), requestBodies.get(3));
+    assertEquals(requestBodies.get(1), requestBodies.get(4));
+    assertEquals(0, client.getSpooledBatches());
+  }
+
+  private PutResult testPut(int status) throws MalformedURLException, ParseException {
     //Util.enableHttpClientTracing();
 
     int numDataPoints = 10;
@@ -146,7 +553,7 @@ public class ApptuitPutClientTest {
 
     URL apiEndPoint = httpServer.getUrl(status);
     ApptuitPutClient client = new ApptuitPutClient(MockServer.token, globalTags, apiEndPoint);
-    client.put(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    PutResult result = client.send(dataPoints, Sanitizer.NO_OP_SANITIZER);
 
     List<HttpExchange> exchanges = httpServer.getExchanges();
     List<String> requestBodies = httpServer.getRequestBodies();
@@ -166,6 +573,7 @@ public class ApptuitPutClientTest {
     for (int i = 0; i < numDataPoints; i++) {
       assertEquals(getExpectedDataPoint(dataPoints.get(i), globalTags), unmarshalledDPs[i]);
     }
+    return result;
   }
 
   private ArrayList<DataPoint> createDataPoints(int numDataPoints) {
@@ -198,6 +606,12 @@ public class ApptuitPutClientTest {
     private HttpServer httpServer;
     private List<HttpExchange> exchanges = new ArrayList<>();
     private List<String> requestBodies = new ArrayList<>();
+    private List<InetSocketAddress> remoteAddresses = new ArrayList<>();
+    private int requestsToFail = 0;
+    private String retryAfter = null;
+    private Set<String> rejectedEncodings = Collections.emptySet();
+    private Set<String> rejectedContentTypes = Collections.emptySet();
+    private String acceptEncoding = null;
 
     public MockServer() throws IOException {
       httpServer = HttpServer.create(new InetSocketAddress(port), 0);
@@ -232,18 +646,80 @@ public class ApptuitPutClientTest {
       return requestBodies;
     }
 
+    public List<InetSocketAddress> getRemoteAddresses() {
+      return remoteAddresses;
+    }
+
     public void resetCapturedData() {
       exchanges.clear();
       requestBodies.clear();
+      remoteAddresses.clear();
+      requestsToFail = 0;
+      retryAfter = null;
+      rejectedEncodings = Collections.emptySet();
+      rejectedContentTypes = Collections.emptySet();
+      acceptEncoding = null;
+    }
+
+    /**
+     * Answers requests in the given encodings with 415 Unsupported Media Type, listing
+     * {@code acceptEncoding} as the acceptable ones, unless null.
+     */
+    public void rejectEncodings(String acceptEncoding, String... encodings) {
+      this.rejectedEncodings = new HashSet<>(Arrays.asList(encodings));
+      this.acceptEncoding = acceptEncoding;
+    }
+
+    /**
+     * Answers requests with the given content types with 415 Unsupported Media Type.
+     */
+    public void rejectContentTypes(String... contentTypes) {
+      this.rejectedContentTypes = new HashSet<>(Arrays.asList(contentTypes));
+    }
+
+    public void failNextRequests(int count) {
+      failNextRequests(count, null);
+    }
+
+    public void failNextRequests(int count, String retryAfter) {
+      requestsToFail = count;
+      this.retryAfter = retryAfter;
     }
 
     private void handleExchange(HttpExchange exchange) throws IOException {
       exchanges.add(exchange);
-      requestBodies.add(streamToString(exchange.getRequestBody()));
+      remoteAddresses.add(exchange.getRemoteAddress());
+      String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+      String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      if (rejectedEncodings.contains(String.valueOf(contentEncoding))
+          || rejectedContentTypes.contains(contentType)) {
+        InputStream body = exchange.getRequestBody();
+        while (body.read(new byte[1024]) >= 0) {
+          // Drain the rejected body so that the connection stays usable
+        }
+        requestBodies.add(null);
+        if (acceptEncoding != null) {
+          exchange.getResponseHeaders().set("Accept-Encoding", acceptEncoding);
+        }
+        exchange.sendResponseHeaders(415, -1);
+        exchange.close();
+        return;
+      }
+      requestBodies.add(decodeBody(exchange.getRequestBody(), contentEncoding, contentType));
 
       int status = getResponseType(exchange);
+      if (requestsToFail > 0) {
+        requestsToFail--;
+        status = HttpURLConnection.HTTP_UNAVAILABLE;
+      }
       byte[] response = null;
       switch (status) {
+        case HttpURLConnection.HTTP_UNAVAILABLE:
+          response = "Service Unavailable".getBytes();
+          if (retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+          }
+          break;
         case HttpURLConnection.HTTP_BAD_REQUEST:
           response = STATUS400_RESPONSE_BODY.getBytes();
           break;
@@ -252,11 +728,47 @@ public class ApptuitPutClientTest {
           status = HttpURLConnection.HTTP_OK;
           break;
       }
+      if ("connection=close".equals(exchange.getRequestURI().getRawQuery())) {
+        exchange.getResponseHeaders().set("Connection", "close");
+      }
       exchange.sendResponseHeaders(status, response.length);
       exchange.getResponseBody().write(response);
       exchange.close();
     }
 
+    /**
+     * @return the body as a JSON array of points, converted from a binary format if need be
+     */
+    private String decodeBody(InputStream body, String contentEncoding, String contentType)
+        throws IOException {
+      InputStream decoded;
+      if (contentEncoding == null) {
+        decoded = body;
+      } else {
+        switch (contentEncoding) {
+          case "gzip":
+            decoded = new GZIPInputStream(body);
+            break;
+          case "deflate":
+            decoded = new InflaterInputStream(body);
+            break;
+          case "x-lz4-block":
+            decoded = new ByteArrayInputStream(Lz4BlockDecoder.decode(body));
+            break;
+          default:
+            throw new IOException("Unknown encoding " + contentEncoding);
+        }
+      }
+      if (!PayloadFormat.JSON.getContentType().equals(contentType)) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        DataPointsJsonEncoder.get().write(json, BinaryBatchDecoder.decode(decoded),
+            GlobalTagsFragment.of(Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER),
+            Sanitizer.NO_OP_SANITIZER);
+        return new String(json.toByteArray(), StandardCharsets.UTF_8);
+      }
+      return new Scanner(decoded, "UTF-8").useDelimiter("\0").next();
+    }
+
     private int getResponseType(HttpExchange exchange) {
       URI uri = exchange.getRequestURI();
       String rawQuery = uri.getRawQuery();
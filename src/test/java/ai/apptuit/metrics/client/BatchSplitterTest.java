@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+public class BatchSplitterTest {
+
+  private static final GlobalTagsFragment NO_GLOBAL_TAGS =
+      GlobalTagsFragment.of(Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER);
+
+  @Test
+  public void testSplitByCompressedSize() throws Exception {
+    List<DataPoint> dataPoints = createDataPoints(5000);
+    int maxBytes = 4096;
+    List<BatchSplitter.Shard> shards = new BatchSplitter(Integer.MAX_VALUE, maxBytes)
+        .split(dataPoints, NO_GLOBAL_TAGS, Sanitizer.NO_OP_SANITIZER, PayloadFormat.JSON,
+            DeflaterCodec.DEFAULT_GZIP);
+
+    assertTrue(shards.size() > 1);
+    List<DataPoint> decoded = new ArrayList<>();
+    for (BatchSplitter.Shard shard : shards) {
+      // A shard may overshoot by the points written since its last size check
+      assertTrue(shard.size() < maxBytes * 1.25);
+      DataPoint[] points = decode(shard, true);
+      assertEquals(shard.getPointCount(), points.length);
+      decoded.addAll(Arrays.asList(points));
+    }
+    assertEquals(dataPoints, decoded);
+    for (int i = 0; i < shards.size() - 1; i++) {
+      assertTrue(shards.get(i).size() > maxBytes / 2);
+    }
+  }
+
+  @Test
+  public void testSplitByPointCountUncompressed() throws Exception {
+    List<DataPoint> dataPoints = createDataPoints(25);
+    List<BatchSplitter.Shard> shards = new BatchSplitter(10, Long.MAX_VALUE)
+        .split(dataPoints, NO_GLOBAL_TAGS, Sanitizer.NO_OP_SANITIZER, PayloadFormat.JSON,
+            PayloadCodecs.identity());
+
+    assertEquals(3, shards.size());
+    assertEquals(10, decode(shards.get(0), false).length);
+    assertEquals(10, decode(shards.get(1), false).length);
+    assertEquals(5, decode(shards.get(2), false).length);
+  }
+
+  @Test
+  public void testSplitColumnarByCompressedSize() throws Exception {
+    List<DataPoint> dataPoints = createDataPoints(5000);
+    int maxBytes = 2048;
+    List<BatchSplitter.Shard> shards = new BatchSplitter(Integer.MAX_VALUE, maxBytes)
+        .split(dataPoints, NO_GLOBAL_TAGS, Sanitizer.NO_OP_SANITIZER, PayloadFormat.COLUMNAR,
+            DeflaterCodec.DEFAULT_GZIP);
+
+    assertTrue(shards.size() > 1);
+    Set<DataPoint> decoded = new HashSet<>();
+    for (BatchSplitter.Shard shard : shards) {
+      assertTrue(shard.size() < maxBytes * 1.25);
+      List<DataPoint> points = BinaryBatchDecoder.decode(
+          new GZIPInputStream(new ByteArrayInputStream(shard.toByteArray())));
+      assertEquals(shard.getPointCount(), points.size());
+      decoded.addAll(points);
+    }
+    assertEquals(new HashSet<>(dataPoints), decoded);
+  }
+
+  @Test
+  public void testFirstPointsOfShardAreNotFlushedOneByOne() throws Exception {
+    // Point count of the shard at the first size check of each shard
+    List<Integer> firstChecks = new ArrayList<>();
+    PayloadCodec recordingCodec = new PayloadCodec() {
+      @Override
+      public String getContentEncoding() {
+        return DeflaterCodec.DEFAULT_GZIP.getContentEncoding();
+      }
+
+      @Override
+      public EncodingOutputStream open(OutputStream out, boolean syncFlush) throws IOException {
+        EncodingOutputStream gzip = DeflaterCodec.DEFAULT_GZIP.open(out, syncFlush);
+        firstChecks.add(-1);
+        return new EncodingOutputStream(out) {
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            gzip.write(b, off, len);
+          }
+
+          @Override
+          public void flush() throws IOException {
+            int last = firstChecks.size() - 1;
+            if (firstChecks.get(last) < 0) {
+              firstChecks.set(last, ((BatchSplitter.Shard) out).getPointCount());
+            }
+            gzip.flush();
+          }
+
+          @Override
+          public void finish() throws IOException {
+            gzip.finish();
+          }
+
+          @Override
+          public void release() {
+            gzip.release();
+          }
+        };
+      }
+    };
+
+    List<BatchSplitter.Shard> shards = new BatchSplitter(Integer.MAX_VALUE, 4096)
+        .split(createDataPoints(5000), NO_GLOBAL_TAGS, Sanitizer.NO_OP_SANITIZER,
+            PayloadFormat.JSON, recordingCodec);
+
+    assertTrue(shards.size() > 2);
+    for (int i = 0; i < shards.size() - 1; i++) {
+      assertTrue("shard " + i + " checked at " + firstChecks.get(i), firstChecks.get(i) >= 32);
+    }
+  }
+
+  private static DataPoint[] decode(BatchSplitter.Shard shard, boolean zipped) throws Exception {
+    ByteArrayInputStream in = new ByteArrayInputStream(shard.toByteArray());
+    String json = new Scanner(zipped ? new GZIPInputStream(in) : in).useDelimiter("\0\0").next();
+    return Util.jsonToDataPoints(json);
+  }
+
+  private static List<DataPoint> createDataPoints(int count) {
+    List<DataPoint> dataPoints = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      dataPoints.add(new DataPoint("batch.splitter.metric" + (i % 37), 1500000000L + i, (long) i,
+          Collections.singletonMap("host", "host-" + (i % 11))));
+    }
+    return dataPoints;
+  }
+}
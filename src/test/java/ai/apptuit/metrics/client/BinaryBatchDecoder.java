@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes batches written by {@link BinaryBatchEncoder} or {@link ColumnarBatchEncoder}, the way
+ * an end point would. Global tags are merged into the tags of every point.
+ */
+class BinaryBatchDecoder {
+
+  private final DataInputStream in;
+  private final List<String> strings = new ArrayList<>();
+  private final List<String[]> pairs = new ArrayList<>();
+  private final List<String> seriesMetrics = new ArrayList<>();
+  private final List<Map<String, String>> seriesTags = new ArrayList<>();
+  private final Map<String, String> globalTags = new LinkedHashMap<>();
+
+  private BinaryBatchDecoder(InputStream in) {
+    this.in = new DataInputStream(in);
+  }
+
+  static List<DataPoint> decode(byte[] batch) throws IOException {
+    return decode(new ByteArrayInputStream(batch));
+  }
+
+  static List<DataPoint> decode(InputStream in) throws IOException {
+    return new BinaryBatchDecoder(in).decode();
+  }
+
+  private List<DataPoint> decode() throws IOException {
+    byte[] magic = new byte[BinaryBatchEncoder.MAGIC.length];
+    in.readFully(magic);
+    boolean columnar = Arrays.equals(ColumnarBatchEncoder.MAGIC, magic);
+    if (!columnar && !Arrays.equals(BinaryBatchEncoder.MAGIC, magic)) {
+      throw new IOException("Not a binary batch");
+    }
+    long globalTagCount = readVarint();
+    for (int i = 0; i < globalTagCount; i++) {
+      String[] pair = readPair();
+      globalTags.put(pair[0], pair[1]);
+    }
+    return columnar ? decodeBlocks() : decodePoints();
+  }
+
+  private List<DataPoint> decodePoints() throws IOException {
+    List<DataPoint> dataPoints = new ArrayList<>();
+    long timestamp = 0;
+    for (long ref = readVarint(); ref != 0; ref = readVarint()) {
+      int seriesId = readSeries((int) (ref - 1));
+      timestamp += readZigzag();
+      Number value;
+      byte type = in.readByte();
+      if (type == BinaryBatchEncoder.LONG_VALUE) {
+        value = in.readLong();
+      } else if (type == BinaryBatchEncoder.DOUBLE_VALUE) {
+        value = in.readDouble();
+      } else {
+        throw new IOException("Unknown value type " + type);
+      }
+      dataPoints.add(new DataPoint(seriesMetrics.get(seriesId), timestamp, value,
+          seriesTags.get(seriesId)));
+    }
+    return dataPoints;
+  }
+
+  private List<DataPoint> decodeBlocks() throws IOException {
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (long seriesCount = readVarint(); seriesCount != 0; seriesCount = readVarint()) {
+      boolean sharedTimestamp = in.readByte() == ColumnarBatchEncoder.SHARED_TIMESTAMP;
+      long baseTimestamp = readZigzag();
+      for (int i = 0; i < seriesCount; i++) {
+        int seriesId = readSeries((int) readVarint());
+        int pointCount = (int) readVarint();
+        long[] timestamps = new long[pointCount];
+        for (int j = 0; j < pointCount; j++) {
+          timestamps[j] = baseTimestamp + (sharedTimestamp ? 0 : readZigzag());
+        }
+        byte columnType = in.readByte();
+        for (int j = 0; j < pointCount; j++) {
+          byte type = columnType == ColumnarBatchEncoder.MIXED_VALUES ? in.readByte() : columnType;
+          Number value;
+          if (type == ColumnarBatchEncoder.LONG_VALUE) {
+            value = readZigzag();
+          } else if (type == ColumnarBatchEncoder.DOUBLE_VALUE) {
+            value = in.readDouble();
+          } else {
+            throw new IOException("Unknown value type " + type);
+          }
+          dataPoints.add(new DataPoint(seriesMetrics.get(seriesId), timestamps[j], value,
+              seriesTags.get(seriesId)));
+        }
+      }
+    }
+    return dataPoints;
+  }
+
+  /**
+   * @return {@code seriesId}, after reading the series if it is a new one
+   */
+  private int readSeries(int seriesId) throws IOException {
+    if (seriesId == seriesMetrics.size()) {
+      seriesMetrics.add(readString());
+      Map<String, String> tags = new HashMap<>();
+      long tagCount = readVarint();
+      for (int i = 0; i < tagCount; i++) {
+        String[] pair = readPair();
+        tags.put(pair[0], pair[1]);
+      }
+      tags.putAll(globalTags);
+      seriesTags.add(tags);
+    }
+    return seriesId;
+  }
+
+  private String[] readPair() throws IOException {
+    int id = (int) readVarint();
+    if (id == pairs.size()) {
+      pairs.add(new String[]{readString(), readString()});
+    }
+    return pairs.get(id);
+  }
+
+  private String readString() throws IOException {
+    int id = (int) readVarint();
+    if (id == strings.size()) {
+      byte[] bytes = new byte[(int) readVarint()];
+      in.readFully(bytes);
+      strings.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    return strings.get(id);
+  }
+
+  private long readZigzag() throws IOException {
+    long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class BinaryBatchEncoderTest {
+
+  @Test
+  public void testEmptyBatch() throws Exception {
+    assertEquals(Collections.emptyList(),
+        BinaryBatchDecoder.decode(encode(Collections.emptyList(), Collections.emptyMap(),
+            Sanitizer.NO_OP_SANITIZER)));
+  }
+
+  @Test
+  public void testSamePointsAsJson() throws Exception {
+    List<DataPoint> dataPoints = createDataPoints(500);
+    Map<String, String> globalTags = Collections.singletonMap("env", "dev");
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(encode(dataPoints, globalTags,
+        Sanitizer.NO_OP_SANITIZER));
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    DataPointsJsonEncoder.get().write(json, dataPoints,
+        GlobalTagsFragment.of(globalTags, Sanitizer.NO_OP_SANITIZER), Sanitizer.NO_OP_SANITIZER);
+    DataPoint[] fromJson = Util.jsonToDataPoints(json.toString("UTF-8"));
+
+    assertArrayEquals(fromJson, decoded.toArray());
+  }
+
+  @Test
+  public void testGlobalTagsOverridePointTags() throws Exception {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("host", "point");
+    tags.put("type", "idle");
+    Map<String, String> globalTags = new LinkedHashMap<>();
+    globalTags.put("env", "dev");
+    globalTags.put("host", "global");
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(encode(
+        Collections.singletonList(new DataPoint("m", 1, 1, tags)), globalTags,
+        Sanitizer.NO_OP_SANITIZER));
+
+    Map<String, String> expectedTags = new HashMap<>();
+    expectedTags.put("type", "idle");
+    expectedTags.put("env", "dev");
+    expectedTags.put("host", "global");
+    assertEquals(Collections.singletonList(new DataPoint("m", 1, 1L, expectedTags)), decoded);
+  }
+
+  @Test
+  public void testNamesAreSanitized() throws Exception {
+    Map<String, String> tags = Collections.singletonMap("tag key", "tag value");
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(encode(
+        Collections.singletonList(new DataPoint("metric name", 1, 1, tags)),
+        Collections.emptyMap(), Sanitizer.PROMETHEUS_SANITIZER));
+
+    assertEquals(new DataPoint("metric_name", 1, 1L,
+        Collections.singletonMap("tag_key", "tag value")), decoded.get(0));
+  }
+
+  @Test
+  public void testValuesAndTimestamps() throws Exception {
+    Number[] values = {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1.5, -0.0, Double.NaN, 0.1f};
+    long[] timestamps = {1500000000000L, 0, -5, Long.MAX_VALUE, 1500000000000L, 7, 7, 3};
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (int i = 0; i < values.length; i++) {
+      dataPoints.add(new DataPoint("métric", timestamps[i], values[i],
+          Collections.singletonMap("unicode", "é中😀")));
+    }
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(encode(dataPoints,
+        Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER));
+
+    assertEquals(values.length, decoded.size());
+    for (int i = 0; i < values.length; i++) {
+      DataPoint dataPoint = decoded.get(i);
+      assertEquals("métric", dataPoint.getMetric());
+      assertEquals("é中😀", dataPoint.getTags().get("unicode"));
+      assertEquals(timestamps[i], dataPoint.getTimestamp());
+    }
+    assertEquals(Long.MIN_VALUE, decoded.get(3).getValue());
+    assertEquals(1.5, decoded.get(4).getValue());
+    assertEquals(-0.0, decoded.get(5).getValue());
+    assertEquals(Double.NaN, decoded.get(6).getValue());
+    assertEquals(0.1, decoded.get(7).getValue());
+  }
+
+  @Test
+  public void testLongStringsSpanBuffers() throws Exception {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      value.append("value-").append(i);
+    }
+    DataPoint dataPoint = new DataPoint("m", 1, 1L,
+        Collections.singletonMap("long", value.toString()));
+
+    assertEquals(Collections.singletonList(dataPoint), BinaryBatchDecoder.decode(encode(
+        Collections.singletonList(dataPoint), Collections.emptyMap(),
+        Sanitizer.NO_OP_SANITIZER)));
+  }
+
+  @Test
+  public void testSmallerThanJson() throws Exception {
+    List<DataPoint> dataPoints = createDataPoints(1000);
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    DataPointsJsonEncoder.get().write(json, dataPoints,
+        GlobalTagsFragment.of(Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER),
+        Sanitizer.NO_OP_SANITIZER);
+
+    byte[] binary = encode(dataPoints, Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER);
+    assertTrue(binary.length * 4 < json.size());
+  }
+
+  private static byte[] encode(List<DataPoint> dataPoints, Map<String, String> globalTags,
+      Sanitizer sanitizer) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryBatchEncoder encoder = BinaryBatchEncoder.get();
+    encoder.begin(out, GlobalTagsFragment.of(globalTags, sanitizer), sanitizer);
+    for (DataPoint dataPoint : dataPoints) {
+      encoder.writeDataPoint(dataPoint);
+    }
+    encoder.end();
+    return out.toByteArray();
+  }
+
+  private static List<DataPoint> createDataPoints(int count) {
+    List<DataPoint> dataPoints = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Map<String, String> tags = new HashMap<>();
+      tags.put("host", "host-" + (i % 7));
+      tags.put("core", Integer.toString(i % 4));
+      dataPoints.add(new DataPoint("proc.stat.cpu.percentage_" + (i % 5),
+          1500000000000L + (i / 20) * 1000L, (long) i * 3, tags));
+    }
+    return dataPoints;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class ColumnarBatchEncoderTest {
+
+  private static final long EPOCH = 1500000000000L;
+
+  @Test
+  public void testEmptyBatch() throws Exception {
+    assertEquals(Collections.emptyList(), BinaryBatchDecoder.decode(
+        encode(ColumnarBatchEncoder.get(), Collections.emptyList(), Collections.emptyMap())));
+  }
+
+  @Test
+  public void testSamePointSetAsJson() throws Exception {
+    List<DataPoint> dataPoints = createReport(60, 5, EPOCH);
+    dataPoints.addAll(createReport(60, 5, EPOCH + 60000));
+    Map<String, String> globalTags = Collections.singletonMap("env", "dev");
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(
+        encode(ColumnarBatchEncoder.get(), dataPoints, globalTags));
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    DataPointsJsonEncoder.get().write(json, dataPoints,
+        GlobalTagsFragment.of(globalTags, Sanitizer.NO_OP_SANITIZER), Sanitizer.NO_OP_SANITIZER);
+    DataPoint[] fromJson = Util.jsonToDataPoints(json.toString("UTF-8"));
+
+    assertEquals(fromJson.length, decoded.size());
+    assertEquals(new HashSet<>(Arrays.asList(fromJson)), new HashSet<>(decoded));
+  }
+
+  @Test
+  public void testPointsAreGroupedBySeries() throws Exception {
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      dataPoints.add(new DataPoint("m" + (i % 2), EPOCH + i, (long) i, Collections.emptyMap()));
+    }
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(
+        encode(ColumnarBatchEncoder.get(), dataPoints, Collections.emptyMap()));
+
+    List<Long> values = decoded.stream().map(dp -> dp.getValue().longValue())
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList(0L, 2L, 4L, 6L, 8L, 1L, 3L, 5L, 7L, 9L), values);
+    assertEquals(EPOCH + 9, decoded.get(9).getTimestamp());
+  }
+
+  @Test
+  public void testSharedTimestampIsWrittenOnce() throws Exception {
+    List<DataPoint> report = createReport(200, 5, EPOCH);
+    int columnar = encode(ColumnarBatchEncoder.get(), report, Collections.emptyMap()).length;
+    int binary = encode(BinaryBatchEncoder.get(), report, Collections.emptyMap()).length;
+    assertTrue(columnar < binary);
+
+    // A second report at a later epoch only adds series refs and values, a few bytes per point
+    List<DataPoint> twoReports = new ArrayList<>(report);
+    twoReports.addAll(createReport(200, 5, EPOCH + 60000));
+    int growth = encode(ColumnarBatchEncoder.get(), twoReports, Collections.emptyMap()).length
+        - columnar;
+    assertTrue(growth < 200 * 10);
+  }
+
+  @Test
+  public void testMixedValuesAndTimestamps() throws Exception {
+    Number[] values = {1, 1.5, Long.MIN_VALUE, Double.NaN, -0.0, 0.1f, Long.MAX_VALUE};
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (int i = 0; i < values.length; i++) {
+      dataPoints.add(new DataPoint("m", EPOCH - i * 1000L, values[i],
+          Collections.singletonMap("unicode", "é中😀")));
+    }
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(
+        encode(ColumnarBatchEncoder.get(), dataPoints, Collections.emptyMap()));
+
+    assertEquals(values.length, decoded.size());
+    Number[] expected = {1L, 1.5, Long.MIN_VALUE, Double.NaN, -0.0, 0.1, Long.MAX_VALUE};
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(new DataPoint("m", EPOCH - i * 1000L, expected[i],
+          Collections.singletonMap("unicode", "é中😀")), decoded.get(i));
+    }
+  }
+
+  @Test
+  public void testBlocksShareSeriesDictionary() throws Exception {
+    List<DataPoint> dataPoints = createReport(ColumnarBatchEncoder.MAX_BLOCK_POINTS, 3, EPOCH);
+    dataPoints.addAll(createReport(ColumnarBatchEncoder.MAX_BLOCK_POINTS, 3, EPOCH + 60000));
+    ColumnarBatchEncoder encoder = ColumnarBatchEncoder.get();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.begin(out, GlobalTagsFragment.of(Collections.emptyMap(), Sanitizer.NO_OP_SANITIZER),
+        Sanitizer.NO_OP_SANITIZER);
+    for (int i = 0; i < dataPoints.size(); i++) {
+      encoder.writeDataPoint(dataPoints.get(i));
+      if (i == 10) {
+        encoder.flush();
+        assertTrue(out.size() > 0);
+      }
+    }
+    encoder.end();
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(out.toByteArray());
+    assertEquals(dataPoints.size(), decoded.size());
+    assertEquals(new HashSet<>(dataPoints), new HashSet<>(decoded));
+  }
+
+  @Test
+  public void testGlobalTagsOverridePointTags() throws Exception {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("host", "point");
+    tags.put("type", "idle");
+    Map<String, String> globalTags = new LinkedHashMap<>();
+    globalTags.put("env", "dev");
+    globalTags.put("host", "global");
+
+    List<DataPoint> decoded = BinaryBatchDecoder.decode(encode(ColumnarBatchEncoder.get(),
+        Collections.singletonList(new DataPoint("m", 1, 1, tags)), globalTags));
+
+    Map<String, String> expectedTags = new HashMap<>();
+    expectedTags.put("type", "idle");
+    expectedTags.put("env", "dev");
+    expectedTags.put("host", "global");
+    assertEquals(Collections.singletonList(new DataPoint("m", 1, 1L, expectedTags)), decoded);
+  }
+
+  private static byte[] encode(BatchEncoder encoder, List<DataPoint> dataPoints,
+      Map<String, String> globalTags) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.begin(out, GlobalTagsFragment.of(globalTags, Sanitizer.NO_OP_SANITIZER),
+        Sanitizer.NO_OP_SANITIZER);
+    try {
+      for (DataPoint dataPoint : dataPoints) {
+        encoder.writeDataPoint(dataPoint);
+      }
+      encoder.end();
+    } finally {
+      encoder.reset();
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return one point per series at {@code epoch}, with the metrics interleaved the way a
+   *     reporter emits the fields of its metrics
+   */
+  private static List<DataPoint> createReport(int seriesCount, int metrics, long epoch) {
+    List<DataPoint> dataPoints = new ArrayList<>(seriesCount);
+    for (int i = 0; i < seriesCount; i++) {
+      Map<String, String> tags = new HashMap<>();
+      tags.put("host", "host-" + (i / metrics % 7));
+      tags.put("instance", Integer.toString(i / metrics));
+      dataPoints.add(new DataPoint("jvm.memory.field" + (i % metrics), epoch, epoch / 1000 + i,
+          tags));
+    }
+    return dataPoints;
+  }
+}
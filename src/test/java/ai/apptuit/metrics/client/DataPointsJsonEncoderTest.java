@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class DataPointsJsonEncoderTest {
+
+  @Test
+  public void testEmptyBatch() throws Exception {
+    assertEquals("[]", encode(Collections.emptyList(), null));
+  }
+
+  @Test
+  public void testLongValues() throws Exception {
+    long[] values = {0, 1, -1, 9, 10, 99, 100, 1515, -1515, Long.MAX_VALUE, Long.MIN_VALUE,
+        Integer.MAX_VALUE, Integer.MIN_VALUE, 1000000000000000000L};
+    for (long value : values) {
+      assertEquals(value, encodeValue(value));
+    }
+    assertEquals(42L, encodeValue(42));
+  }
+
+  @Test
+  public void testDoubleValues() throws Exception {
+    double[] values = {0.0, -0.0, 1.0, -1.5, 0.1, 0.2 + 0.1, 1.0 / 3, 123456.789, 1e7, 1e-7,
+        1e300, -1e-300, Double.MAX_VALUE, Double.MIN_VALUE, Math.PI, 2.5e15};
+    for (double value : values) {
+      assertEquals(value, encodeValue(value));
+    }
+    Random random = new Random(1515);
+    for (int i = 0; i < 10000; i++) {
+      double value = random.nextInt(1000000) / 1000.0;
+      assertEquals(value, encodeValue(value));
+      value = random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10);
+      assertEquals(value, encodeValue(value));
+    }
+  }
+
+  @Test
+  public void testDoubleFormatting() throws Exception {
+    assertEquals("1.0", encodeRawValue(1.0));
+    assertEquals("-0.0", encodeRawValue(-0.0));
+    assertEquals("0.25", encodeRawValue(0.25));
+    assertEquals("-123.456", encodeRawValue(-123.456));
+    assertEquals("0.001", encodeRawValue(0.001));
+    assertEquals("NaN", encodeRawValue(Double.NaN));
+    assertEquals("0.1", encodeRawValue(0.1f));
+  }
+
+  @Test
+  public void testFloatValues() throws Exception {
+    float[] values = {0.1f, 3.14159f, -2.5f, 1e20f, Float.MIN_VALUE};
+    for (float value : values) {
+      assertEquals(Double.valueOf(Float.toString(value)), encodeValue(value));
+    }
+  }
+
+  @Test
+  public void testEscapedStrings() throws Exception {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("quote", "a\"b\\c");
+    tags.put("control", "line1\nline2\t\u0001");
+    tags.put("unicode", "é中😀");
+    tags.put("unpaired", "x\ud83dy");
+    DataPoint dataPoint = new DataPoint("métric", 1, 1, tags);
+
+    JSONObject json = parse(encode(Collections.singletonList(dataPoint), null));
+    assertEquals("métric", json.get("metric"));
+    JSONObject parsedTags = (JSONObject) json.get("tags");
+    assertEquals("a\"b\\c", parsedTags.get("quote"));
+    assertEquals("line1\nline2\t\u0001", parsedTags.get("control"));
+    assertEquals("é中😀", parsedTags.get("unicode"));
+    assertEquals("x?y", parsedTags.get("unpaired"));
+  }
+
+  @Test
+  public void testGlobalTagsOverridePointTags() throws Exception {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("host", "point");
+    tags.put("type", "idle");
+    Map<String, String> globalTags = new LinkedHashMap<>();
+    globalTags.put("env", "dev");
+    globalTags.put("host", "global");
+
+    String json = encode(Collections.singletonList(new DataPoint("m", 1, 1, tags)), globalTags);
+    assertEquals("[{\"metric\":\"m\",\"timestamp\":1,\"value\":1,"
+        + "\"tags\":{\"type\":\"idle\",\"env\":\"dev\",\"host\":\"global\"}}]", json);
+    assertEquals(2, tags.size());
+  }
+
+  @Test
+  public void testGlobalTagsOnlyPoint() throws Exception {
+    Map<String, String> globalTags = new LinkedHashMap<>();
+    globalTags.put("host", "global");
+    Map<String, String> tags = Collections.singletonMap("host", "point");
+
+    String json = encode(Collections.singletonList(new DataPoint("m", 1, 1, tags)), globalTags);
+    assertEquals("[{\"metric\":\"m\",\"timestamp\":1,\"value\":1,"
+        + "\"tags\":{\"host\":\"global\"}}]", json);
+  }
+
+  @Test
+  public void testLargeBatchSpansBuffers() throws Exception {
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Map<String, String> tags = new HashMap<>();
+      tags.put("index", "value-" + i);
+      dataPoints.add(new DataPoint("metric.é." + i, 1515 + i, i * 0.5, tags));
+    }
+    JSONArray json = (JSONArray) new JSONParser().parse(encode(dataPoints,
+        Collections.singletonMap("host", "h")));
+    assertEquals(2000, json.size());
+    for (int i = 0; i < 2000; i++) {
+      JSONObject point = (JSONObject) json.get(i);
+      assertEquals("metric.é." + i, point.get("metric"));
+      assertEquals(1515L + i, point.get("timestamp"));
+      assertEquals(i * 0.5, point.get("value"));
+      assertEquals("value-" + i, ((JSONObject) point.get("tags")).get("index"));
+    }
+  }
+
+  private Object encodeValue(Number value) throws Exception {
+    DataPoint dataPoint = new DataPoint("m", 1, value, Collections.emptyMap());
+    return parse(encode(Collections.singletonList(dataPoint), null)).get("value");
+  }
+
+  private String encodeRawValue(Number value) throws Exception {
+    DataPoint dataPoint = new DataPoint("m", 1, value, Collections.emptyMap());
+    String json = encode(Collections.singletonList(dataPoint), null);
+    return json.substring(json.indexOf("\"value\":") + 8, json.indexOf(",\"tags\""));
+  }
+
+  private JSONObject parse(String json) throws Exception {
+    return (JSONObject) ((JSONArray) new JSONParser().parse(json)).get(0);
+  }
+
+  private String encode(List<DataPoint> dataPoints, Map<String, String> globalTags)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Sanitizer sanitizer = Sanitizer.NO_OP_SANITIZER;
+    new DataPointsJsonEncoder().write(out, dataPoints,
+        GlobalTagsFragment.of(globalTags, sanitizer), sanitizer);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
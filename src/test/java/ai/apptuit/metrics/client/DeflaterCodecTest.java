@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+
+public class DeflaterCodecTest {
+
+  private static final long THRESHOLD = DeflaterCodec.DEFAULT_MIN_BYTES_SAVED_PER_CPU_MILLI;
+
+  @Test
+  public void testPooledStreamsWriteValidGzip() throws Exception {
+    testPooledStreams(true);
+  }
+
+  @Test
+  public void testPooledStreamsWriteValidZlib() throws Exception {
+    testPooledStreams(false);
+  }
+
+  private void testPooledStreams(boolean gzip) throws Exception {
+    byte[] data = createData();
+    for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, 1, 9, 1}) {
+      DeflaterCodec codec = DeflaterCodec.fixed(gzip, level);
+      for (int i = 0; i < 3; i++) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncodingOutputStream encoded = codec.open(out, i % 2 == 0);
+        encoded.write(data, 0, data.length / 2);
+        encoded.flush();
+        encoded.write(data, data.length / 2, data.length - data.length / 2);
+        encoded.finish();
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertArrayEquals(data, readFully(gzip ? new GZIPInputStream(in)
+            : new InflaterInputStream(in)));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testReleasedStreamRejectsWrites() throws Exception {
+    EncodingOutputStream encoded = DeflaterCodec.DEFAULT_GZIP.open(new ByteArrayOutputStream(),
+        false);
+    encoded.release();
+    encoded.write(new byte[1]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLevel() {
+    DeflaterCodec.fixed(true, 10);
+  }
+
+  @Test
+  public void testAdaptiveLevelFallsWhenCompressionIsCostly() {
+    DeflaterCodec compression = DeflaterCodec.adaptive(true, THRESHOLD);
+    assertEquals(6, compression.getLevel());
+
+    // Level 6 saves a byte in a hundred over level 3 for 20ns more per byte
+    record(compression, 6, 0.11, 30);
+    record(compression, 3, 0.12, 10);
+    assertEquals(3, compression.getLevel());
+
+    // Level 3 saves three bytes in a hundred over level 1 for 5ns more per byte
+    record(compression, 1, 0.15, 5);
+    assertEquals(3, compression.getLevel());
+  }
+
+  @Test
+  public void testAdaptiveLevelRisesWhenCompressionIsCheap() {
+    DeflaterCodec compression = DeflaterCodec.adaptive(true, THRESHOLD);
+    record(compression, 6, 0.11, 30);
+    record(compression, 9, 0.08, 40);
+    assertEquals(9, compression.getLevel());
+  }
+
+  @Test
+  public void testFixedLevelIsNotAdapted() {
+    DeflaterCodec compression = DeflaterCodec.fixed(true, 6);
+    record(compression, 6, 0.11, 30);
+    record(compression, 3, 0.12, 10);
+    assertEquals(6, compression.getLevel());
+  }
+
+  private static void record(DeflaterCodec compression, int level, double ratio,
+                             long cpuNanosPerByte) {
+    long bytesIn = 1000000;
+    compression.record(level, bytesIn, (long) (bytesIn * ratio), bytesIn * cpuNanosPerByte);
+  }
+
+  private static byte[] createData() {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      s.append("{\"metric\":\"jvm.memory.used\",\"timestamp\":").append(1500000000 + i)
+          .append(",\"value\":").append(i * 31 % 977).append("},");
+    }
+    return s.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readFully(InputStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = stream) {
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+}
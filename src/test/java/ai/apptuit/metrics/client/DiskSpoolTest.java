@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskSpoolTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = tempFolder.newFolder("spool");
+  }
+
+  @Test
+  public void testFifoOrder() throws Exception {
+    DiskSpool spool = new DiskSpool(directory, 1024, 64);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(spool.append(payload(i)));
+    }
+    assertEquals(5, spool.getPendingCount());
+
+    for (int i = 0; i < 5; i++) {
+      assertArrayEquals(payload(i), spool.peek().getPayload());
+      assertArrayEquals(payload(i), spool.peek().getPayload());
+      spool.remove(spool.peek());
+    }
+    assertNull(spool.peek());
+    assertEquals(0, spool.getPendingCount());
+    spool.close();
+  }
+
+  @Test
+  public void testRecoverAfterRestart() throws Exception {
+    DiskSpool spool = new DiskSpool(directory, 1024, 64);
+    for (int i = 0; i < 5; i++) {
+      spool.append(payload(i));
+    }
+    spool.remove(spool.peek());
+    spool.close();
+
+    spool = new DiskSpool(directory, 1024, 64);
+    assertEquals(4, spool.getPendingCount());
+    for (int i = 1; i < 5; i++) {
+      assertArrayEquals(payload(i), spool.peek().getPayload());
+      spool.remove(spool.peek());
+    }
+    spool.append(payload(5));
+    assertArrayEquals(payload(5), spool.peek().getPayload());
+    spool.close();
+  }
+
+  @Test
+  public void testOldestSegmentsAreEvicted() throws Exception {
+    //Each segment holds two records of 17 bytes, the spool holds three segments
+    DiskSpool spool = new DiskSpool(directory, 150, 50);
+    for (int i = 0; i < 8; i++) {
+      assertTrue(spool.append(payload(i)));
+    }
+    assertEquals(2, spool.getEvictedCount());
+    assertEquals(6, spool.getPendingCount());
+    assertTrue(spool.getSizeInBytes() <= 150);
+    assertArrayEquals(payload(2), spool.peek().getPayload());
+    spool.close();
+  }
+
+  @Test
+  public void testRemoveAfterEvictionKeepsUnsentRecords() throws Exception {
+    //Each segment holds two records of 17 bytes, the spool holds three segments
+    DiskSpool spool = new DiskSpool(directory, 150, 50);
+    for (int i = 0; i < 6; i++) {
+      spool.append(payload(i));
+    }
+    DiskSpool.Record replaying = spool.peek();
+    assertArrayEquals(payload(0), replaying.getPayload());
+
+    //Another sender spools while the record is replayed, evicting its segment
+    spool.append(payload(6));
+    assertEquals(2, spool.getEvictedCount());
+    spool.remove(replaying);
+
+    assertEquals(5, spool.getPendingCount());
+    assertArrayEquals(payload(2), spool.peek().getPayload());
+    spool.close();
+  }
+
+  @Test
+  public void testPayloadLargerThanSpoolIsRejected() throws Exception {
+    DiskSpool spool = new DiskSpool(directory, 64, 64);
+    assertFalse(spool.append(new byte[100]));
+    assertEquals(1, spool.getEvictedCount());
+    assertNull(spool.peek());
+    spool.close();
+  }
+
+  @Test
+  public void testCorruptTailIsDropped() throws Exception {
+    DiskSpool spool = new DiskSpool(directory, 1024, 256);
+    spool.append(payload(0));
+    spool.append(payload(1));
+    spool.close();
+
+    File[] segments = directory.listFiles();
+    assertEquals(1, segments.length);
+    try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+      //Flip a payload byte of the second record
+      long offset = 8 + (8 + payload(0).length) + 8;
+      file.seek(offset);
+      int b = file.read();
+      file.seek(offset);
+      file.write(b ^ 0xFF);
+    }
+
+    spool = new DiskSpool(directory, 1024, 256);
+    assertEquals(1, spool.getPendingCount());
+    assertArrayEquals(payload(0), spool.peek().getPayload());
+    spool.remove(spool.peek());
+    assertNull(spool.peek());
+    spool.close();
+  }
+
+  @Test
+  public void testForeignFilesAreIgnored() throws Exception {
+    assertTrue(new File(directory, "notes.txt").createNewFile());
+    File bogusSegment = new File(directory, "00000000000000000000.seg");
+    try (RandomAccessFile file = new RandomAccessFile(bogusSegment, "rw")) {
+      file.write(Arrays.copyOf("garbage".getBytes(StandardCharsets.UTF_8), 64));
+    }
+
+    DiskSpool spool = new DiskSpool(directory, 1024, 64);
+    assertEquals(0, spool.getPendingCount());
+    assertFalse(bogusSegment.exists());
+    spool.append(payload(0));
+    assertArrayEquals(payload(0), spool.peek().getPayload());
+    spool.close();
+  }
+
+  private static byte[] payload(int i) {
+    return String.format("payload-%d", i).getBytes(StandardCharsets.UTF_8);
+  }
+}
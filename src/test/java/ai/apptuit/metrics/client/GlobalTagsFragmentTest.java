@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobalTagsFragmentTest {
+
+  private Map<String, String> globalTags;
+
+  @Before
+  public void setUp() throws Exception {
+    globalTags = new LinkedHashMap<>();
+    globalTags.put("env", "dev");
+    globalTags.put("host.name", "global");
+  }
+
+  @Test
+  public void testFragmentIsCachedPerSanitizer() throws Exception {
+    GlobalTagsFragment fragment = GlobalTagsFragment.of(null, globalTags,
+        Sanitizer.NO_OP_SANITIZER);
+    assertSame(fragment, GlobalTagsFragment.of(fragment, globalTags, Sanitizer.NO_OP_SANITIZER));
+
+    GlobalTagsFragment sanitized = GlobalTagsFragment.of(fragment, globalTags,
+        Sanitizer.PROMETHEUS_SANITIZER);
+    assertNotSame(fragment, sanitized);
+    assertEquals(",\"env\":\"dev\",\"host_name\":\"global\"",
+        new String(sanitized.getJson(), StandardCharsets.UTF_8));
+    assertEquals(" env=dev host_name=global",
+        new String(sanitized.getText(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testNoGlobalTags() throws Exception {
+    GlobalTagsFragment fragment = GlobalTagsFragment.of(null, Sanitizer.NO_OP_SANITIZER);
+    assertSame(fragment, GlobalTagsFragment.of(fragment, null, Sanitizer.NO_OP_SANITIZER));
+    assertEquals(0, fragment.getJson().length);
+    assertEquals(0, fragment.getText().length);
+  }
+
+  @Test
+  public void testTextLineWithOverriddenTag() throws Exception {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("host.name", "point");
+    tags.put("type", "idle");
+    DataPoint dataPoint = new DataPoint("proc.stat.cpu", 1515, 99, tags);
+
+    ByteBuffer line = TextLineEncoder.render(new byte[0], dataPoint,
+        GlobalTagsFragment.of(globalTags, Sanitizer.NO_OP_SANITIZER), Sanitizer.NO_OP_SANITIZER);
+    assertEquals("proc.stat.cpu 1515 99 type=idle env=dev host.name=global\n",
+        StandardCharsets.UTF_8.decode(line).toString());
+  }
+
+  @Test
+  public void testTextLineWithoutGlobalTags() throws Exception {
+    DataPoint dataPoint = new DataPoint("proc.stat.cpu", 1515, 99,
+        Collections.singletonMap("type", "idle"));
+
+    ByteBuffer line = TextLineEncoder.render(new byte[0], dataPoint,
+        GlobalTagsFragment.of(null, Sanitizer.NO_OP_SANITIZER), Sanitizer.NO_OP_SANITIZER);
+    assertEquals("proc.stat.cpu 1515 99 type=idle\n",
+        StandardCharsets.UTF_8.decode(line).toString());
+  }
+}
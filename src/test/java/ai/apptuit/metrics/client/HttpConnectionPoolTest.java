@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpConnectionPoolTest {
+
+  private static final String RESPONSE_BODY = "{\"success\":1,\"failed\":0,\"errors\":[]}";
+
+  private ServerSocket serverSocket;
+  private Thread serverThread;
+  private final AtomicInteger acceptedConnections = new AtomicInteger();
+  private final AtomicInteger closedConnections = new AtomicInteger();
+  private final AtomicInteger receivedRequests = new AtomicInteger();
+  private final List<String> requestLines = new CopyOnWriteArrayList<>();
+  private volatile String keepAliveHeader = null;
+  private volatile boolean closeAfterResponse = true;
+  private volatile int stallOnRequest = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0);
+    serverThread = new Thread(this::serve);
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    serverSocket.close();
+    serverThread.join(5000);
+  }
+
+  @Test
+  public void testStaleConnectionIsEvicted() throws Exception {
+    HttpConnectionPool pool = createPool(60000);
+
+    assertEquals(200, post(pool).getStatus());
+    await().atMost(5, TimeUnit.SECONDS).until(() -> closedConnections.get() == 1);
+    assertEquals(1, pool.getIdleCount());
+
+    HttpConnectionPool.Response response = post(pool);
+    assertEquals(200, response.getStatus());
+    assertEquals(RESPONSE_BODY, response.getBody());
+    assertEquals(2, pool.getCreatedCount());
+    assertEquals(0, pool.getReusedCount());
+    assertEquals(1, pool.getEvictedCount());
+    assertEquals(2, acceptedConnections.get());
+    pool.close();
+  }
+
+  @Test
+  public void testKeepAliveTimeoutFromServerIsHonoured() throws Exception {
+    keepAliveHeader = "timeout=0";
+    HttpConnectionPool pool = createPool(60000);
+
+    post(pool);
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(1, pool.getEvictedCount());
+    pool.close();
+  }
+
+  @Test
+  public void testTimeoutAfterEntityIsNotReplayed() throws Exception {
+    closeAfterResponse = false;
+    stallOnRequest = 2;
+    URL url = new URL("http://localhost:" + serverSocket.getLocalPort() + "/api/put?details");
+    HttpConnectionPool pool = new HttpConnectionPool(url, 2, 60000, 5000, 500);
+
+    assertEquals(200, post(pool).getStatus());
+    try {
+      post(pool);
+      fail("Expected the request to time out");
+    } catch (SocketTimeoutException e) {
+      // The server may have acted on the request, so it must not be sent again
+    }
+    assertEquals(2, receivedRequests.get());
+    assertEquals(1, pool.getReusedCount());
+    assertEquals(1, acceptedConnections.get());
+    pool.close();
+  }
+
+  @Test
+  public void testEntityIsWrittenOnceOnServerClosedConnection() throws Exception {
+    HttpConnectionPool pool = createPool(60000);
+    AtomicInteger writes = new AtomicInteger();
+    HttpConnectionPool.EntityWriter oneShot = out -> {
+      if (writes.incrementAndGet() > 1) {
+        throw new IllegalStateException("Entity written twice");
+      }
+      out.write("[]".getBytes(StandardCharsets.UTF_8));
+    };
+
+    assertEquals(200, post(pool).getStatus());
+    await().atMost(5, TimeUnit.SECONDS).until(() -> closedConnections.get() == 1);
+    HttpConnectionPool.Response response = pool.post(
+        Collections.singletonMap("Content-Type", "application/json"), oneShot);
+    assertEquals(200, response.getStatus());
+    assertEquals(1, writes.get());
+    assertEquals(2, acceptedConnections.get());
+    pool.close();
+  }
+
+  @Test
+  public void testPlainHttpThroughProxyUsesAbsoluteUri() throws Exception {
+    ProxySelector defaultSelector = ProxySelector.getDefault();
+    InetSocketAddress proxyAddress = new InetSocketAddress("localhost",
+        serverSocket.getLocalPort());
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList(new Proxy(Proxy.Type.HTTP, proxyAddress));
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+      }
+    });
+    try {
+      URL url = new URL("http://metrics.example.com:8080/api/put?details");
+      HttpConnectionPool pool = new HttpConnectionPool(url, 2, 60000, 5000, 5000);
+      HttpConnectionPool.Response response = post(pool);
+      assertEquals(200, response.getStatus());
+      assertEquals(RESPONSE_BODY, response.getBody());
+      assertEquals("POST http://metrics.example.com:8080/api/put?details HTTP/1.1",
+          requestLines.get(0));
+      pool.close();
+    } finally {
+      ProxySelector.setDefault(defaultSelector);
+    }
+  }
+
+  private HttpConnectionPool createPool(long idleTimeoutMs) throws IOException {
+    URL url = new URL("http://localhost:" + serverSocket.getLocalPort() + "/api/put?details");
+    return new HttpConnectionPool(url, 2, idleTimeoutMs, 5000, 5000);
+  }
+
+  private HttpConnectionPool.Response post(HttpConnectionPool pool) throws IOException {
+    return pool.post(Collections.singletonMap("Content-Type", "application/json"),
+        out -> out.write("[]".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Answers a single request per connection unless {@code closeAfterResponse} is cleared, without
+   * announcing that the connection will be closed, just like a server whose keep-alive timer
+   * expired while the client was idling. The request numbered {@code stallOnRequest} is read but
+   * never answered.
+   */
+  private void serve() {
+    while (!serverSocket.isClosed()) {
+      try (Socket socket = serverSocket.accept()) {
+        acceptedConnections.incrementAndGet();
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          requestLines.add(line);
+          while (!line.isEmpty()) {
+            line = reader.readLine();
+          }
+          //Chunked body: read chunks till the last chunk and its trailing CRLF
+          while (!"0".equals(reader.readLine())) {
+            reader.readLine();
+          }
+          reader.readLine();
+          if (receivedRequests.incrementAndGet() == stallOnRequest) {
+            //Wait for the client to give up on the connection
+            while (reader.readLine() != null) {
+              continue;
+            }
+            break;
+          }
+
+          byte[] body = RESPONSE_BODY.getBytes(StandardCharsets.UTF_8);
+          String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+              + (keepAliveHeader != null ? "Keep-Alive: " + keepAliveHeader + "\r\n" : "")
+              + "Content-Length: " + body.length + "\r\n\r\n";
+          OutputStream out = socket.getOutputStream();
+          out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+          out.write(body);
+          out.flush();
+          if (closeAfterResponse) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        //server socket closed
+      } finally {
+        closedConnections.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class Lz4BlockCodecTest {
+
+  private final PayloadCodec codec = PayloadCodecs.lz4();
+
+  @Test
+  public void testRoundTripCompressibleData() throws Exception {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      s.append("{\"metric\":\"jvm.memory.used\",\"timestamp\":").append(1500000000 + i)
+          .append(",\"value\":").append(i * 31 % 977).append(",\"tags\":{\"host\":\"h")
+          .append(i % 7).append("\"}},");
+    }
+    byte[] data = s.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] encoded = encode(data, 1000);
+    assertArrayEquals(data, Lz4BlockDecoder.decode(new ByteArrayInputStream(encoded)));
+    assertTrue(encoded.length < data.length / 3);
+  }
+
+  @Test
+  public void testRoundTripIncompressibleData() throws Exception {
+    byte[] data = new byte[200000];
+    new Random(42).nextBytes(data);
+    byte[] encoded = encode(data, 4096);
+    assertArrayEquals(data, Lz4BlockDecoder.decode(new ByteArrayInputStream(encoded)));
+    // Stored blocks only add their headers
+    assertTrue(encoded.length <= data.length + 4 * 5 + 4);
+  }
+
+  @Test
+  public void testRoundTripEdgeCases() throws Exception {
+    Random random = new Random(7);
+    for (int length : new int[]{0, 1, 12, 13, 17, 255, 270, 65535, 65536, 65537, 300000}) {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+        // Long runs exercise overlapping matches and extended lengths
+        data[i] = (byte) (i % 1000 < 600 ? 'a' : 'a' + random.nextInt(3));
+      }
+      assertArrayEquals(data, Lz4BlockDecoder.decode(new ByteArrayInputStream(encode(data, 777))));
+    }
+  }
+
+  @Test
+  public void testSyncFlushEmitsBlock() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingOutputStream encoded = codec.open(out, true);
+    encoded.write("abcdefgh".getBytes(StandardCharsets.UTF_8));
+    encoded.flush();
+    assertTrue(out.size() > 8);
+    encoded.write("ijkl".getBytes(StandardCharsets.UTF_8));
+    encoded.finish();
+    assertEquals("abcdefghijkl", new String(Lz4BlockDecoder.decode(
+        new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptInputIsRejected() throws Exception {
+    byte[] corrupt = {5, 0, 0, 0, 0x0f, 1, 2, 3, 4, 0, 0, 0, 0};
+    Lz4BlockDecoder.decode(new ByteArrayInputStream(corrupt));
+  }
+
+  private byte[] encode(byte[] data, int chunk) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingOutputStream encoded = codec.open(out, false);
+    for (int i = 0; i < data.length; i += chunk) {
+      encoded.write(data, i, Math.min(chunk, data.length - i));
+    }
+    encoded.finish();
+    return out.toByteArray();
+  }
+}
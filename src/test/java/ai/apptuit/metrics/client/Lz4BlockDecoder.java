@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes bodies written by {@link Lz4BlockCodec}, the way an end point accepting the
+ * {@value Lz4BlockCodec#CONTENT_ENCODING} encoding would.
+ */
+class Lz4BlockDecoder {
+
+  private Lz4BlockDecoder() {
+  }
+
+  static byte[] decode(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] block = new byte[Lz4BlockCodec.maxCompressedLength(Lz4BlockCodec.BLOCK_SIZE)];
+    byte[] decoded = new byte[Lz4BlockCodec.BLOCK_SIZE];
+    while (true) {
+      int header = Integer.reverseBytes(data.readInt());
+      if (header == 0) {
+        return out.toByteArray();
+      }
+      int length = header & ~Lz4BlockCodec.STORED_FLAG;
+      if (length > block.length) {
+        throw new IOException("Corrupt block length " + length);
+      }
+      data.readFully(block, 0, length);
+      if ((header & Lz4BlockCodec.STORED_FLAG) != 0) {
+        out.write(block, 0, length);
+      } else {
+        out.write(decoded, 0, decompress(block, length, decoded));
+      }
+    }
+  }
+
+  private static int decompress(byte[] src, int length, byte[] dst) throws IOException {
+    int ip = 0;
+    int op = 0;
+    try {
+      while (true) {
+        int token = src[ip++] & 0xff;
+        int literals = token >>> 4;
+        if (literals == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            literals += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, ip, dst, op, literals);
+        ip += literals;
+        op += literals;
+        if (ip >= length) {
+          return op;
+        }
+        int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+        ip += 2;
+        int matchLength = token & 15;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += Lz4BlockCodec.MIN_MATCH;
+        int ref = op - offset;
+        if (offset == 0 || ref < 0) {
+          throw new IOException("Corrupt back reference");
+        }
+        // Overlapping copies repeat the bytes just written, so copy byte by byte
+        for (int i = 0; i < matchLength; i++) {
+          dst[op++] = dst[ref + i];
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Corrupt block", e);
+    }
+  }
+}
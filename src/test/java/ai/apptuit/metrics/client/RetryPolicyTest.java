@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void testBackoffIsJitteredAndBounded() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      long first = policy.getDelayMillis(1, -1);
+      assertTrue(first >= 50 && first <= 100);
+      long third = policy.getDelayMillis(3, -1);
+      assertTrue(third >= 200 && third <= 400);
+      long ninth = policy.getDelayMillis(9, -1);
+      assertTrue(ninth >= 500 && ninth <= 1000);
+    }
+  }
+
+  @Test
+  public void testStopsAfterMaxAttempts() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+    assertTrue(policy.getDelayMillis(2, -1) >= 0);
+    assertEquals(-1, policy.getDelayMillis(3, -1));
+    assertEquals(-1, RetryPolicy.NONE.getDelayMillis(1, -1));
+  }
+
+  @Test
+  public void testRetryAfter() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 5000);
+    assertEquals(2000, policy.getDelayMillis(1, PutResult.parseRetryAfter("2")));
+    assertEquals(-1, policy.getDelayMillis(1, PutResult.parseRetryAfter("60")));
+    assertEquals(-1, PutResult.parseRetryAfter("soon"));
+
+    String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusMinutes(1));
+    long retryAfter = PutResult.parseRetryAfter(date);
+    assertTrue(retryAfter > 50000 && retryAfter <= 60000);
+  }
+}
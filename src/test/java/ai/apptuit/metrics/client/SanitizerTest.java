@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.client.Sanitizer.CachingSanitizer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SanitizerTest {
+
+  private static final String[] NAMES = {"proc.stat.cpu", "proc_stat_cpu", "1xx", "_1xx",
+      "a__b", "a..b", "a.-/_b", "__", "_", "a", "tomcat.requests{status=200}", "日本語.metric",
+      "métric", "emoji😀name", "tab\tname", "x\ud83dy", "trailing_", "trailing.", "9",
+      "a b  c", "http://host:8080/path"};
+  private static final char[] ALPHABET = "aZ09_.-/ :{}é日\t".toCharArray();
+
+  @Test
+  public void testPrometheusMatchesRegex() throws Exception {
+    for (String name : NAMES) {
+      assertEquals(name, prometheusRegex(name), Sanitizer.PROMETHEUS_SANITIZER.sanitizer(name));
+    }
+    Random random = new Random(1515);
+    for (int i = 0; i < 10000; i++) {
+      String name = randomName(random);
+      assertEquals(name, prometheusRegex(name), Sanitizer.PROMETHEUS_SANITIZER.sanitizer(name));
+    }
+  }
+
+  @Test
+  public void testApptuitMatchesRegex() throws Exception {
+    for (String name : NAMES) {
+      assertEquals(name, apptuitRegex(name), Sanitizer.APPTUIT_SANITIZER.sanitizer(name));
+    }
+    Random random = new Random(1515);
+    for (int i = 0; i < 10000; i++) {
+      String name = randomName(random);
+      assertEquals(name, apptuitRegex(name), Sanitizer.APPTUIT_SANITIZER.sanitizer(name));
+    }
+  }
+
+  @Test
+  public void testCleanNamesAreReturnedAsIs() throws Exception {
+    String prometheusName = new String("proc_stat_cpu");
+    assertSame(prometheusName, Sanitizer.PROMETHEUS_SANITIZER.sanitizer(prometheusName));
+    String apptuitName = new String("proc.stat.cpu/métric-1");
+    assertSame(apptuitName, Sanitizer.APPTUIT_SANITIZER.sanitizer(apptuitName));
+  }
+
+  @Test
+  public void testCachingSanitizer() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CachingSanitizer sanitizer = new CachingSanitizer(name -> {
+      calls.incrementAndGet();
+      return Sanitizer.PROMETHEUS_SANITIZER.sanitizer(name);
+    }, 2);
+
+    assertEquals("proc_stat_cpu", sanitizer.sanitizer("proc.stat.cpu"));
+    assertEquals("proc_stat_cpu", sanitizer.sanitizer("proc.stat.cpu"));
+    assertEquals(1, calls.get());
+
+    sanitizer.sanitizer("b");
+    sanitizer.sanitizer("c");
+    assertEquals(3, calls.get());
+    assertTrue(sanitizer.size() <= 2);
+  }
+
+  private static String randomName(Random random) {
+    StringBuilder name = new StringBuilder();
+    int length = 1 + random.nextInt(12);
+    for (int i = 0; i < length; i++) {
+      name.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+    }
+    return name.toString();
+  }
+
+  private static String prometheusRegex(String name) {
+    return ((Character.isDigit(name.charAt(0)) ? "_" : "") + name)
+        .replaceAll("[^a-zA-Z0-9_]", "_").replaceAll("[_]+", "_");
+  }
+
+  private static String apptuitRegex(String name) {
+    return name.replaceAll("[^\\p{L}\\-./_0-9]+", "_").replaceAll("[_]+", "_");
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Test;
+
+public class TextLineEncoderTest {
+
+  private static final GlobalTagsFragment NO_GLOBAL_TAGS =
+      GlobalTagsFragment.of(null, Sanitizer.NO_OP_SANITIZER);
+
+  @Test
+  public void testValues() throws Exception {
+    assertEquals("m 1 0 k=v\n", line(0));
+    assertEquals("m 1 -42 k=v\n", line(-42));
+    assertEquals("m 1 " + Long.MIN_VALUE + " k=v\n", line(Long.MIN_VALUE));
+    assertEquals("m 1 1.5 k=v\n", line(1.5));
+    assertEquals("m 1 -0.0 k=v\n", line(-0.0));
+    assertEquals("m 1 0.000001 k=v\n", line(0.000001));
+    assertEquals("m 1 12.05 k=v\n", line(12.05));
+    assertEquals("m 1 0.1 k=v\n", line(0.1f));
+    assertEquals("m 1 NaN k=v\n", line(Double.NaN));
+    assertEquals("m 1 1.0E300 k=v\n", line(1e300));
+  }
+
+  @Test
+  public void testUtf8AndPrefix() throws Exception {
+    DataPoint dataPoint = new DataPoint("métric", 1515, 99,
+        Collections.singletonMap("unicode", "é中😀"));
+    ByteBuffer line = TextLineEncoder.render("put ".getBytes(StandardCharsets.US_ASCII),
+        dataPoint, NO_GLOBAL_TAGS, Sanitizer.NO_OP_SANITIZER);
+    assertEquals("put métric 1515 99 unicode=é中😀\n",
+        StandardCharsets.UTF_8.decode(line).toString());
+  }
+
+  @Test
+  public void testLineThatDoesNotFitLeavesBufferAsItWas() throws Exception {
+    DataPoint dataPoint = new DataPoint("proc.stat.cpu", 1515, 99,
+        Collections.singletonMap("type", "idle"));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(40);
+    assertTrue(TextLineEncoder.write(buffer, new byte[0], dataPoint, NO_GLOBAL_TAGS,
+        Sanitizer.NO_OP_SANITIZER));
+    int position = buffer.position();
+    assertFalse(TextLineEncoder.write(buffer, new byte[0], dataPoint, NO_GLOBAL_TAGS,
+        Sanitizer.NO_OP_SANITIZER));
+    assertEquals(position, buffer.position());
+
+    buffer.flip();
+    assertEquals("proc.stat.cpu 1515 99 type=idle\n",
+        StandardCharsets.UTF_8.decode(buffer).toString());
+  }
+
+  private static String line(Number value) {
+    ByteBuffer line = TextLineEncoder.render(new byte[0],
+        new DataPoint("m", 1, value, Collections.singletonMap("k", "v")), NO_GLOBAL_TAGS,
+        Sanitizer.NO_OP_SANITIZER);
+    return StandardCharsets.UTF_8.decode(line).toString();
+  }
+}
@@ -18,19 +18,27 @@ package ai.apptuit.metrics.client;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 
+import ai.apptuit.metrics.client.XCollectorForwarder.Transport;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -94,6 +102,157 @@ public class XCollectorForwarderTest {
     testForward(250, Sanitizer.NO_OP_SANITIZER);
   }
 
+  @Test
+  public void testMultiPacketStreaming() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(250);
+
+    XCollectorForwarder forwarder = new XCollectorForwarder(globalTags,
+            new InetSocketAddress("127.0.0.1", UDP_PORT));
+    forwarder.forward(writer -> dataPoints.forEach(writer), Sanitizer.NO_OP_SANITIZER);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> mockServer.countReceivedDPs() == 250);
+    DataPoint[] receivedDPs = mockServer.getReceivedDPs();
+    for (int i = 0; i < 250; i++) {
+      assertEquals(getExpectedDataPoint(dataPoints.get(i), globalTags, Sanitizer.NO_OP_SANITIZER),
+              receivedDPs[i]);
+    }
+  }
+
+  @Test
+  public void testRepeatedForwardsReusePacketBuffers() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(250);
+
+    XCollectorForwarder forwarder = new XCollectorForwarder(globalTags,
+            new InetSocketAddress("127.0.0.1", UDP_PORT));
+    forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> mockServer.countReceivedDPs() == 500);
+    DataPoint[] receivedDPs = mockServer.getReceivedDPs();
+    for (int i = 0; i < 500; i++) {
+      assertEquals(getExpectedDataPoint(dataPoints.get(i % 250), globalTags,
+              Sanitizer.NO_OP_SANITIZER), receivedDPs[i]);
+    }
+  }
+
+  @Test
+  public void testForwardToConfiguredPort() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+    List<String> lines = new CopyOnWriteArrayList<>();
+    try (ServerSocket server = new ServerSocket(0)) {
+      startTcpServer(server, lines);
+      XCollectorForwarder forwarder = new XCollectorForwarder(globalTags, Transport.TCP,
+              server.getLocalPort());
+      forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+
+      await().atMost(5, TimeUnit.SECONDS).until(() -> lines.size() == 10);
+      forwarder.close();
+    }
+  }
+
+  @Test
+  public void testTcpForward() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(250);
+    List<String> lines = new CopyOnWriteArrayList<>();
+    try (ServerSocket server = new ServerSocket(0)) {
+      startTcpServer(server, lines);
+      XCollectorForwarder forwarder = new XCollectorForwarder(globalTags,
+              new InetSocketAddress("127.0.0.1", server.getLocalPort()), Transport.TCP);
+      forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+
+      await().atMost(5, TimeUnit.SECONDS).until(() -> lines.size() == 250);
+      for (int i = 0; i < 250; i++) {
+        assertTrue(lines.get(i).startsWith("put "));
+        assertEquals(getExpectedDataPoint(dataPoints.get(i), globalTags,
+                Sanitizer.NO_OP_SANITIZER), toDataPoint(lines.get(i).substring(4)));
+      }
+      assertEquals(250, forwarder.getLinesSent());
+      assertEquals(0, forwarder.getLinesDropped());
+      assertTrue(forwarder.getBytesSent() > 250 * 20);
+      forwarder.close();
+    }
+  }
+
+  @Test
+  public void testTcpReconnectsAfterBackoff() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(10);
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    XCollectorForwarder forwarder = new XCollectorForwarder(globalTags,
+            new InetSocketAddress("127.0.0.1", port), Transport.TCP);
+    forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+    assertEquals(10, forwarder.getLinesDropped());
+    assertEquals(0, forwarder.getLinesSent());
+
+    List<String> lines = new CopyOnWriteArrayList<>();
+    try (ServerSocket server = new ServerSocket(port)) {
+      startTcpServer(server, lines);
+      await().atMost(5, TimeUnit.SECONDS).until(() -> {
+        forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+        return forwarder.getLinesSent() == 10;
+      });
+      await().atMost(5, TimeUnit.SECONDS).until(() -> lines.size() == 10);
+      forwarder.close();
+    }
+  }
+
+  @Test
+  public void testTcpSendTimesOutWhenReceiverStopsReading() throws Exception {
+    ArrayList<DataPoint> dataPoints = createDataPoints(150000);
+    try (ServerSocket server = new ServerSocket()) {
+      server.setReceiveBufferSize(4096);
+      server.bind(new InetSocketAddress("127.0.0.1", 0));
+      XCollectorForwarder forwarder = new XCollectorForwarder(globalTags,
+              new InetSocketAddress("127.0.0.1", server.getLocalPort()), Transport.TCP, 200);
+      // Connections are completed by the backlog but never accepted, so nothing is read
+      long start = System.currentTimeMillis();
+      forwarder.forward(dataPoints, Sanitizer.NO_OP_SANITIZER);
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertTrue(forwarder.getLinesDropped() > 0);
+      assertEquals(150000, forwarder.getLinesSent() + forwarder.getLinesDropped());
+
+      // Backing off, so the next batch is dropped without waiting for the receiver
+      long dropped = forwarder.getLinesDropped();
+      start = System.currentTimeMillis();
+      forwarder.forward(dataPoints.subList(0, 10), Sanitizer.NO_OP_SANITIZER);
+      assertTrue(System.currentTimeMillis() - start < 1000);
+      assertEquals(dropped + 10, forwarder.getLinesDropped());
+      forwarder.close();
+    }
+  }
+
+  private static void startTcpServer(ServerSocket server, List<String> lines) {
+    Thread thread = new Thread(() -> {
+      try (Socket client = server.accept();
+           BufferedReader reader = new BufferedReader(
+                   new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } catch (IOException e) {
+        // server closed
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static DataPoint toDataPoint(String line) {
+    Scanner fields = new Scanner(line).useDelimiter(" ");
+    String metric = fields.next();
+    long timestamp = fields.nextLong();
+    long value = fields.nextLong();
+    Map<String, String> tags = new HashMap<>();
+    fields.forEachRemaining(field -> {
+      String[] kv = field.split("=");
+      tags.put(kv[0], kv[1]);
+    });
+    return new DataPoint(metric, timestamp, value, tags);
+  }
+
   private void testForward(int numDataPoints, Sanitizer sanitizer) throws SocketException {
     ArrayList<DataPoint> dataPoints = createDataPoints(numDataPoints);
 
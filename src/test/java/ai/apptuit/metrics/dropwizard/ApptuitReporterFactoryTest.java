@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Test;
+
+public class ApptuitReporterFactoryTest {
+
+  private static final Counter METRIC = new Counter();
+
+  @Test
+  public void testExactFilters() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setIncludes(new HashSet<>(Arrays.asList("jvm.gc.count", "jvm.gc.time")));
+    factory.setExcludes(Collections.singleton("jvm.gc.time"));
+    MetricFilter filter = factory.getFilter();
+
+    assertTrue(filter.matches("jvm.gc.count", METRIC));
+    assertFalse(filter.matches("jvm.gc.time", METRIC));
+    assertFalse(filter.matches("jvm.gc.c.*", METRIC));
+  }
+
+  @Test
+  public void testRegexFilters() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setUseRegexFilters(true);
+    factory.setIncludes(new HashSet<>(Arrays.asList("jvm\\.gc\\..*", "(?i)HTTP\\..*")));
+    factory.setExcludes(new HashSet<>(Arrays.asList(".*\\.time", "jvm.gc.old|x")));
+    MetricFilter filter = factory.getFilter();
+
+    assertTrue(filter.matches("jvm.gc.count", METRIC));
+    assertTrue(filter.matches("http.requests", METRIC));
+    assertFalse(filter.matches("jvm.gc.time", METRIC));
+    assertFalse(filter.matches("jvm.gc.old", METRIC));
+    assertFalse(filter.matches("JVM.gc.count", METRIC));
+    assertFalse(filter.matches("jvm.threads", METRIC));
+  }
+
+  @Test
+  public void testRegexWithBackReferences() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setUseRegexFilters(true);
+    factory.setIncludes(new HashSet<>(Arrays.asList("(\\w+)\\.\\1", "jvm\\..*")));
+    factory.setExcludes(new HashSet<>(Arrays.asList("(?<apptuitExcluded>x)\\..*",
+        "(?<dup>y)\\.(?<z>z)", "(?<dup>y)\\.w")));
+    MetricFilter filter = factory.getFilter();
+
+    assertTrue(filter.matches("cache.cache", METRIC));
+    assertTrue(filter.matches("jvm.gc.count", METRIC));
+    assertFalse(filter.matches("cache.hits", METRIC));
+    assertFalse(filter.matches("x.cache", METRIC));
+    assertFalse(filter.matches("y.w", METRIC));
+  }
+
+  @Test
+  public void testRegexExcludesOnly() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setUseRegexFilters(true);
+    factory.setExcludes(Collections.singleton("apptuit\\.reporter\\..*"));
+    MetricFilter filter = factory.getFilter();
+
+    assertTrue(filter.matches("jvm.gc.count", METRIC));
+    assertFalse(filter.matches("apptuit.reporter.report.send", METRIC));
+  }
+
+  @Test
+  public void testGlobFilters() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setUseGlobFilters(true);
+    factory.setIncludes(new HashSet<>(Arrays.asList("jvm.gc.*", "http.server.requests[*")));
+    factory.setExcludes(Collections.singleton("*.time"));
+    MetricFilter filter = factory.getFilter();
+
+    assertTrue(filter.matches("jvm.gc.count", METRIC));
+    assertTrue(filter.matches("http.server.requests[status:200]", METRIC));
+    assertFalse(filter.matches("jvm.gc.time", METRIC));
+    assertFalse(filter.matches("jvm.threads", METRIC));
+  }
+
+  @Test
+  public void testRegexWithoutRules() throws Exception {
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setUseRegexFilters(true);
+    assertTrue(factory.getFilter().matches("anything", METRIC));
+  }
+}
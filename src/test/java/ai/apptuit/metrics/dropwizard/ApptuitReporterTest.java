@@ -19,6 +19,7 @@ package ai.apptuit.metrics.dropwizard;
 import ai.apptuit.metrics.client.DataPoint;
 import ai.apptuit.metrics.client.Sanitizer;
 import ai.apptuit.metrics.dropwizard.ApptuitReporter.ReportingMode;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.SendMode;
 import ai.apptuit.metrics.dropwizard.BaseMockClient.DataListener;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.*;
@@ -34,10 +35,12 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Rajiv Shivane
@@ -50,6 +53,7 @@ public class ApptuitReporterTest {
 
   private MetricRegistry registry;
   private int period = 1;
+  private SendMode sendMode = SendMode.SYNC;
 
   @Before
   public void setUp() throws Exception {
@@ -68,6 +72,34 @@ public class ApptuitReporterTest {
             "testCounterPut." + UUID.randomUUID().toString());
   }
 
+  @Test
+  public void testCounterPutAsync() throws Exception {
+    sendMode = SendMode.ASYNC;
+    testCounter(ReportingMode.API_PUT,
+            "testCounterPutAsync." + UUID.randomUUID().toString());
+  }
+
+  @Test
+  public void testCounterPutStreaming() throws Exception {
+    sendMode = SendMode.STREAMING;
+    testCounter(ReportingMode.API_PUT,
+            "testCounterPutStreaming." + UUID.randomUUID().toString());
+  }
+
+  @Test
+  public void testCounterPutPipelined() throws Exception {
+    sendMode = SendMode.PIPELINED;
+    testCounter(ReportingMode.API_PUT,
+            "testCounterPutPipelined." + UUID.randomUUID().toString());
+  }
+
+  @Test
+  public void testCounterXCollectorStreaming() throws Exception {
+    sendMode = SendMode.STREAMING;
+    testCounter(ReportingMode.XCOLLECTOR,
+            "testCounterXCollectorStreaming." + UUID.randomUUID().toString());
+  }
+
   @Test
   public void testCounterXCollector() throws Exception {
     testCounter(ReportingMode.XCOLLECTOR,
@@ -228,6 +260,103 @@ public class ApptuitReporterTest {
     assertEquals(reportedPoints.size(), reportedMetrics.size() - 1 + countMetrics.size());
   }
 
+  @Test
+  public void testParallelCollectionMatchesSequential() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      registry.counter("parallel.counter." + i).inc(i);
+      registry.timer("parallel.timer." + i).update(i, TimeUnit.MILLISECONDS);
+      registry.histogram("parallel.histogram." + i).update(i);
+      registry.meter("parallel.meter." + i).mark(i);
+      registry.register("parallel.gauge." + i, (Gauge<Integer>) () -> 7);
+    }
+
+    List<String> sequential = collectOnce(1);
+    List<String> parallel = collectOnce(4);
+    assertEquals(sequential, parallel);
+  }
+
+  @Test
+  public void testStreamingCollectsSequentially() throws Exception {
+    sendMode = SendMode.STREAMING;
+    Set<Thread> collectingThreads = ConcurrentHashMap.newKeySet();
+    for (int i = 0; i < 50; i++) {
+      registry.counter("parallel.counter." + i).inc(i);
+      registry.timer("parallel.timer." + i).update(i, TimeUnit.MILLISECONDS);
+      registry.histogram("parallel.histogram." + i).update(i);
+      registry.meter("parallel.meter." + i).mark(i);
+      registry.register("parallel.gauge." + i, (Gauge<Integer>) () -> {
+        collectingThreads.add(Thread.currentThread());
+        return 7;
+      });
+    }
+
+    collectOnce(4);
+    assertEquals(Collections.singleton(Thread.currentThread()), collectingThreads);
+  }
+
+  private List<String> collectOnce(int parallelism) throws Exception {
+    List<String> reported = new ArrayList<>();
+    DataListener listener = dataPoints -> dataPoints.forEach(dataPoint -> {
+      if (dataPoint.getMetric().startsWith("parallel.")) {
+        String value = dataPoint.getMetric().contains(".rate") ? "" : dataPoint.getValue() + "";
+        reported.add(dataPoint.getMetric() + dataPoint.getTags() + value);
+      }
+    });
+    BaseMockClient mockClient = MockApptuitPutClient.getInstance();
+
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setApiKey("dummy");
+    factory.setReportingMode(ReportingMode.API_PUT);
+    factory.setSanitizer(Sanitizer.NO_OP_SANITIZER);
+    factory.setCollectionParallelism(parallelism);
+    factory.setSendMode(sendMode);
+    try (ScheduledReporter reporter = factory.build(registry)) {
+      mockClient.addPutListener(listener);
+      reporter.report();
+      mockClient.removePutListener(listener);
+    }
+    assertEquals(50 + 50 + 50 * 11 + 50 * 4 + 50 * 14, reported.size());
+    return reported;
+  }
+
+  @Test
+  public void testUnchangedValuesAreSuppressed() throws Exception {
+    Counter counter = registry.counter("suppressed.counter");
+    Timer timer = registry.timer("suppressed.timer");
+    registry.register("suppressed.gauge", (Gauge<Integer>) () -> 7);
+    counter.inc();
+    timer.update(1, TimeUnit.MILLISECONDS);
+
+    List<String> reported = new ArrayList<>();
+    DataListener listener = dataPoints -> dataPoints.forEach(dataPoint -> {
+      if (dataPoint.getMetric().startsWith("suppressed.")) {
+        reported.add(dataPoint.getMetric());
+      }
+    });
+    BaseMockClient mockClient = MockApptuitPutClient.getInstance();
+    ApptuitReporterFactory factory = new ApptuitReporterFactory();
+    factory.setApiKey("dummy");
+    factory.setReportingMode(ReportingMode.API_PUT);
+    factory.setSuppressUnchanged(true);
+    factory.setHeartbeatInterval(1, TimeUnit.HOURS);
+    try (ScheduledReporter reporter = factory.build(registry)) {
+      mockClient.addPutListener(listener);
+      reporter.report();
+      assertEquals(2 + 14, reported.size());
+
+      reported.clear();
+      reporter.report();
+      assertEquals(Collections.emptyList(), reported);
+
+      counter.inc();
+      reporter.report();
+      assertEquals(Collections.singletonList("suppressed.counter"), reported);
+      mockClient.removePutListener(listener);
+    }
+    // The reporter's own unchanged metrics are suppressed as well
+    assertTrue(registry.counter("apptuit.reporter.metrics.suppressed.count").getCount() >= 5);
+  }
+
   private Set<TagEncodedMetricName> getExpectedTimers(String metricName) {
     Set<TagEncodedMetricName> expectedMetrics = new TreeSet<>();
     TagEncodedMetricName root = TagEncodedMetricName.decode(metricName);
@@ -278,6 +407,7 @@ public class ApptuitReporterTest {
     }
 
     factory.setReportingMode(mode);
+    factory.setSendMode(sendMode);
     factory.setSanitizer(Sanitizer.NO_OP_SANITIZER);
 
     ScheduledReporter reporter = factory.build(registry);
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.dropwizard.ApptuitReporter.OverflowPolicy;
+import com.codahale.metrics.Counter;
+import java.lang.Thread.State;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncDataPointsReporterTest {
+
+  private final List<Collection<DataPoint>> delivered =
+      Collections.synchronizedList(new ArrayList<>());
+  private Counter droppedBatches;
+  private Counter droppedPoints;
+  private CountDownLatch sending;
+  private CountDownLatch release;
+
+  @Before
+  public void setUp() throws Exception {
+    droppedBatches = new Counter();
+    droppedPoints = new Counter();
+    sending = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    AsyncDataPointsReporter reporter = createReporter(OverflowPolicy.DROP_NEWEST);
+    List<Collection<DataPoint>> batches = fillQueueAndOverflow(reporter);
+    release.countDown();
+    reporter.close();
+
+    assertEquals(batches.subList(0, 2), delivered);
+    assertEquals(1, droppedBatches.getCount());
+    assertEquals(3, droppedPoints.getCount());
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    AsyncDataPointsReporter reporter = createReporter(OverflowPolicy.DROP_OLDEST);
+    List<Collection<DataPoint>> batches = fillQueueAndOverflow(reporter);
+    release.countDown();
+    reporter.close();
+
+    assertEquals(batches.get(0), delivered.get(0));
+    assertEquals(batches.get(2), delivered.get(1));
+    assertEquals(2, delivered.size());
+    assertEquals(1, droppedBatches.getCount());
+    assertEquals(2, droppedPoints.getCount());
+  }
+
+  @Test
+  public void testBlockTimesOut() throws Exception {
+    AsyncDataPointsReporter reporter = createReporter(OverflowPolicy.BLOCK);
+    long start = System.nanoTime();
+    fillQueueAndOverflow(reporter);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    release.countDown();
+    reporter.close();
+
+    assertEquals(2, delivered.size());
+    assertEquals(1, droppedBatches.getCount());
+  }
+
+  @Test
+  public void testCloseDrainsQueue() throws Exception {
+    AsyncDataPointsReporter reporter = createReporter(OverflowPolicy.BLOCK);
+    reporter.put(createDataPoints(1));
+    sending.await(5, TimeUnit.SECONDS);
+    reporter.put(createDataPoints(2));
+    assertEquals(1, reporter.getQueueDepth());
+    release.countDown();
+    reporter.close();
+
+    assertEquals(0, reporter.getQueueDepth());
+    assertEquals(2, delivered.size());
+    assertEquals(0, droppedBatches.getCount());
+  }
+
+  @Test
+  public void testBlockedBatchIsDroppedWhenQueueIsDrainedOnClose() throws Exception {
+    AsyncDataPointsReporter reporter = createReporter(OverflowPolicy.BLOCK, 5000);
+    reporter.put(createDataPoints(1));
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+    reporter.put(createDataPoints(2));
+    Thread putter = new Thread(() -> reporter.put(createDataPoints(3)));
+    putter.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> putter.getState() == State.TIMED_WAITING);
+
+    //Interrupting close() drains the queue, which lets the blocked batch in after shutdown
+    Thread closer = new Thread(reporter::close);
+    closer.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> closer.getState() == State.TIMED_WAITING);
+    closer.interrupt();
+    closer.join(5000);
+    putter.join(5000);
+
+    assertEquals(1, delivered.size());
+    assertEquals(2, droppedBatches.getCount());
+    assertEquals(5, droppedPoints.getCount());
+  }
+
+  /**
+   * Blocks the sender thread on the first batch, queues the second and overflows with the third.
+   */
+  private List<Collection<DataPoint>> fillQueueAndOverflow(AsyncDataPointsReporter reporter)
+      throws InterruptedException {
+    List<Collection<DataPoint>> batches = new ArrayList<>();
+    batches.add(createDataPoints(1));
+    batches.add(createDataPoints(2));
+    batches.add(createDataPoints(3));
+
+    reporter.put(batches.get(0));
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+    reporter.put(batches.get(1));
+    reporter.put(batches.get(2));
+    return batches;
+  }
+
+  private AsyncDataPointsReporter createReporter(OverflowPolicy policy) {
+    return createReporter(policy, 100);
+  }
+
+  private AsyncDataPointsReporter createReporter(OverflowPolicy policy,
+                                                 long overflowTimeoutMillis) {
+    return new AsyncDataPointsReporter(dataPoints -> {
+      sending.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      delivered.add(dataPoints);
+    }, 1, policy, overflowTimeoutMillis, 1, droppedBatches, droppedPoints);
+  }
+
+  private Collection<DataPoint> createDataPoints(int numDataPoints) {
+    List<DataPoint> dataPoints = new ArrayList<>();
+    for (int i = 0; i < numDataPoints; i++) {
+      dataPoints.add(new DataPoint("test.metric", 1515, i, Collections.emptyMap()));
+    }
+    return dataPoints;
+  }
+}
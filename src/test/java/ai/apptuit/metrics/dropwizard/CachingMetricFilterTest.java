@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CachingMetricFilterTest {
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Test
+  public void testDecisionsAreCached() throws Exception {
+    CachingMetricFilter filter = new CachingMetricFilter((name, metric) -> {
+      calls.incrementAndGet();
+      return name.startsWith("jvm.");
+    }, 10);
+
+    assertTrue(filter.matches("jvm.gc.count", new Counter()));
+    assertTrue(filter.matches("jvm.gc.count", new Counter()));
+    assertFalse(filter.matches("http.requests", new Counter()));
+    assertFalse(filter.matches("http.requests", new Counter()));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testRemovedMetricIsForgotten() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    CachingMetricFilter filter = new CachingMetricFilter((name, metric) -> true, 10);
+    registry.addListener(filter);
+
+    registry.counter("requests");
+    registry.timer("latency");
+    registry.getCounters(filter);
+    registry.getTimers(filter);
+    assertEquals(2, filter.size());
+
+    registry.remove("requests");
+    registry.remove("latency");
+    assertEquals(0, filter.size());
+  }
+
+  @Test
+  public void testCacheIsBounded() throws Exception {
+    CachingMetricFilter filter = new CachingMetricFilter((name, metric) -> {
+      calls.incrementAndGet();
+      return true;
+    }, 1);
+
+    filter.matches("a", new Counter());
+    filter.matches("b", new Counter());
+    filter.matches("b", new Counter());
+    assertEquals(1, filter.size());
+    assertEquals(3, calls.get());
+  }
+}
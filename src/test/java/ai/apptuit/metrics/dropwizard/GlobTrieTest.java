@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class GlobTrieTest {
+
+  @Test
+  public void testPrefixRules() throws Exception {
+    GlobTrie trie = new GlobTrie(set("jvm.gc.*", "http.server.requests[*", "exact"),
+        set("jvm.gc.old.*"));
+
+    assertTrue(trie.test("jvm.gc.count"));
+    assertTrue(trie.test("jvm.gc."));
+    assertTrue(trie.test("http.server.requests[status:200]"));
+    assertTrue(trie.test("exact"));
+    assertFalse(trie.test("exactly"));
+    assertFalse(trie.test("jvm.gc"));
+    assertFalse(trie.test("jvm.gc.old.count"));
+    assertFalse(trie.test("http.server.requests"));
+  }
+
+  @Test
+  public void testInnerWildcards() throws Exception {
+    GlobTrie trie = new GlobTrie(Collections.emptySet(), set("*.time", "a*b*c", "x**y"));
+
+    assertFalse(trie.test("jvm.gc.time"));
+    assertFalse(trie.test(".time"));
+    assertTrue(trie.test("jvm.gc.time.max"));
+    assertFalse(trie.test("abc"));
+    assertFalse(trie.test("aXbYbZc"));
+    assertTrue(trie.test("aXbYbZcd"));
+    assertFalse(trie.test("xy"));
+    assertTrue(trie.test("jvm.threads"));
+  }
+
+  @Test
+  public void testMatchesRegexEquivalent() throws Exception {
+    Random random = new Random(1515);
+    for (int round = 0; round < 200; round++) {
+      Set<String> includes = new HashSet<>();
+      Set<String> excludes = new HashSet<>();
+      for (int i = random.nextInt(4); i > 0; i--) {
+        includes.add(randomString(random, "ab.*", 5));
+      }
+      for (int i = random.nextInt(4); i > 0; i--) {
+        excludes.add(randomString(random, "ab.*", 5));
+      }
+      GlobTrie trie = new GlobTrie(includes, excludes);
+      for (int i = 0; i < 200; i++) {
+        String name = randomString(random, "ab.", 8);
+        boolean expected = !matchesAny(excludes, name)
+            && (includes.isEmpty() || matchesAny(includes, name));
+        assertEquals(includes + " " + excludes + " " + name, expected, trie.test(name));
+      }
+    }
+  }
+
+  private static boolean matchesAny(Set<String> globs, String name) {
+    for (String glob : globs) {
+      String regex = Arrays.stream(glob.split("\\*", -1)).map(Pattern::quote)
+          .reduce((a, b) -> a + ".*" + b).orElse("");
+      if (name.matches(regex)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String randomString(Random random, String alphabet, int maxLength) {
+    StringBuilder s = new StringBuilder();
+    for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+      s.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return s.toString();
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+}
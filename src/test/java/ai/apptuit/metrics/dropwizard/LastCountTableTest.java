@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class LastCountTableTest {
+
+  @Test
+  public void testUpdateReportsChanges() throws Exception {
+    LastCountTable table = new LastCountTable(0);
+    assertTrue(table.update(7, 1));
+    assertFalse(table.update(7, 1));
+    assertTrue(table.update(7, 2));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void testShouldSendHonoursHeartbeat() throws Exception {
+    LastCountTable table = new LastCountTable(0);
+    assertTrue(table.shouldSend(3, 10, 1000, 60));
+    assertFalse(table.shouldSend(3, 10, 1030, 60));
+    assertTrue(table.shouldSend(3, 11, 1040, 60));
+    assertFalse(table.shouldSend(3, 11, 1099, 60));
+    assertTrue(table.shouldSend(3, 11, 1100, 60));
+    assertFalse(table.shouldSend(3, 11, 1101, 60));
+  }
+
+  @Test
+  public void testMatchesHashMap() throws Exception {
+    LastCountTable table = new LastCountTable(0);
+    Map<Integer, Long> expected = new HashMap<>();
+    Random random = new Random(1515);
+    for (int i = 0; i < 100000; i++) {
+      int id = random.nextInt(2000);
+      if (random.nextInt(4) == 0) {
+        table.remove(id);
+        expected.remove(id);
+      } else {
+        long count = random.nextInt(3);
+        Long previous = expected.put(id, count);
+        assertEquals(previous == null || previous != count, table.update(id, count));
+      }
+    }
+    assertEquals(expected.size(), table.size());
+    table.ensureCapacity(100000);
+    expected.forEach((id, count) -> assertFalse(table.update(id, count)));
+  }
+
+  @Test
+  public void testRemovedMetricsArePurged() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    LastCountTable table = new LastCountTable(0);
+    MetricNameCache cache = new MetricNameCache(10, new Counter(), new Counter(), table::remove);
+    registry.addListener(cache);
+
+    registry.timer("latency");
+    DerivedMetricNames names = cache.derive("latency", DerivedMetricNames::forTimer);
+    table.update(names.id, 5);
+    assertEquals(1, table.size());
+
+    registry.remove("latency");
+    assertEquals(0, table.size());
+  }
+}
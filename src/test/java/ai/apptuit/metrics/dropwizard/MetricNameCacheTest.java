@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricNameCacheTest {
+
+  private Counter hits;
+  private Counter misses;
+
+  @Before
+  public void setUp() throws Exception {
+    hits = new Counter();
+    misses = new Counter();
+  }
+
+  @Test
+  public void testDecodedNameIsCached() throws Exception {
+    MetricNameCache cache = new MetricNameCache(10, hits, misses);
+    TagEncodedMetricName name = cache.decode("proc.stat.cpu[host:myhost,type:idle]");
+
+    assertEquals(TagEncodedMetricName.decode("proc.stat.cpu[host:myhost,type:idle]"), name);
+    assertSame(name, cache.decode("proc.stat.cpu[host:myhost,type:idle]"));
+    assertEquals(1, hits.getCount());
+    assertEquals(1, misses.getCount());
+  }
+
+  @Test
+  public void testRemovedMetricIsEvicted() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    MetricNameCache cache = new MetricNameCache(10, hits, misses);
+    registry.addListener(cache);
+
+    registry.counter("requests[status:200]");
+    registry.timer("latency");
+    cache.decode("requests[status:200]");
+    cache.derive("latency", DerivedMetricNames::forTimer);
+    assertEquals(3, cache.size());
+    registry.remove("requests[status:200]");
+    registry.remove("latency");
+    assertEquals(0, cache.size());
+
+    registry.counter("requests[status:200]");
+    registry.timer("latency");
+    cache.decode("requests[status:200]");
+    cache.decode("latency");
+    assertEquals(2, cache.size());
+
+    registry.remove("requests[status:200]");
+    assertEquals(1, cache.size());
+    registry.remove("latency");
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDerivedNamesAreCached() throws Exception {
+    MetricNameCache cache = new MetricNameCache(10, hits, misses);
+    DerivedMetricNames names = cache.derive("jdbc[db:main]", DerivedMetricNames::forTimer);
+
+    assertSame(names, cache.derive("jdbc[db:main]", DerivedMetricNames::forTimer));
+    assertEquals(TagEncodedMetricName.decode("jdbc.count[db:main]"), names.count);
+    assertEquals(TagEncodedMetricName.decode("jdbc.duration.max[db:main]"), names.max);
+    assertEquals(TagEncodedMetricName.decode("jdbc.duration[db:main,quantile:0.999]"),
+        names.quantiles[5]);
+    assertEquals(TagEncodedMetricName.decode("jdbc.rate[db:main,window:15m]"), names.rates[2]);
+
+    DerivedMetricNames meterNames = cache.derive("hits", DerivedMetricNames::forMeter);
+    assertEquals(TagEncodedMetricName.decode("hits.total"), meterNames.count);
+    assertNull(meterNames.quantiles);
+    DerivedMetricNames histogramNames = cache.derive("sizes", DerivedMetricNames::forHistogram);
+    assertEquals(TagEncodedMetricName.decode("sizes[quantile:0.5]"), histogramNames.quantiles[0]);
+    assertNull(histogramNames.rates);
+  }
+
+  @Test
+  public void testDerivedNamesAreBounded() throws Exception {
+    MetricNameCache cache = new MetricNameCache(2, hits, misses);
+    Set<Integer> ids = new HashSet<>();
+    for (int i = 0; i < 2; i++) {
+      DerivedMetricNames names = cache.derive("timer" + i, DerivedMetricNames::forTimer);
+      assertSame(names, cache.derive("timer" + i, DerivedMetricNames::forTimer));
+      ids.add(names.id);
+    }
+    assertEquals(2, ids.size());
+    assertFalse(ids.contains(DerivedMetricNames.UNTRACKED));
+
+    DerivedMetricNames untracked = cache.derive("timer2", DerivedMetricNames::forTimer);
+    assertEquals(DerivedMetricNames.UNTRACKED, untracked.id);
+    assertEquals(TagEncodedMetricName.decode("timer2.count"), untracked.count);
+    assertNotSame(untracked, cache.derive("timer2", DerivedMetricNames::forTimer));
+    assertEquals(4, cache.size());
+  }
+
+  @Test
+  public void testNamesOfMetricRemovedBeforeCachingAreNotKept() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    Set<Integer> evicted = new HashSet<>();
+    MetricNameCache cache = new MetricNameCache(10, hits, misses, evicted::add,
+        name -> registry.getMetrics().containsKey(name));
+    registry.addListener(cache);
+
+    //Read by a report, then removed before the report looks up its names
+    registry.timer("latency");
+    registry.remove("latency");
+    DerivedMetricNames names = cache.derive("latency", DerivedMetricNames::forTimer);
+    assertEquals(DerivedMetricNames.UNTRACKED, names.id);
+    assertEquals(TagEncodedMetricName.decode("latency.count"), names.count);
+    assertEquals(1, evicted.size());
+    assertEquals(0, cache.size());
+
+    registry.timer("latency");
+    names = cache.derive("latency", DerivedMetricNames::forTimer);
+    assertNotEquals(DerivedMetricNames.UNTRACKED, names.id);
+    assertSame(names, cache.derive("latency", DerivedMetricNames::forTimer));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCacheIsBounded() throws Exception {
+    MetricNameCache cache = new MetricNameCache(2, hits, misses);
+    cache.decode("a");
+    cache.decode("b");
+    cache.decode("c");
+    cache.decode("c");
+    assertEquals(2, cache.size());
+    assertEquals(4, misses.getCount());
+    cache.decode("a");
+    assertEquals(1, hits.getCount());
+  }
+}
@@ -23,7 +23,11 @@ import static org.powermock.api.mockito.PowerMockito.mock;
 
 import ai.apptuit.metrics.client.ApptuitPutClient;
 import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.client.DataPointProducer;
+import ai.apptuit.metrics.client.PutResult;
 import ai.apptuit.metrics.client.Sanitizer;
+import java.util.ArrayList;
+import java.util.List;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 
@@ -46,11 +50,18 @@ public class MockApptuitPutClient extends BaseMockClient {
     ApptuitPutClient mockPutClient = mock(ApptuitPutClient.class);
     PowerMockito.whenNew(ApptuitPutClient.class).withAnyArguments().thenReturn(mockPutClient);
 
-    doAnswer((Answer<Void>) invocation -> {
+    doAnswer((Answer<PutResult>) invocation -> {
       Object[] args = invocation.getArguments();
       getInstance().notifyListeners(getDataPoints(args));
       return null;
-    }).when(mockPutClient).put(anyCollectionOf(DataPoint.class), any(Sanitizer.class));
+    }).when(mockPutClient).send(anyCollectionOf(DataPoint.class), any(Sanitizer.class));
+
+    doAnswer((Answer<PutResult>) invocation -> {
+      List<DataPoint> dataPoints = new ArrayList<>();
+      ((DataPointProducer) invocation.getArguments()[0]).writeTo(dataPoints::add);
+      getInstance().notifyListeners(dataPoints);
+      return null;
+    }).when(mockPutClient).send(any(DataPointProducer.class), any(Sanitizer.class));
 
   }
 
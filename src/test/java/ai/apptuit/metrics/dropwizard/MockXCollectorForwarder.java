@@ -22,8 +22,11 @@ import static org.mockito.Mockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mock;
 
 import ai.apptuit.metrics.client.DataPoint;
+import ai.apptuit.metrics.client.DataPointProducer;
 import ai.apptuit.metrics.client.Sanitizer;
 import ai.apptuit.metrics.client.XCollectorForwarder;
+import java.util.ArrayList;
+import java.util.List;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 
@@ -52,6 +55,13 @@ public class MockXCollectorForwarder extends BaseMockClient {
       getInstance().notifyListeners(getDataPoints(args));
       return null;
     }).when(forwarder).forward(anyCollectionOf(DataPoint.class), any(Sanitizer.class));
+
+    doAnswer((Answer<Void>) invocation -> {
+      List<DataPoint> dataPoints = new ArrayList<>();
+      ((DataPointProducer) invocation.getArguments()[0]).writeTo(dataPoints::add);
+      getInstance().notifyListeners(dataPoints);
+      return null;
+    }).when(forwarder).forward(any(DataPointProducer.class), any(Sanitizer.class));
   }
 
   @SuppressWarnings("unchecked")
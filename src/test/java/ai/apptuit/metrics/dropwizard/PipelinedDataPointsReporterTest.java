@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.client.DataPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PipelinedDataPointsReporterTest {
+
+  private final List<List<DataPoint>> delivered =
+      Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void testNextReportIsBuiltWhileSending() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    PipelinedDataPointsReporter pipeline = new PipelinedDataPointsReporter(dataPoints -> {
+      sending.countDown();
+      awaitQuietly(release);
+      delivered.add(new ArrayList<>(dataPoints));
+    });
+
+    List<DataPoint> first = pipeline.nextBuffer();
+    first.add(point(1));
+    pipeline.put(first);
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+    List<DataPoint> second = pipeline.nextBuffer();
+    assertNotSame(first, second);
+    assertTrue(second.isEmpty());
+    second.add(point(2));
+    assertEquals(0, delivered.size());
+
+    release.countDown();
+    pipeline.put(second);
+    pipeline.close();
+
+    assertEquals(2, delivered.size());
+    assertEquals(point(1), delivered.get(0).get(0));
+    assertEquals(point(2), delivered.get(1).get(0));
+  }
+
+  @Test
+  public void testBuffersAreRecycled() throws Exception {
+    PipelinedDataPointsReporter pipeline = new PipelinedDataPointsReporter(
+        dataPoints -> delivered.add(new ArrayList<>(dataPoints)));
+
+    List<DataPoint> first = pipeline.nextBuffer();
+    first.add(point(1));
+    pipeline.put(first);
+    List<DataPoint> second = pipeline.nextBuffer();
+    second.add(point(2));
+    pipeline.put(second);
+
+    assertSame(first, pipeline.nextBuffer());
+    assertTrue(first.isEmpty());
+    pipeline.close();
+    assertTrue(second.isEmpty());
+    assertEquals(2, delivered.size());
+  }
+
+  @Test
+  public void testInterruptedHandOverWaitsForSend() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    PipelinedDataPointsReporter pipeline = new PipelinedDataPointsReporter(dataPoints -> {
+      sending.countDown();
+      awaitQuietly(release);
+      delivered.add(new ArrayList<>(dataPoints));
+    });
+
+    List<DataPoint> first = pipeline.nextBuffer();
+    first.add(point(1));
+    pipeline.put(first);
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+    Thread reporter = Thread.currentThread();
+    Thread releaser = new Thread(() -> {
+      reporter.interrupt();
+      sleepQuietly(200);
+      release.countDown();
+    });
+    releaser.start();
+    List<DataPoint> second = pipeline.nextBuffer();
+    second.add(point(2));
+    pipeline.put(second);
+
+    // The first report was fully sent before its buffer was handed back
+    assertTrue(Thread.interrupted());
+    assertEquals(Collections.singletonList(point(1)), delivered.get(0));
+    assertTrue(first.isEmpty());
+    releaser.join();
+    pipeline.close();
+    assertEquals(2, delivered.size());
+  }
+
+  private static DataPoint point(long value) {
+    return new DataPoint("pipeline.test", 1500000000L, value, Collections.emptyMap());
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}